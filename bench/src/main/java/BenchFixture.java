@@ -0,0 +1,162 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.Random;
+
+import org.mindrot.jbcrypt.BCrypt;
+
+// Generates car_inventory.db look-alikes of a given size with a fixed seed, so every run of a given size
+// measures the same data. A fixture is built under a temporary name and renamed when complete, so an
+// interrupted build is never reused.
+public class BenchFixture {
+    static final int USERS = 20;
+    static final int HASH_COST = 10;
+    private static final int BATCH_SIZE = 10_000;
+    private static final long SEED = 42;
+
+    // The tables as created by the original car_inventory.db; SchemaMigrator adds the rest
+    private static final String[] BASE_SCHEMA = {
+            "CREATE TABLE Vehicles (id INTEGER PRIMARY KEY AUTOINCREMENT, make VARCHAR(200), model VARCHAR(200), " +
+                    "variant VARCHAR(200), registration DATE, category VARCHAR(200), price INTEGER, mileage INTEGER, " +
+                    "fueltype VARCHAR(200), size INTEGER, engineposition VARCHAR(200), power INTEGER, " +
+                    "drivetrain VARCHAR(200), transmission VARCHAR(200), colour VARCHAR(200), " +
+                    "interiorcolour VARCHAR(200), enginetype VARCHAR(200), notes TEXT)",
+            "CREATE TABLE Users (id INTEGER PRIMARY KEY AUTOINCREMENT, email VARCHAR(200), firstname VARCHAR(200), lastname VARCHAR(200))",
+            "CREATE TABLE Saltpw (id INTEGER, saltpw VARCHAR(200), FOREIGN KEY (id) REFERENCES Users(id))",
+            "CREATE TABLE Salts (id INTEGER, salt VARCHAR(64), FOREIGN KEY (id) REFERENCES Users(id))",
+            "CREATE TABLE Admin (id INTEGER, FOREIGN KEY (id) REFERENCES Users(id))",
+            "CREATE TABLE Appointments (id INTEGER PRIMARY KEY AUTOINCREMENT, car_id INTEGER, user_id INTEGER, date DATE, " +
+                    "FOREIGN KEY (car_id) REFERENCES Vehicles(id), FOREIGN KEY (user_id) REFERENCES Users(id))"
+    };
+
+    private static final String[][] MODELS = {
+            {"Audi", "A3", "A4", "A6", "Q5", "TT"},
+            {"BMW", "1-Series", "3-Series", "5-Series", "X3", "Z4"},
+            {"Ford", "Fiesta", "Focus", "Mondeo", "Kuga", "Mustang"},
+            {"Mercedes-Benz", "A-Class", "C-Class", "E-Class", "S-Class", "GLC"},
+            {"Porsche", "911", "Boxster", "Cayenne", "Macan", "Taycan"},
+            {"Toyota", "Yaris", "Corolla", "RAV4", "Prius", "Supra"},
+            {"Vauxhall", "Corsa", "Astra", "Insignia", "Mokka", "VX220"},
+            {"Volkswagen", "Polo", "Golf", "Passat", "Tiguan", "ID.3"}
+    };
+    private static final String[] CATEGORIES = {"hatchback", "saloon", "estate", "suv", "coupe", "convertible"};
+    private static final String[] FUEL_TYPES = {"petrol", "diesel", "hybrid", "electric"};
+    private static final String[] DRIVETRAINS = {"fwd", "rwd", "awd"};
+    private static final String[] TRANSMISSIONS = {"manual", "automatic"};
+    private static final String[] COLOURS = {"Black", "White", "Silver", "Grey", "Blue", "Red"};
+
+    static String email(int user) {
+        return "user" + user + "@bench.test";
+    }
+
+    static String password(int user) {
+        return "password" + user;
+    }
+
+    // Returns the fixture's path, building it first if it does not exist yet
+    public static Path create(Path dir, int vehicles) throws Exception {
+        Path fixture = dir.resolve("fixture-" + vehicles + ".db");
+        if (Files.exists(fixture)) {
+            return fixture;
+        }
+        Files.createDirectories(dir);
+        Path building = dir.resolve("fixture-" + vehicles + ".db.building");
+        Files.deleteIfExists(building);
+
+        System.out.println("Generating a fixture with " + vehicles + " vehicles in " + fixture);
+        try (ConnectionPool pool = new ConnectionPool("jdbc:sqlite:" + building, 1)) {
+            try (ConnectionPool.Lease lease = pool.writer();
+                 Statement stmt = lease.connection().createStatement()) {
+                for (String sql : BASE_SCHEMA) {
+                    stmt.execute(sql);
+                }
+            }
+            Random random = new Random(SEED);
+            insertVehicles(pool, random, vehicles);
+            insertUsers(pool);
+            insertPastAppointments(pool, random, vehicles);
+            SchemaMigrator.migrate(pool);
+        }
+        Files.move(building, fixture, StandardCopyOption.ATOMIC_MOVE);
+        return fixture;
+    }
+
+    static Vehicle randomVehicle(Random random) {
+        String[] models = MODELS[random.nextInt(MODELS.length)];
+        Vehicle vehicle = new Vehicle();
+        vehicle.setMake(models[0]);
+        vehicle.setModel(models[1 + random.nextInt(models.length - 1)]);
+        vehicle.setVariant("Trim " + (1 + random.nextInt(5)));
+        vehicle.setRegistration(LocalDate.of(1990, 1, 1).plusDays(random.nextInt(35 * 365)).toString());
+        vehicle.setCategory(CATEGORIES[random.nextInt(CATEGORIES.length)]);
+        // A few rows without a price or mileage, as in real stock lists
+        vehicle.setPrice(random.nextInt(100) == 0 ? null : 1_000 + random.nextInt(199_000));
+        vehicle.setMileage(random.nextInt(100) == 0 ? null : random.nextInt(200_000));
+        vehicle.setFuelType(FUEL_TYPES[random.nextInt(FUEL_TYPES.length)]);
+        vehicle.setSize(1_000 + random.nextInt(5_000));
+        vehicle.setEnginePosition("front");
+        vehicle.setPower(60 + random.nextInt(600));
+        vehicle.setDrivetrain(DRIVETRAINS[random.nextInt(DRIVETRAINS.length)]);
+        vehicle.setTransmission(TRANSMISSIONS[random.nextInt(TRANSMISSIONS.length)]);
+        vehicle.setColour(COLOURS[random.nextInt(COLOURS.length)]);
+        vehicle.setInteriorColour(COLOURS[random.nextInt(COLOURS.length)]);
+        vehicle.setEngineType("i" + (3 + random.nextInt(4)));
+        return vehicle;
+    }
+
+    private static void insertVehicles(ConnectionPool pool, Random random, int vehicles) throws Exception {
+        try (ConnectionPool.Lease lease = pool.writer()) {
+            Connection conn = lease.connection();
+            conn.setAutoCommit(false);
+            PreparedStatement stmt = lease.prepare(VehicleImporter.INSERT_QUERY);
+            for (int i = 1; i <= vehicles; i++) {
+                randomVehicle(random).bindInsert(stmt);
+                stmt.addBatch();
+                if (i % BATCH_SIZE == 0 || i == vehicles) {
+                    stmt.executeBatch();
+                    conn.commit();
+                }
+            }
+        }
+    }
+
+    private static void insertUsers(ConnectionPool pool) throws Exception {
+        try (ConnectionPool.Lease lease = pool.writer()) {
+            PreparedStatement user = lease.prepare("INSERT INTO Users (id, email, firstname, lastname) VALUES (?, ?, ?, ?)");
+            PreparedStatement saltpw = lease.prepare("INSERT INTO Saltpw (id, saltpw) VALUES (?, ?)");
+            for (int i = 1; i <= USERS; i++) {
+                user.setInt(1, i);
+                user.setString(2, email(i));
+                user.setString(3, "Bench");
+                user.setString(4, "User " + i);
+                user.executeUpdate();
+                saltpw.setInt(1, i);
+                saltpw.setString(2, BCrypt.hashpw(password(i), BCrypt.gensalt(HASH_COST)));
+                saltpw.executeUpdate();
+            }
+        }
+    }
+
+    // One appointment per hundred vehicles, all in the past, so they fill the joins without using up
+    // any of the capacity the booking benchmark needs
+    private static void insertPastAppointments(ConnectionPool pool, Random random, int vehicles) throws Exception {
+        LocalDate today = LocalDate.now();
+        try (ConnectionPool.Lease lease = pool.writer()) {
+            Connection conn = lease.connection();
+            conn.setAutoCommit(false);
+            PreparedStatement stmt = lease.prepare("INSERT INTO Appointments (car_id, user_id, date) VALUES (?, ?, ?)");
+            for (int i = 0; i < Math.max(1, vehicles / 100); i++) {
+                stmt.setInt(1, 1 + random.nextInt(vehicles));
+                stmt.setInt(2, 1 + random.nextInt(USERS));
+                stmt.setString(3, today.minusDays(1 + random.nextInt(365)).toString());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+            conn.commit();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.mindrot.jbcrypt.BCrypt;
+
+import bench.Workload;
+
+// Runs each benchmarked operation through the same classes the program uses, against one fixture.
+public class BenchWorkload implements Workload {
+    private static final int READER_CONNECTIONS = 4;
+    private static final int POPULAR_VEHICLES = 100;
+    private static final int BOOKING_DAYS = 60;
+
+    private final ConnectionPool pool;
+    private final PasswordHasher hasher;
+    private final InventoryService service;
+    private final int vehicles;
+    private final int baselineMaxId;
+    private final List<AppointmentScheduler.Slot> slots = new ArrayList<>();
+    private final Random random = new Random();
+
+    public BenchWorkload(Path fixtureDir, int vehicles) throws Exception {
+        Path fixture = BenchFixture.create(fixtureDir, vehicles);
+        this.vehicles = vehicles;
+        this.pool = new ConnectionPool("jdbc:sqlite:" + fixture, READER_CONNECTIONS);
+        SchemaMigrator.migrate(pool);
+        this.hasher = new PasswordHasher(250, 64);
+        this.service = new InventoryService(pool, hasher);
+
+        try (ConnectionPool.Lease lease = pool.reader();
+             ResultSet rs = lease.prepare("SELECT MAX(id) FROM Vehicles").executeQuery()) {
+            rs.next();
+            this.baselineMaxId = rs.getInt(1);
+        }
+        resetInserts();
+
+        LocalDate tomorrow = LocalDate.now().plusDays(1);
+        for (LocalDate date = tomorrow; date.isBefore(tomorrow.plusDays(BOOKING_DAYS)); date = date.plusDays(1)) {
+            for (LocalTime time = LocalTime.of(9, 0); time.isBefore(LocalTime.of(17, 0)); time = time.plusMinutes(AppointmentScheduler.SLOT_MINUTES)) {
+                try {
+                    slots.add(AppointmentScheduler.Slot.of(date, time));
+                } catch (IllegalArgumentException e) {
+                    // Closed day
+                }
+            }
+        }
+    }
+
+    private int randomVehicleId() {
+        return 1 + random.nextInt(vehicles);
+    }
+
+    @Override
+    public boolean login() throws Exception {
+        int user = 1 + random.nextInt(BenchFixture.USERS);
+        String hashed;
+        try (ConnectionPool.Lease lease = pool.reader()) {
+            PreparedStatement stmt = lease.prepare(InventoryService.LOGIN_QUERY);
+            stmt.setString(1, BenchFixture.email(user));
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                hashed = rs.getString("saltpw");
+            }
+        }
+        return BCrypt.checkpw(BenchFixture.password(user), hashed);
+    }
+
+    @Override
+    public int inventoryScan() throws Exception {
+        int rows = 0;
+        try (ConnectionPool.Lease lease = pool.reader()) {
+            PreparedStatement stmt = lease.prepare(InventoryPager.COLUMNS + "ORDER BY id");
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    new InventoryPager.Row(rs, InventoryPager.SortKey.ID);
+                    rows++;
+                }
+            }
+        }
+        return rows;
+    }
+
+    @Override
+    public Object details() throws Exception {
+        try (ConnectionPool.Lease lease = pool.reader()) {
+            PreparedStatement stmt = lease.prepare("SELECT * FROM Vehicles WHERE id = ?");
+            stmt.setInt(1, randomVehicleId());
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? Vehicle.read(rs) : null;
+            }
+        }
+    }
+
+    @Override
+    public Object cachedDetails() throws Exception {
+        return service.getVehicle(1 + random.nextInt(Math.min(POPULAR_VEHICLES, vehicles)));
+    }
+
+    @Override
+    public void insertSingle(int rows) throws Exception {
+        for (int i = 0; i < rows; i++) {
+            service.addVehicle(BenchFixture.randomVehicle(random));
+        }
+    }
+
+    @Override
+    public void insertBatch(int rows) throws Exception {
+        try (ConnectionPool.Lease lease = pool.writer()) {
+            Connection conn = lease.connection();
+            conn.setAutoCommit(false);
+            PreparedStatement stmt = lease.prepare(VehicleImporter.INSERT_QUERY);
+            for (int i = 0; i < rows; i++) {
+                BenchFixture.randomVehicle(random).bindInsert(stmt);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+            conn.commit();
+        }
+    }
+
+    @Override
+    public void resetInserts() throws Exception {
+        try (ConnectionPool.Lease lease = pool.writer()) {
+            PreparedStatement stmt = lease.prepare("DELETE FROM Vehicles WHERE id > ?");
+            stmt.setInt(1, baselineMaxId);
+            stmt.executeUpdate();
+        }
+    }
+
+    @Override
+    public int makeAppointment() throws Exception {
+        AppointmentScheduler.Slot slot = slots.get(random.nextInt(slots.size()));
+        try {
+            return service.makeAppointment(1 + random.nextInt(BenchFixture.USERS), randomVehicleId(), slot);
+        } catch (AppointmentScheduler.BookingException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public void cancelAppointment(int appointmentId) throws Exception {
+        service.deleteAppointment(appointmentId);
+    }
+
+    @Override
+    public void close() {
+        hasher.close();
+        pool.close();
+    }
+}
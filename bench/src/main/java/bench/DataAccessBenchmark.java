@@ -0,0 +1,104 @@
+package bench;
+
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// The data-access hot paths behind the console menus and the API, each run against a generated fixture
+// database of the given number of vehicles. Fixtures are built once and kept in the directory named by
+// -Dbench.fixtures (default "fixtures"); delete them to regenerate.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DataAccessBenchmark {
+    private static final int INSERT_ROWS = 100;
+
+    @Param({"1000", "100000", "1000000"})
+    public int vehicles;
+
+    private Workload workload;
+
+    @Setup(Level.Trial)
+    public void open() throws Exception {
+        workload = Workload.open(Paths.get(System.getProperty("bench.fixtures", "fixtures")), vehicles);
+    }
+
+    @TearDown(Level.Iteration)
+    public void resetInserts() throws Exception {
+        workload.resetInserts();
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws Exception {
+        workload.close();
+    }
+
+    // Cancels each booking outside the measured time so the schedule never fills up
+    @State(Scope.Thread)
+    public static class Booking {
+        private int appointmentId = -1;
+
+        @TearDown(Level.Invocation)
+        public void cancel(DataAccessBenchmark benchmark) throws Exception {
+            if (appointmentId > 0) {
+                benchmark.workload.cancelAppointment(appointmentId);
+                appointmentId = -1;
+            }
+        }
+    }
+
+    @Benchmark
+    public boolean login() throws Exception {
+        return workload.login();
+    }
+
+    @Benchmark
+    public int inventoryScan() throws Exception {
+        return workload.inventoryScan();
+    }
+
+    @Benchmark
+    public Object details() throws Exception {
+        return workload.details();
+    }
+
+    @Benchmark
+    public Object cachedDetails() throws Exception {
+        return workload.cachedDetails();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(INSERT_ROWS)
+    public void insertSingle() throws Exception {
+        workload.insertSingle(INSERT_ROWS);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(INSERT_ROWS)
+    public void insertBatch() throws Exception {
+        workload.insertBatch(INSERT_ROWS);
+    }
+
+    @Benchmark
+    public int makeAppointment(Booking booking) throws Exception {
+        booking.appointmentId = workload.makeAppointment();
+        return booking.appointmentId;
+    }
+}
@@ -0,0 +1,44 @@
+package bench;
+
+import java.nio.file.Path;
+
+// The operations measured by DataAccessBenchmark. JMH only accepts benchmarks in a named package while the
+// application lives in the default package, which named packages cannot import; the implementation,
+// BenchWorkload, sits in the default package and is loaded by name.
+public interface Workload extends AutoCloseable {
+
+    static Workload open(Path fixtureDir, int vehicles) throws Exception {
+        return (Workload) Class.forName("BenchWorkload")
+                .getConstructor(Path.class, int.class)
+                .newInstance(fixtureDir, vehicles);
+    }
+
+    // The login query for a random user followed by BCrypt.checkpw
+    boolean login() throws Exception;
+
+    // Reads every inventory list row; returns the row count
+    int inventoryScan() throws Exception;
+
+    // SELECT * FROM Vehicles WHERE id = ? for a random id, decoded into a Vehicle
+    Object details() throws Exception;
+
+    // The details read-through cache, over a small set of popular vehicles
+    Object cachedDetails() throws Exception;
+
+    // Inserts rows one statement (and one commit) at a time, as the Add Vehicle menu does
+    void insertSingle(int rows) throws Exception;
+
+    // Inserts rows as one JDBC batch in a single transaction, as the importer does
+    void insertBatch(int rows) throws Exception;
+
+    // Deletes the vehicles added by the insert benchmarks
+    void resetInserts() throws Exception;
+
+    // Books a random vehicle into a random slot; returns the appointment id, or -1 if the rules refused it
+    int makeAppointment() throws Exception;
+
+    void cancelAppointment(int appointmentId) throws Exception;
+
+    @Override
+    void close() throws Exception;
+}
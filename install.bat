@@ -1,3 +1,3 @@
 @echo off
-javac --release 8 -cp "lib\sqlite-jdbc-3.47.1.0.jar;lib\jbcrypt-0.4.jar" -d bin src\Main.java
+javac --release 8 -cp "lib\sqlite-jdbc-3.47.1.0.jar;lib\jbcrypt-0.4.jar" -d bin src\*.java
 java -cp "bin;lib\sqlite-jdbc-3.47.1.0.jar;lib\jbcrypt-0.4.jar" Main
@@ -1,2 +1,2 @@
-javac -cp "lib/sqlite-jdbc-3.47.1.0.jar:lib/jbcrypt-0.4.jar" -d bin src/Main.java
+javac -cp "lib/sqlite-jdbc-3.47.1.0.jar:lib/jbcrypt-0.4.jar" -d bin src/*.java
 java -cp "bin:lib/sqlite-jdbc-3.47.1.0.jar:lib/jbcrypt-0.4.jar" Main
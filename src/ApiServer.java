@@ -0,0 +1,807 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+// JSON over HTTP on the JDK's built-in server, backed by the same InventoryService as the console menus.
+// Each request runs on its own virtual thread when the JVM has them (Java 21+); older JVMs fall back to a
+// fixed pool. Requests block on the connection pool and the bcrypt pool, which already bound the real work.
+//
+// POST /api/login, /api/register, /api/logout
+// GET  /api/vehicles?make=&model=&category=&fueltype=&transmission=&drivetrain=&minPrice=&maxPrice=
+//      &minMileage=&maxMileage=&registeredFrom=&registeredTo=&after=&limit=&facets=true
+//      With q=<keywords> results are ranked by relevance and paged with offset= (at most 10000) instead of after=
+// GET  /api/vehicles/{id}
+// GET  /api/vehicles/{id}/slots?date=YYYY-MM-DD (free slots that day, or the next free slot without a date)
+// GET  /api/vehicles/{id}/similar?limit=&cheaper=true (the vehicles most like it, closest first)
+// GET  /api/vehicles/{id}/photos, /api/photos/{id}?thumbnail=true (the image itself, from the photo store)
+// POST /api/appointments {"vehicleId": 1, "date": "YYYY-MM-DD", "time": "HH:MM"}
+// Admin only: POST /api/vehicles, DELETE /api/vehicles/{id}, GET /api/users, POST /api/users/{id}/admin,
+//             DELETE /api/users/{id}, GET /api/appointments?date=, DELETE /api/appointments/{id}, GET /api/stats,
+//             GET /api/reports?date= (demand for the week containing date, default today), POST /api/reports/rebuild,
+//             GET /api/changes?since=&limit= (changes after sequence number since, oldest first),
+//             POST /api/vehicles/{id}/photos (the JPEG or PNG as the body), DELETE /api/photos/{id}
+public class ApiServer {
+    private static final int BACKLOG = 512;
+    private static final int FALLBACK_THREADS = 200;
+    private static final int MAX_BODY_BYTES = 1 << 20;
+    private static final int MAX_PAGE_SIZE = 100;
+    private static final int DEFAULT_PAGE_SIZE = 20;
+    private static final int DEFAULT_SIMILAR = 5;
+    private static final int MAX_CHANGES = 1000;
+    private static final int DEFAULT_CHANGES = 100;
+    private static final long SESSION_IDLE_MILLIS = TimeUnit.HOURS.toMillis(8);
+    private static final long SESSION_SWEEP_MINUTES = 10;
+    private static final int MAX_SESSIONS_PER_USER = 10;
+    // Ranked search pages by offset, so each shard has to fetch and sort offset + limit rows
+    private static final int MAX_OFFSET = 10_000;
+    private static final int SQLITE_CONSTRAINT = 19;
+
+    private final InventoryService service;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final String executorDescription;
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private ScheduledExecutorService sessionSweeper;
+
+    public ApiServer(InventoryService service, int port) throws IOException {
+        this.service = service;
+        ExecutorService virtual = virtualThreadExecutor();
+        if (virtual != null) {
+            this.executor = virtual;
+            this.executorDescription = "virtual thread per request";
+        } else {
+            this.executor = Executors.newFixedThreadPool(FALLBACK_THREADS);
+            this.executorDescription = FALLBACK_THREADS + " platform threads";
+        }
+        this.server = HttpServer.create(new InetSocketAddress(port), BACKLOG);
+        this.server.createContext("/api/", this::handle);
+        this.server.setExecutor(executor);
+    }
+
+    // Looked up reflectively so the program still compiles and runs on Java 8
+    private static ExecutorService virtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    public String getExecutorDescription() {
+        return executorDescription;
+    }
+
+    public void start() {
+        server.start();
+        // Tokens nobody presents again are only noticed by the sweep
+        sessionSweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "session-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sessionSweeper.scheduleWithFixedDelay(this::sweepSessions, SESSION_SWEEP_MINUTES, SESSION_SWEEP_MINUTES, TimeUnit.MINUTES);
+    }
+
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+        if (sessionSweeper != null) {
+            sessionSweeper.shutdownNow();
+        }
+    }
+
+    private void sweepSessions() {
+        long now = System.currentTimeMillis();
+        sessions.values().removeIf(session -> now - session.lastUsed > SESSION_IDLE_MILLIS);
+    }
+
+    private static class Session {
+        private final int userId;
+        private final boolean admin;
+        private volatile long lastUsed;
+
+        private Session(int userId, boolean admin) {
+            this.userId = userId;
+            this.admin = admin;
+            this.lastUsed = System.currentTimeMillis();
+        }
+    }
+
+    // Carries the HTTP status for anything that is the client's fault
+    private static class ApiException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+
+        private ApiException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    // Whatever escapes respond(), such as an Error, still gets a 500 rather than leaving the client waiting
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            respond(exchange);
+        } finally {
+            if (exchange.getResponseCode() == -1) {
+                byte[] bytes = Json.write(error("An internal error occurred")).getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+                exchange.sendResponseHeaders(500, bytes.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(bytes);
+                }
+            }
+        }
+    }
+
+    private void respond(HttpExchange exchange) throws IOException {
+        int status = 200;
+        Object body;
+        try {
+            body = route(exchange);
+            if (body instanceof PhotoStore.Content) {
+                sendPhoto(exchange, (PhotoStore.Content) body);
+                return;
+            }
+            if (exchange.getRequestMethod().equals("POST") && body instanceof Map && ((Map<?, ?>) body).containsKey("id")) {
+                status = 201;
+            }
+        } catch (ApiException e) {
+            status = e.status;
+            body = error(e.getMessage());
+        } catch (IllegalArgumentException e) {
+            status = 400;
+            body = error(e.getMessage());
+        } catch (AppointmentScheduler.BookingException e) {
+            status = 409;
+            body = error(e.getMessage());
+        } catch (ShardedInventoryService.ForeignSiteException e) {
+            status = 409;
+            body = error(e.getMessage());
+        } catch (RejectedExecutionException e) {
+            status = 503;
+            body = error(e.getMessage());
+        } catch (SQLException e) {
+            if (e.getErrorCode() == SQLITE_CONSTRAINT) {
+                status = 409;
+                body = error("The request conflicts with existing data: " + e.getMessage());
+            } else {
+                status = 500;
+                body = error("A database error occurred: " + e.getMessage());
+            }
+        } catch (Exception e) {
+            status = 500;
+            body = error("An error occurred: " + e.getMessage());
+        }
+
+        byte[] bytes = Json.write(body).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    // Photos are immutable under their id, so clients may cache them
+    private static void sendPhoto(HttpExchange exchange, PhotoStore.Content content) throws IOException {
+        try (PhotoStore.Content photo = content) {
+            exchange.getResponseHeaders().set("Content-Type", photo.getContentType());
+            exchange.getResponseHeaders().set("Cache-Control", "private, max-age=86400");
+            exchange.sendResponseHeaders(200, photo.getLength());
+            try (OutputStream out = exchange.getResponseBody()) {
+                photo.transferTo(Channels.newChannel(out));
+            }
+        }
+    }
+
+    private Object route(HttpExchange exchange) throws Exception {
+        String method = exchange.getRequestMethod();
+        String[] path = exchange.getRequestURI().getPath().substring("/api/".length()).split("/");
+        String resource = path[0];
+        Integer id = path.length > 1 ? parseId(path[1]) : null;
+
+        if (resource.equals("login") && method.equals("POST")) {
+            return login(readBody(exchange));
+        }
+        if (resource.equals("register") && method.equals("POST")) {
+            return register(readBody(exchange));
+        }
+
+        Session session = authenticate(exchange);
+        switch (resource) {
+            case "logout":
+                requireMethod(method, "POST");
+                sessions.remove(token(exchange));
+                return result("loggedOut", true);
+            case "vehicles":
+                if (id == null && method.equals("GET")) {
+                    return listVehicles(parseQuery(exchange.getRequestURI().getRawQuery()));
+                }
+                if (id == null && method.equals("POST")) {
+                    requireAdmin(session);
+                    return result("id", service.addVehicle(Vehicle.fromMap(readBody(exchange))));
+                }
+                if (id != null && path.length == 3 && path[2].equals("slots") && method.equals("GET")) {
+                    return freeSlots(id, parseQuery(exchange.getRequestURI().getRawQuery()).get("date"));
+                }
+                if (id != null && path.length == 3 && path[2].equals("photos") && method.equals("GET")) {
+                    return photos(id);
+                }
+                if (id != null && path.length == 3 && path[2].equals("photos") && method.equals("POST")) {
+                    requireAdmin(session);
+                    PhotoStore.Photo photo = service.addPhoto(id, readBytes(exchange, PhotoStore.MAX_PHOTO_BYTES));
+                    if (photo == null) {
+                        throw new ApiException(404, "Vehicle not found.");
+                    }
+                    return photoToJson(photo);
+                }
+                if (id != null && path.length == 3 && path[2].equals("similar") && method.equals("GET")) {
+                    return similarVehicles(id, parseQuery(exchange.getRequestURI().getRawQuery()));
+                }
+                if (id != null && path.length == 2 && method.equals("GET")) {
+                    Vehicle vehicle = service.getVehicle(id);
+                    if (vehicle == null) {
+                        throw new ApiException(404, "Vehicle not found.");
+                    }
+                    return vehicle.toMap();
+                }
+                if (id != null && path.length == 2 && method.equals("DELETE")) {
+                    requireAdmin(session);
+                    return deleted(service.deleteVehicle(id), "Vehicle not found.");
+                }
+                break;
+            case "appointments":
+                if (id == null && method.equals("POST")) {
+                    return bookAppointment(session, readBody(exchange));
+                }
+                requireAdmin(session);
+                if (id == null && method.equals("GET")) {
+                    return listAppointments(parseQuery(exchange.getRequestURI().getRawQuery()).get("date"));
+                }
+                if (id != null && method.equals("DELETE")) {
+                    return deleted(service.deleteAppointment(id), "Appointment not found.");
+                }
+                break;
+            case "users":
+                requireAdmin(session);
+                if (id == null && method.equals("GET")) {
+                    return listUsers();
+                }
+                if (id != null && path.length == 3 && path[2].equals("admin") && method.equals("POST")) {
+                    if (!service.promoteUser(id)) {
+                        throw new ApiException(500, "Failed to promote user to admin.");
+                    }
+                    return result("promoted", true);
+                }
+                if (id != null && path.length == 2 && method.equals("DELETE")) {
+                    return deleted(service.deleteUser(id), "User not found.");
+                }
+                break;
+            case "stats":
+                requireAdmin(session);
+                requireMethod(method, "GET");
+                return stats();
+            case "reports":
+                requireAdmin(session);
+                if (path.length == 1 && method.equals("GET")) {
+                    return reports(parseQuery(exchange.getRequestURI().getRawQuery()).get("date"));
+                }
+                if (path.length == 2 && path[1].equals("rebuild") && method.equals("POST")) {
+                    service.rebuildReports();
+                    return result("rebuilt", true);
+                }
+                break;
+            case "photos":
+                if (id != null && path.length == 2 && method.equals("GET")) {
+                    PhotoStore.Content content = service.openPhoto(id,
+                            "true".equals(parseQuery(exchange.getRequestURI().getRawQuery()).get("thumbnail")));
+                    if (content == null) {
+                        throw new ApiException(404, "Photo not found.");
+                    }
+                    return content;
+                }
+                if (id != null && path.length == 2 && method.equals("DELETE")) {
+                    requireAdmin(session);
+                    return deleted(service.deletePhoto(id), "Photo not found.");
+                }
+                break;
+            case "changes":
+                requireAdmin(session);
+                requireMethod(method, "GET");
+                return changes(parseQuery(exchange.getRequestURI().getRawQuery()));
+            default:
+                break;
+        }
+        throw new ApiException(404, "No such endpoint: " + method + " " + exchange.getRequestURI().getPath());
+    }
+
+    private Object login(Map<String, Object> body) throws SQLException {
+        InventoryService.LoginResult result = service.login(requireText(body, "email"), requireText(body, "password"));
+        if (result.getStatus() != InventoryService.LoginResult.Status.SUCCESS) {
+            throw new ApiException(401, "Invalid email or password.");
+        }
+
+        byte[] bytes = new byte[24];
+        random.nextBytes(bytes);
+        StringBuilder token = new StringBuilder();
+        for (byte b : bytes) {
+            token.append(String.format("%02x", b));
+        }
+        addSession(token.toString(), new Session(result.getUserId(), result.isAdmin()));
+
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("token", token.toString());
+        response.put("userId", result.getUserId());
+        response.put("admin", result.isAdmin());
+        return response;
+    }
+
+    // Logging in again once a user has MAX_SESSIONS_PER_USER sessions ends their least recently used one.
+    // The scan is cheap next to the bcrypt check every login has just paid for.
+    private synchronized void addSession(String token, Session session) {
+        List<Map.Entry<String, Session>> own = new ArrayList<>();
+        for (Map.Entry<String, Session> entry : sessions.entrySet()) {
+            if (entry.getValue().userId == session.userId) {
+                own.add(entry);
+            }
+        }
+        if (own.size() >= MAX_SESSIONS_PER_USER) {
+            own.sort(Comparator.comparingLong((Map.Entry<String, Session> entry) -> entry.getValue().lastUsed));
+            for (Map.Entry<String, Session> entry : own.subList(0, own.size() - MAX_SESSIONS_PER_USER + 1)) {
+                sessions.remove(entry.getKey());
+            }
+        }
+        sessions.put(token, session);
+    }
+
+    private Object register(Map<String, Object> body) throws SQLException {
+        int userId = service.register(requireText(body, "email"), requireText(body, "firstName"),
+                requireText(body, "lastName"), requireText(body, "password"));
+        if (userId <= 0) {
+            throw new ApiException(500, "Registration failed. Please try again.");
+        }
+        return result("id", userId);
+    }
+
+    private Object listVehicles(Map<String, String> query) throws SQLException {
+        VehicleSearch.Criteria criteria = VehicleSearch.Criteria.fromParams(query);
+
+        Integer limit = optionalInt(query, "limit");
+        int pageSize = limit == null ? DEFAULT_PAGE_SIZE : Math.max(1, Math.min(MAX_PAGE_SIZE, limit));
+        List<InventoryPager.Row> rows;
+        int offset = 0;
+        if (criteria.hasText()) {
+            Integer requested = optionalInt(query, "offset");
+            offset = requested == null ? 0 : Math.max(0, requested);
+            if (offset > MAX_OFFSET) {
+                throw new ApiException(400, "'offset' can be at most " + MAX_OFFSET + "; narrow the search instead.");
+            }
+            rows = service.rankedSearch(criteria, offset, pageSize);
+        } else {
+            Integer after = optionalInt(query, "after");
+            rows = service.search(criteria, after == null ? 0 : after, pageSize);
+        }
+
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("vehicles", rowsToJson(rows));
+        if (criteria.hasText()) {
+            // Pass this back as "offset" to fetch the next page
+            response.put("nextOffset", rows.size() < pageSize ? null : offset + rows.size());
+        } else {
+            // Pass this back as "after" to fetch the next page
+            response.put("next", rows.size() < pageSize ? null : rows.get(rows.size() - 1).getId());
+        }
+        if ("true".equals(query.get("facets"))) {
+            response.put("total", service.countMatches(criteria));
+            Map<String, Object> facets = new LinkedHashMap<>();
+            for (Map.Entry<VehicleSearch.Facet, Map<String, Integer>> facet : service.facets(criteria).entrySet()) {
+                facets.put(facet.getKey().name().toLowerCase(), facet.getValue());
+            }
+            response.put("facets", facets);
+        }
+        return response;
+    }
+
+    private static List<Map<String, Object>> rowsToJson(List<InventoryPager.Row> rows) {
+        List<Map<String, Object>> vehicles = new ArrayList<>(rows.size());
+        for (InventoryPager.Row row : rows) {
+            Map<String, Object> vehicle = new LinkedHashMap<>();
+            vehicle.put("id", row.getId());
+            vehicle.put("make", row.getMake());
+            vehicle.put("model", row.getModel());
+            vehicle.put("variant", row.getVariant());
+            vehicle.put("registration", row.getRegistration());
+            vehicle.put("price", row.getPrice());
+            vehicle.put("mileage", row.getMileage());
+            vehicles.add(vehicle);
+        }
+        return vehicles;
+    }
+
+    private Object similarVehicles(int vehicleId, Map<String, String> query) throws SQLException {
+        Integer limit = optionalInt(query, "limit");
+        int count = limit == null ? DEFAULT_SIMILAR : Math.max(1, Math.min(MAX_PAGE_SIZE, limit));
+        List<InventoryPager.Row> rows = service.similarVehicles(vehicleId, count, "true".equals(query.get("cheaper")));
+        if (rows == null) {
+            throw new ApiException(404, "Vehicle not found.");
+        }
+        return result("vehicles", rowsToJson(rows));
+    }
+
+    private Object photos(int vehicleId) {
+        List<Map<String, Object>> photos = new ArrayList<>();
+        for (PhotoStore.Photo photo : service.listPhotos(vehicleId)) {
+            photos.add(photoToJson(photo));
+        }
+        return result("photos", photos);
+    }
+
+    private static Map<String, Object> photoToJson(PhotoStore.Photo photo) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("id", photo.getId());
+        map.put("vehicleId", photo.getVehicleId());
+        map.put("contentType", photo.getFormat().getContentType());
+        map.put("bytes", photo.getLength());
+        map.put("thumbnailBytes", photo.getThumbnailLength());
+        return map;
+    }
+
+    private Object changes(Map<String, String> query) throws SQLException {
+        Long since = optionalLong(query, "since");
+        Integer limit = optionalInt(query, "limit");
+        int count = limit == null ? DEFAULT_CHANGES : Math.max(1, Math.min(MAX_CHANGES, limit));
+        ChangeFeed.Page page = service.changesSince(since == null ? 0 : Math.max(0, since), count);
+        List<Map<String, Object>> changes = new ArrayList<>(page.getChanges().size());
+        for (ChangeFeed.Change change : page.getChanges()) {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("seq", change.getSequence());
+            map.put("changedAt", change.getChangedAt());
+            map.put("entity", change.getEntity().name().toLowerCase());
+            map.put("id", change.getEntityId());
+            map.put("change", change.getKind().name().toLowerCase());
+            map.put("row", change.getRow());
+            changes.add(map);
+        }
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("changes", changes);
+        // Pass this back as "since" to fetch the next page
+        response.put("next", page.getNext());
+        response.put("latest", page.getLatest());
+        response.put("resyncRequired", page.isResyncRequired());
+        return response;
+    }
+
+    private Object bookAppointment(Session session, Map<String, Object> body)
+            throws SQLException, AppointmentScheduler.BookingException {
+        Object vehicleId = body.get("vehicleId");
+        if (!(vehicleId instanceof Long)) {
+            throw new IllegalArgumentException("vehicleId must be a whole number");
+        }
+        AppointmentScheduler.Slot slot = AppointmentScheduler.Slot.parse(requireText(body, "date"), requireText(body, "time"));
+        Map<String, Object> response = result("id", service.makeAppointment(session.userId, ((Long) vehicleId).intValue(), slot));
+        response.put("slot", slot.toString());
+        return response;
+    }
+
+    private Object freeSlots(int vehicleId, String date) throws SQLException {
+        List<String> slots = new ArrayList<>();
+        if (date == null || date.trim().isEmpty()) {
+            AppointmentScheduler.Slot next = service.nextFreeSlot(vehicleId);
+            if (next != null) {
+                slots.add(next.toString());
+            }
+        } else {
+            for (AppointmentScheduler.Slot slot : service.freeSlots(vehicleId, parseDate(date))) {
+                slots.add(slot.toString());
+            }
+        }
+        return result("slots", slots);
+    }
+
+    private Object listAppointments(String date) throws SQLException {
+        List<Map<String, Object>> appointments = new ArrayList<>();
+        LocalDate day = date == null || date.trim().isEmpty() ? null : parseDate(date);
+        for (InventoryService.Appointment appointment : service.listAppointments(day)) {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("id", appointment.getId());
+            map.put("date", appointment.getDate());
+            map.put("time", appointment.getTime());
+            map.put("make", appointment.getMake());
+            map.put("model", appointment.getModel());
+            map.put("email", appointment.getEmail());
+            appointments.add(map);
+        }
+        return appointments;
+    }
+
+    private Object reports(String date) throws SQLException {
+        LocalDate day = date == null || date.trim().isEmpty() ? LocalDate.now() : parseDate(date);
+        InventoryReports.Report report = service.getReports(day);
+        List<Map<String, Object>> stock = new ArrayList<>();
+        for (InventoryReports.StockGroup group : report.getStock()) {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("make", group.getMake());
+            map.put("category", group.getCategory());
+            map.put("vehicles", group.getVehicles());
+            map.put("totalPrice", group.getTotalPrice());
+            map.put("unpriced", group.getUnpriced());
+            stock.add(map);
+        }
+        List<Map<String, Object>> fuel = new ArrayList<>();
+        for (InventoryReports.FuelGroup group : report.getFuel()) {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("fuelType", group.getFuelType());
+            map.put("vehicles", group.getVehicles());
+            map.put("averagePrice", group.getAveragePrice());
+            map.put("averageMileage", group.getAverageMileage());
+            fuel.add(map);
+        }
+        List<Map<String, Object>> demand = new ArrayList<>();
+        for (InventoryReports.Demand entry : report.getDemand()) {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("vehicleId", entry.getVehicleId());
+            map.put("make", entry.getMake());
+            map.put("model", entry.getModel());
+            map.put("appointments", entry.getAppointments());
+            demand.add(map);
+        }
+        List<Map<String, Object>> weeks = new ArrayList<>();
+        for (InventoryReports.Week week : report.getWeeks()) {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("week", week.getStart().toString());
+            map.put("appointments", week.getAppointments());
+            map.put("vehicles", week.getVehicles());
+            weeks.add(map);
+        }
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("stock", stock);
+        response.put("fuel", fuel);
+        response.put("week", report.getWeek().toString());
+        response.put("demand", demand);
+        response.put("weeks", weeks);
+        return response;
+    }
+
+    private Object listUsers() throws SQLException {
+        List<Map<String, Object>> users = new ArrayList<>();
+        for (InventoryService.User user : service.listUsers()) {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("id", user.getId());
+            map.put("email", user.getEmail());
+            users.add(map);
+        }
+        return users;
+    }
+
+    private Object stats() {
+        List<Map<String, Object>> caches = new ArrayList<>();
+        for (BoundedCache.Stats stats : service.getCacheStats()) {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("name", stats.getName());
+            map.put("size", stats.getSize());
+            map.put("maxEntries", stats.getMaxEntries());
+            map.put("hits", stats.getHits());
+            map.put("misses", stats.getMisses());
+            map.put("hitRatio", stats.getHitRatio());
+            map.put("evictions", stats.getEvictions());
+            map.put("expirations", stats.getExpirations());
+            caches.add(map);
+        }
+        List<Map<String, Object>> operations = new ArrayList<>();
+        for (Metrics.OperationStats stats : Metrics.snapshot()) {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("name", stats.getName());
+            map.put("count", stats.getCount());
+            map.put("meanMillis", stats.getMeanMillis());
+            map.put("p50Millis", stats.getP50Millis());
+            map.put("p99Millis", stats.getP99Millis());
+            map.put("p999Millis", stats.getP999Millis());
+            map.put("maxMillis", stats.getMaxMillis());
+            map.put("rowsRead", stats.getRowsRead());
+            map.put("rowsWritten", stats.getRowsWritten());
+            operations.add(map);
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("caches", caches);
+        result.put("operations", operations);
+        DatabaseMaintenance.Report report = service.getMaintenanceReport();
+        Map<String, Object> maintenance = new LinkedHashMap<>();
+        maintenance.put("runs", report.getRuns());
+        maintenance.put("lastRun", report.getLastRun());
+        maintenance.put("orphansPurged", report.getOrphansPurged());
+        maintenance.put("pagesReclaimed", report.getPagesReclaimed());
+        maintenance.put("pageCount", report.getPageCount());
+        maintenance.put("freePages", report.getFreePages());
+        maintenance.put("incrementalVacuum", report.isIncrementalVacuum());
+        maintenance.put("checkpoints", report.getCheckpoints());
+        maintenance.put("busyCheckpoints", report.getBusyCheckpoints());
+        maintenance.put("lastError", report.getLastError());
+        result.put("maintenance", maintenance);
+        InventorySnapshot snapshot = service.getSnapshot();
+        if (snapshot != null) {
+            Map<String, Object> inMemory = new LinkedHashMap<>();
+            inMemory.put("vehicles", snapshot.getVehicleCount());
+            inMemory.put("bytes", snapshot.estimateBytes());
+            result.put("snapshot", inMemory);
+        }
+        PhotoStore store = service.getPhotoStore();
+        if (store != null) {
+            PhotoStore.Stats stats = store.getStats();
+            Map<String, Object> photos = new LinkedHashMap<>();
+            photos.put("photos", stats.getPhotos());
+            photos.put("segments", stats.getSegments());
+            photos.put("liveBytes", stats.getLiveBytes());
+            photos.put("deadBytes", stats.getDeadBytes());
+            photos.put("compactions", stats.getCompactions());
+            photos.put("reclaimedBytes", stats.getReclaimedBytes());
+            result.put("photos", photos);
+        }
+        if (service instanceof ShardedInventoryService) {
+            result.put("dealerships", ((ShardedInventoryService) service).getSiteNames());
+        }
+        return result;
+    }
+
+    private Session authenticate(HttpExchange exchange) {
+        String token = token(exchange);
+        Session session = token == null ? null : sessions.get(token);
+        long now = System.currentTimeMillis();
+        if (session == null || now - session.lastUsed > SESSION_IDLE_MILLIS) {
+            if (session != null) {
+                sessions.remove(token);
+            }
+            throw new ApiException(401, "Log in first and send the token as 'Authorization: Bearer <token>'.");
+        }
+        session.lastUsed = now;
+        return session;
+    }
+
+    private static String token(HttpExchange exchange) {
+        String header = exchange.getRequestHeaders().getFirst("Authorization");
+        if (header == null || !header.startsWith("Bearer ")) {
+            return null;
+        }
+        return header.substring("Bearer ".length()).trim();
+    }
+
+    private static void requireAdmin(Session session) {
+        if (!session.admin) {
+            throw new ApiException(403, "This operation needs an admin account.");
+        }
+    }
+
+    private static void requireMethod(String method, String expected) {
+        if (!method.equals(expected)) {
+            throw new ApiException(405, "Use " + expected + " for this endpoint.");
+        }
+    }
+
+    private static Map<String, Object> readBody(HttpExchange exchange) throws IOException {
+        String text = new String(readBytes(exchange, MAX_BODY_BYTES), StandardCharsets.UTF_8);
+        if (text.trim().isEmpty()) {
+            throw new IllegalArgumentException("Expected a JSON object in the request body");
+        }
+        return Json.parseObject(text);
+    }
+
+    private static byte[] readBytes(HttpExchange exchange, int limit) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] chunk = new byte[8192];
+            int read;
+            while ((read = in.read(chunk)) != -1) {
+                buffer.write(chunk, 0, read);
+                if (buffer.size() > limit) {
+                    throw new ApiException(413, "The request body is too large.");
+                }
+            }
+        }
+        return buffer.toByteArray();
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) throws UnsupportedEncodingException {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null) {
+            return query;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                query.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"), URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+            }
+        }
+        return query;
+    }
+
+    private static Integer parseId(String text) {
+        try {
+            return Integer.valueOf(text);
+        } catch (NumberFormatException e) {
+            throw new ApiException(404, "Invalid id '" + text + "'");
+        }
+    }
+
+    private static LocalDate parseDate(String text) {
+        try {
+            return LocalDate.parse(text.trim());
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Dates must be YYYY-MM-DD");
+        }
+    }
+
+    private static Long optionalLong(Map<String, String> query, String name) {
+        String value = query.get(name);
+        if (value == null || value.trim().isEmpty()) {
+            return null;
+        }
+        try {
+            return Long.valueOf(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be a whole number");
+        }
+    }
+
+    private static Integer optionalInt(Map<String, String> query, String name) {
+        String value = query.get(name);
+        if (value == null || value.trim().isEmpty()) {
+            return null;
+        }
+        try {
+            return Integer.valueOf(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be a whole number");
+        }
+    }
+
+    private static String requireText(Map<String, Object> body, String name) {
+        Object value = body.get(name);
+        if (value == null || value.toString().trim().isEmpty()) {
+            throw new IllegalArgumentException(name + " is required");
+        }
+        return value.toString();
+    }
+
+    private static Object deleted(boolean deleted, String notFound) {
+        if (!deleted) {
+            throw new ApiException(404, notFound);
+        }
+        return result("deleted", true);
+    }
+
+    private static Map<String, Object> result(String key, Object value) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put(key, value);
+        return map;
+    }
+
+    private static Map<String, Object> error(String message) {
+        return result("error", message);
+    }
+}
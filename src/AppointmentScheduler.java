@@ -0,0 +1,361 @@
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Books viewings into fixed half-hour slots during opening hours and enforces the capacity rules:
+// one viewing per vehicle per slot, a daily limit per vehicle, a limit on viewings running at the same time
+// (staff on the floor) and a daily limit for the showroom.
+//
+// Booked slots are mirrored in an in-memory index so conflict checks and free-slot searches are tree
+// lookups instead of queries. The index is only a fast path: each booking is inserted and then re-checked
+// against the table inside one write transaction (shared with other queued writes, see WriteQueue), and a
+// unique index on (car_id, date, slot_time) backs that up, so two requests racing for the same car can never
+// both succeed.
+public class AppointmentScheduler {
+    public static final int SLOT_MINUTES = 30;
+    private static final LocalTime OPENING = LocalTime.of(9, 0);
+    private static final LocalTime CLOSING = LocalTime.of(17, 0);
+    private static final DayOfWeek CLOSED_DAY = DayOfWeek.SUNDAY;
+    private static final int BOOKING_HORIZON_DAYS = 90;
+    private static final int VEHICLE_DAILY_LIMIT = 4;
+    private static final int CONCURRENT_LIMIT = 3;
+    private static final int SHOWROOM_DAILY_LIMIT = 40;
+    private static final int SQLITE_CONSTRAINT = 19;
+
+    private static final String LOAD_QUERY = "SELECT id, car_id, date, slot_time FROM Appointments WHERE date >= ?";
+    private static final String INSERT_QUERY = "INSERT INTO Appointments (car_id, user_id, date, slot_time) VALUES (?, ?, ?, ?)";
+    // Counts include the row just inserted, so each is compared against its limit with '>'
+    private static final String LOAD_CHECK_QUERY = "SELECT SUM(car_id = ?), SUM(slot_time = ?), COUNT(*) FROM Appointments WHERE date = ?";
+
+    // A bookable half hour. Parsing rejects anything outside opening hours or off the half-hour grid.
+    public static class Slot implements Comparable<Slot> {
+        private final LocalDate date;
+        private final LocalTime start;
+
+        private Slot(LocalDate date, LocalTime start) {
+            this.date = date;
+            this.start = start;
+        }
+
+        public static Slot of(LocalDate date, LocalTime start) {
+            if (date.getDayOfWeek() == CLOSED_DAY) {
+                throw new IllegalArgumentException("The showroom is closed on Sundays");
+            }
+            if (start.isBefore(OPENING) || start.plusMinutes(SLOT_MINUTES).isAfter(CLOSING)) {
+                throw new IllegalArgumentException("Appointments run from " + OPENING + " to " + CLOSING);
+            }
+            if (start.getMinute() % SLOT_MINUTES != 0 || start.getSecond() != 0 || start.getNano() != 0) {
+                throw new IllegalArgumentException("Appointments start on the hour or half hour");
+            }
+            return new Slot(date, start);
+        }
+
+        public static Slot parse(String date, String time) {
+            try {
+                return of(LocalDate.parse(date.trim()), LocalTime.parse(time.trim()));
+            } catch (DateTimeParseException e) {
+                throw new IllegalArgumentException("Dates must be YYYY-MM-DD and times HH:MM");
+            }
+        }
+
+        public LocalDate getDate() {
+            return date;
+        }
+
+        public LocalTime getStart() {
+            return start;
+        }
+
+        public LocalTime getEnd() {
+            return start.plusMinutes(SLOT_MINUTES);
+        }
+
+        // Minutes since the epoch, used as the index key
+        private long key() {
+            return date.toEpochDay() * 24 * 60 + start.getHour() * 60 + start.getMinute();
+        }
+
+        @Override
+        public int compareTo(Slot other) {
+            return Long.compare(key(), other.key());
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Slot && key() == ((Slot) other).key();
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(key());
+        }
+
+        @Override
+        public String toString() {
+            return date + " " + start;
+        }
+    }
+
+    // A booking request the rules turn down; the message says why
+    public static class BookingException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private BookingException(String message) {
+            super(message);
+        }
+    }
+
+    private final ConnectionPool pool;
+    private final WriteQueue writes;
+
+    // Guarded by this
+    private final Map<Integer, TreeMap<Long, Integer>> vehicleSlots = new HashMap<>();
+    private final Map<Long, Integer> slotLoad = new HashMap<>();
+    private final Map<LocalDate, Integer> dayLoad = new HashMap<>();
+    private final Map<Integer, Booking> bookings = new HashMap<>();
+
+    private static class Booking {
+        private final int vehicleId;
+        private final LocalDate date;
+        private final Long key;
+
+        private Booking(int vehicleId, LocalDate date, Long key) {
+            this.vehicleId = vehicleId;
+            this.date = date;
+            this.key = key;
+        }
+    }
+
+    public AppointmentScheduler(ConnectionPool pool, WriteQueue writes) throws SQLException {
+        this.pool = pool;
+        this.writes = writes;
+        reload();
+    }
+
+    // Rebuilds the index from today's and future appointments. Rows booked before slots existed have no
+    // slot_time; they still count towards the daily limits.
+    public void reload() throws SQLException {
+        try (ConnectionPool.Lease lease = pool.reader()) {
+            PreparedStatement stmt = lease.prepare(LOAD_QUERY);
+            stmt.setString(1, LocalDate.now().toString());
+            synchronized (this) {
+                vehicleSlots.clear();
+                slotLoad.clear();
+                dayLoad.clear();
+                bookings.clear();
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        index(rs.getInt("id"), rs.getInt("car_id"), rs.getString("date"), rs.getString("slot_time"));
+                    }
+                }
+            }
+        }
+    }
+
+    private void index(int appointmentId, int vehicleId, String date, String time) {
+        if (date == null) {
+            return;
+        }
+        LocalDate day;
+        try {
+            day = LocalDate.parse(date);
+        } catch (DateTimeParseException e) {
+            // Free-text dates from before validation existed cannot conflict with anything
+            return;
+        }
+        Long key = null;
+        if (time != null) {
+            key = new Slot(day, LocalTime.parse(time)).key();
+            vehicleSlots.computeIfAbsent(vehicleId, id -> new TreeMap<>()).put(key, appointmentId);
+            slotLoad.merge(key, 1, Integer::sum);
+        }
+        dayLoad.merge(day, 1, Integer::sum);
+        bookings.put(appointmentId, new Booking(vehicleId, day, key));
+    }
+
+    private synchronized void unindex(int appointmentId) {
+        Booking booking = bookings.remove(appointmentId);
+        if (booking == null) {
+            return;
+        }
+        if (booking.key != null) {
+            TreeMap<Long, Integer> slots = vehicleSlots.get(booking.vehicleId);
+            if (slots != null) {
+                slots.remove(booking.key);
+                if (slots.isEmpty()) {
+                    vehicleSlots.remove(booking.vehicleId);
+                }
+            }
+            decrement(slotLoad, booking.key);
+        }
+        decrement(dayLoad, booking.date);
+    }
+
+    private static <K> void decrement(Map<K, Integer> counts, K key) {
+        counts.computeIfPresent(key, (k, count) -> count > 1 ? count - 1 : null);
+    }
+
+    // Returns null if the slot can be booked, otherwise the reason it cannot
+    private synchronized String conflict(int vehicleId, Slot slot) {
+        long start = slot.key();
+        TreeMap<Long, Integer> slots = vehicleSlots.get(vehicleId);
+        if (slots != null) {
+            // Interval overlap: the nearest booking starting at or before this slot must end by its start,
+            // and the next one must start at or after its end
+            Long before = slots.floorKey(start);
+            Long after = slots.ceilingKey(start);
+            if ((before != null && before + SLOT_MINUTES > start) || (after != null && after < start + SLOT_MINUTES)) {
+                return "This vehicle is already booked at " + slot;
+            }
+            long dayStart = slot.date.toEpochDay() * 24 * 60;
+            if (slots.subMap(dayStart, dayStart + 24 * 60).size() >= VEHICLE_DAILY_LIMIT) {
+                return "This vehicle is fully booked on " + slot.date;
+            }
+        }
+        if (slotLoad.getOrDefault(start, 0) >= CONCURRENT_LIMIT) {
+            return "No staff are free at " + slot;
+        }
+        if (dayLoad.getOrDefault(slot.date, 0) >= SHOWROOM_DAILY_LIMIT) {
+            return "The showroom is fully booked on " + slot.date;
+        }
+        return null;
+    }
+
+    private static void checkBookable(Slot slot) throws BookingException {
+        LocalDateTime now = LocalDateTime.now();
+        if (!LocalDateTime.of(slot.date, slot.start).isAfter(now)) {
+            throw new BookingException("That time has already passed");
+        }
+        if (slot.date.isAfter(now.toLocalDate().plusDays(BOOKING_HORIZON_DAYS))) {
+            throw new BookingException("Appointments can be booked up to " + BOOKING_HORIZON_DAYS + " days ahead");
+        }
+    }
+
+    // Returns the new appointment's id
+    public int book(int userId, int vehicleId, Slot slot) throws SQLException, BookingException {
+        return book(lease -> userId, vehicleId, slot);
+    }
+
+    // As book(), with the user's id found by user inside the booking's transaction, so that anything it
+    // writes is undone along with a booking that fails
+    int book(WriteQueue.Write<Integer, SQLException> user, int vehicleId, Slot slot)
+            throws SQLException, BookingException {
+        checkBookable(slot);
+        String reason = conflict(vehicleId, slot);
+        if (reason != null) {
+            throw new BookingException(reason);
+        }
+
+        // Runs in the write queue's transaction, so a failed check undoes only this booking
+        int appointmentId = writes.execute(lease -> {
+            PreparedStatement exists = lease.prepare("SELECT 1 FROM Vehicles WHERE id = ?");
+            exists.setInt(1, vehicleId);
+            try (ResultSet rs = exists.executeQuery()) {
+                if (!rs.next()) {
+                    throw new IllegalArgumentException("Vehicle not found.");
+                }
+            }
+
+            PreparedStatement insert = lease.prepareReturningKeys(INSERT_QUERY);
+            insert.setInt(1, vehicleId);
+            insert.setInt(2, user.apply(lease));
+            insert.setString(3, slot.date.toString());
+            insert.setString(4, slot.start.toString());
+            try {
+                insert.executeUpdate();
+            } catch (SQLException e) {
+                if (e.getErrorCode() == SQLITE_CONSTRAINT) {
+                    throw new BookingException("This vehicle is already booked at " + slot);
+                }
+                throw e;
+            }
+            int id;
+            try (ResultSet keys = insert.getGeneratedKeys()) {
+                keys.next();
+                id = keys.getInt(1);
+            }
+
+            // The transaction holds the database write lock, so these counts, which include bookings made
+            // earlier in the same batch, cannot change before commit
+            PreparedStatement check = lease.prepare(LOAD_CHECK_QUERY);
+            check.setInt(1, vehicleId);
+            check.setString(2, slot.start.toString());
+            check.setString(3, slot.date.toString());
+            try (ResultSet rs = check.executeQuery()) {
+                rs.next();
+                if (rs.getInt(1) > VEHICLE_DAILY_LIMIT) {
+                    throw new BookingException("This vehicle is fully booked on " + slot.date);
+                }
+                if (rs.getInt(2) > CONCURRENT_LIMIT) {
+                    throw new BookingException("No staff are free at " + slot);
+                }
+                if (rs.getInt(3) > SHOWROOM_DAILY_LIMIT) {
+                    throw new BookingException("The showroom is fully booked on " + slot.date);
+                }
+            }
+            return id;
+        }, BookingException.class);
+
+        synchronized (this) {
+            index(appointmentId, vehicleId, slot.date.toString(), slot.start.toString());
+        }
+        return appointmentId;
+    }
+
+    public boolean cancel(int appointmentId) throws SQLException {
+        boolean deleted;
+        try (ConnectionPool.Lease lease = pool.writer()) {
+            PreparedStatement stmt = lease.prepare("DELETE FROM Appointments WHERE id = ?");
+            stmt.setInt(1, appointmentId);
+            deleted = stmt.executeUpdate() > 0;
+        }
+        unindex(appointmentId);
+        return deleted;
+    }
+
+    // Drops appointments that were deleted by something other than cancel(), such as a cascade
+    public synchronized void forget(Collection<Integer> appointmentIds) {
+        for (int appointmentId : appointmentIds) {
+            unindex(appointmentId);
+        }
+    }
+
+    // Slots on the given day that this vehicle could still be booked into
+    public synchronized List<Slot> freeSlots(int vehicleId, LocalDate date) {
+        List<Slot> free = new ArrayList<>();
+        LocalDateTime now = LocalDateTime.now();
+        if (date.getDayOfWeek() == CLOSED_DAY || date.isAfter(now.toLocalDate().plusDays(BOOKING_HORIZON_DAYS))) {
+            return free;
+        }
+        for (LocalTime time = OPENING; !time.plusMinutes(SLOT_MINUTES).isAfter(CLOSING); time = time.plusMinutes(SLOT_MINUTES)) {
+            Slot slot = new Slot(date, time);
+            if (LocalDateTime.of(date, time).isAfter(now) && conflict(vehicleId, slot) == null) {
+                free.add(slot);
+            }
+        }
+        return free;
+    }
+
+    // The earliest bookable slot for the vehicle within the booking horizon, or null if there is none
+    public synchronized Slot nextFreeSlot(int vehicleId) {
+        LocalDate today = LocalDate.now();
+        for (LocalDate date = today; !date.isAfter(today.plusDays(BOOKING_HORIZON_DAYS)); date = date.plusDays(1)) {
+            List<Slot> free = freeSlots(vehicleId, date);
+            if (!free.isEmpty()) {
+                return free.get(0);
+            }
+        }
+        return null;
+    }
+}
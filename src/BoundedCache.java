@@ -0,0 +1,146 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// A size-bounded LRU map whose entries also expire after a fixed time to live. The TTL bounds how stale an
+// entry can get when the database is changed by something other than this process (a second console, a
+// script). All operations lock the cache; they are map lookups, so contention stays far below the cost of the
+// SQLite reads they replace.
+// Loads race with invalidations: a reader can fetch a row, lose the CPU while a writer deletes it and
+// invalidates, then put the stale row back. Callers read getGeneration() before loading and pass it to put(),
+// which drops the value if any invalidation happened in between.
+public class BoundedCache<K, V> {
+    private final String name;
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final LinkedHashMap<K, Cached<V>> entries;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long expirations;
+    private long generation;
+
+    public BoundedCache(String name, int maxEntries, long ttl, TimeUnit unit) {
+        this.name = name;
+        this.maxEntries = maxEntries;
+        this.ttlNanos = unit.toNanos(ttl);
+        // Access order makes iteration start at the least recently used entry
+        this.entries = new LinkedHashMap<K, Cached<V>>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Cached<V>> eldest) {
+                if (size() > BoundedCache.this.maxEntries) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    private static class Cached<V> {
+        private final V value;
+        private final long expiresAt;
+
+        private Cached(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    // Returns null on a miss or when the entry has expired
+    public synchronized V get(K key) {
+        Cached<V> cached = entries.get(key);
+        if (cached == null) {
+            misses++;
+            return null;
+        }
+        if (System.nanoTime() - cached.expiresAt > 0) {
+            entries.remove(key);
+            expirations++;
+            misses++;
+            return null;
+        }
+        hits++;
+        return cached.value;
+    }
+
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    public synchronized void put(K key, V value, long loadedAtGeneration) {
+        if (loadedAtGeneration == generation) {
+            entries.put(key, new Cached<>(value, System.nanoTime() + ttlNanos));
+        }
+    }
+
+    public synchronized void invalidate(K key) {
+        entries.remove(key);
+        generation++;
+    }
+
+    public synchronized void invalidateAll() {
+        entries.clear();
+        generation++;
+    }
+
+    public synchronized Stats getStats() {
+        return new Stats(name, entries.size(), maxEntries, hits, misses, evictions, expirations);
+    }
+
+    public static class Stats {
+        private final String name;
+        private final int size;
+        private final int maxEntries;
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+        private final long expirations;
+
+        private Stats(String name, int size, int maxEntries, long hits, long misses, long evictions, long expirations) {
+            this.name = name;
+            this.size = size;
+            this.maxEntries = maxEntries;
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.expirations = expirations;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public int getMaxEntries() {
+            return maxEntries;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        public long getEvictions() {
+            return evictions;
+        }
+
+        public long getExpirations() {
+            return expirations;
+        }
+
+        public double getHitRatio() {
+            long lookups = hits + misses;
+            return lookups == 0 ? 0 : (double) hits / lookups;
+        }
+    }
+}
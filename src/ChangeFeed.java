@@ -0,0 +1,266 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntUnaryOperator;
+
+// A sequenced log of every insert, update and delete on Vehicles, Users and Appointments, so downstream
+// systems can sync by asking for the changes since the last sequence number they saw instead of re-reading
+// whole tables. Triggers write each event in the same transaction as the change itself, whichever code path
+// makes it (the service, imports, cascades, maintenance), so a committed change always has its event and a
+// rolled-back one never does. Events carry the row as it is when they are read; deleted rows carry none.
+//
+// Background maintenance compacts the log: an event is dropped once a later event exists for the same row,
+// which loses nothing because the later event carries the current row. Reading from sequence 0 therefore
+// still yields every live row. Deletion events are kept for RETENTION_DAYS and then expired; a consumer that
+// has fallen further behind than that may have missed deletions and is told to resync.
+public class ChangeFeed {
+    static final int RETENTION_DAYS = 30;
+
+    public enum Entity {
+        VEHICLE("Vehicles"),
+        USER("Users"),
+        APPOINTMENT("Appointments");
+
+        private final String table;
+
+        Entity(String table) {
+            this.table = table;
+        }
+    }
+
+    public enum Kind {
+        INSERT, UPDATE, DELETE
+    }
+
+    // The migration backfills one insert event per existing row so that reading from 0 starts with everything;
+    // ChangeLogHorizon holds the last sequence number whose deletion event has expired (no row means none)
+    static final String[] SCHEMA = concat(new String[]{
+            "CREATE TABLE IF NOT EXISTS ChangeLog (seq INTEGER PRIMARY KEY AUTOINCREMENT, entity TEXT NOT NULL, " +
+                    "entity_id INTEGER NOT NULL, kind TEXT NOT NULL, changed_at TEXT NOT NULL DEFAULT (datetime('now')))",
+            "CREATE INDEX IF NOT EXISTS idx_changelog_entity ON ChangeLog (entity, entity_id, seq)",
+            "CREATE TABLE IF NOT EXISTS ChangeLogHorizon (id INTEGER PRIMARY KEY CHECK (id = 1), expired_through INTEGER NOT NULL)",
+            "CREATE TRIGGER IF NOT EXISTS changelog_expire AFTER DELETE ON ChangeLog WHEN old.kind = 'DELETE' BEGIN " +
+                    "INSERT INTO ChangeLogHorizon (id, expired_through) VALUES (1, old.seq) ON CONFLICT (id) " +
+                    "DO UPDATE SET expired_through = MAX(expired_through, excluded.expired_through); END"
+    }, triggers());
+
+    static final String[] BACKFILL = {
+            "INSERT INTO ChangeLog (entity, entity_id, kind) SELECT 'USER', id, 'INSERT' FROM Users ORDER BY id",
+            "INSERT INTO ChangeLog (entity, entity_id, kind) SELECT 'VEHICLE', id, 'INSERT' FROM Vehicles ORDER BY id",
+            "INSERT INTO ChangeLog (entity, entity_id, kind) SELECT 'APPOINTMENT', id, 'INSERT' FROM Appointments ORDER BY id"
+    };
+
+    // Conditions (on a ChangeLog row aliased t) for the events maintenance removes, in the order it removes them
+    static final String SUPERSEDED = "EXISTS (SELECT 1 FROM ChangeLog l WHERE l.entity = t.entity " +
+                                     "AND l.entity_id = t.entity_id AND l.seq > t.seq)";
+    static final String EXPIRED = "t.kind = 'DELETE' AND t.changed_at < datetime('now', '-" + RETENTION_DAYS + " days')";
+
+    private static final String EVENTS_QUERY = "SELECT seq, entity, entity_id, kind, changed_at FROM ChangeLog " +
+                                               "WHERE seq > ? ORDER BY seq LIMIT ?";
+
+    private static String[] triggers() {
+        List<String> triggers = new ArrayList<>();
+        for (Entity entity : Entity.values()) {
+            String name = entity.table.toLowerCase();
+            for (Kind kind : Kind.values()) {
+                String row = kind == Kind.DELETE ? "old" : "new";
+                triggers.add("CREATE TRIGGER IF NOT EXISTS " + name + "_changelog_" + kind.name().toLowerCase() +
+                        " AFTER " + kind + " ON " + entity.table + " BEGIN " +
+                        "INSERT INTO ChangeLog (entity, entity_id, kind) VALUES ('" + entity + "', " + row + ".id, '" + kind + "'); END");
+            }
+        }
+        return triggers.toArray(new String[0]);
+    }
+
+    private static String[] concat(String[] first, String[] second) {
+        String[] all = new String[first.length + second.length];
+        System.arraycopy(first, 0, all, 0, first.length);
+        System.arraycopy(second, 0, all, first.length, second.length);
+        return all;
+    }
+
+    public static class Change {
+        private final long sequence;
+        private final Entity entity;
+        private final int entityId;
+        private final Kind kind;
+        private final String changedAt;
+        private final Map<String, Object> row;
+
+        private Change(long sequence, Entity entity, int entityId, Kind kind, String changedAt, Map<String, Object> row) {
+            this.sequence = sequence;
+            this.entity = entity;
+            this.entityId = entityId;
+            this.kind = kind;
+            this.changedAt = changedAt;
+            this.row = row;
+        }
+
+        // The same change with its row id and the ids in its row (id, car_id, user_id) mapped
+        Change withIds(IntUnaryOperator ids) {
+            Map<String, Object> mapped = null;
+            if (row != null) {
+                mapped = new LinkedHashMap<>(row);
+                for (String column : new String[]{"id", "car_id", "user_id"}) {
+                    mapId(mapped, column, ids);
+                }
+            }
+            return new Change(sequence, entity, ids.applyAsInt(entityId), kind, changedAt, mapped);
+        }
+
+        private static void mapId(Map<String, Object> row, String column, IntUnaryOperator ids) {
+            Object value = row.get(column);
+            if (value instanceof Number) {
+                row.put(column, ids.applyAsInt(((Number) value).intValue()));
+            }
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public Entity getEntity() {
+            return entity;
+        }
+
+        public int getEntityId() {
+            return entityId;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        // UTC, YYYY-MM-DD HH:MM:SS
+        public String getChangedAt() {
+            return changedAt;
+        }
+
+        // Column name to value as the row is now; null once the row has been deleted
+        public Map<String, Object> getRow() {
+            return row;
+        }
+    }
+
+    public static class Page {
+        private final List<Change> changes;
+        private final long next;
+        private final long latest;
+        private final boolean resyncRequired;
+
+        Page(List<Change> changes, long next, long latest, boolean resyncRequired) {
+            this.changes = changes;
+            this.next = next;
+            this.latest = latest;
+            this.resyncRequired = resyncRequired;
+        }
+
+        public List<Change> getChanges() {
+            return changes;
+        }
+
+        // Pass this back as the sequence to read from next
+        public long getNext() {
+            return next;
+        }
+
+        // The newest sequence number written so far; the consumer is up to date once next reaches it
+        public long getLatest() {
+            return latest;
+        }
+
+        // Deletions after the requested sequence have expired, so the consumer should reload from sequence 0
+        // and drop any row the reload does not return
+        public boolean isResyncRequired() {
+            return resyncRequired;
+        }
+    }
+
+    // Up to limit changes after the given sequence number, oldest first. The reads share one transaction,
+    // so the rows attached agree with the events returned.
+    public static Page since(ConnectionPool.Lease lease, long sequence, int limit) throws SQLException {
+        Connection conn = lease.connection();
+        conn.setAutoCommit(false);
+        try {
+            boolean resync = sequence < horizon(lease);
+            long latest = latest(lease);
+            List<Change> events = new ArrayList<>();
+            Map<Entity, List<Integer>> wanted = new EnumMap<>(Entity.class);
+            PreparedStatement stmt = lease.prepare(EVENTS_QUERY);
+            stmt.setLong(1, sequence);
+            stmt.setInt(2, limit);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    Change event = new Change(rs.getLong("seq"), Entity.valueOf(rs.getString("entity")),
+                            rs.getInt("entity_id"), Kind.valueOf(rs.getString("kind")), rs.getString("changed_at"), null);
+                    events.add(event);
+                    if (event.kind != Kind.DELETE) {
+                        wanted.computeIfAbsent(event.entity, e -> new ArrayList<>()).add(event.entityId);
+                    }
+                }
+            }
+            Map<Entity, Map<Integer, Map<String, Object>>> rows = new EnumMap<>(Entity.class);
+            for (Map.Entry<Entity, List<Integer>> entry : wanted.entrySet()) {
+                rows.put(entry.getKey(), rows(lease, entry.getKey(), entry.getValue()));
+            }
+            conn.commit();
+
+            List<Change> changes = new ArrayList<>(events.size());
+            for (Change event : events) {
+                Map<Integer, Map<String, Object>> found = rows.get(event.entity);
+                Map<String, Object> row = found == null ? null : found.get(event.entityId);
+                changes.add(new Change(event.sequence, event.entity, event.entityId, event.kind, event.changedAt, row));
+            }
+            long next = changes.isEmpty() ? Math.max(sequence, 0) : changes.get(changes.size() - 1).getSequence();
+            return new Page(Collections.unmodifiableList(changes), next, latest, resync);
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    private static Map<Integer, Map<String, Object>> rows(ConnectionPool.Lease lease, Entity entity, List<Integer> ids)
+            throws SQLException {
+        StringBuilder sql = new StringBuilder("SELECT * FROM ").append(entity.table).append(" WHERE id IN (");
+        for (int i = 0; i < ids.size(); i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        sql.append(')');
+        Map<Integer, Map<String, Object>> rows = new HashMap<>();
+        PreparedStatement stmt = lease.prepare(sql.toString());
+        for (int i = 0; i < ids.size(); i++) {
+            stmt.setInt(i + 1, ids.get(i));
+        }
+        try (ResultSet rs = stmt.executeQuery()) {
+            ResultSetMetaData meta = rs.getMetaData();
+            while (rs.next()) {
+                Map<String, Object> row = new LinkedHashMap<>();
+                for (int column = 1; column <= meta.getColumnCount(); column++) {
+                    row.put(meta.getColumnName(column), rs.getObject(column));
+                }
+                rows.put(rs.getInt("id"), row);
+            }
+        }
+        return rows;
+    }
+
+    static long horizon(ConnectionPool.Lease lease) throws SQLException {
+        try (ResultSet rs = lease.prepare("SELECT expired_through FROM ChangeLogHorizon WHERE id = 1").executeQuery()) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    static long latest(ConnectionPool.Lease lease) throws SQLException {
+        try (ResultSet rs = lease.prepare("SELECT seq FROM sqlite_sequence WHERE name = 'ChangeLog'").executeQuery()) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+}
@@ -0,0 +1,226 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Long-lived SQLite connections: one writer plus a fixed set of read-only readers.
+// SQLite allows a single writer at a time, so the writer is handed out under a lock
+// while readers run concurrently against the WAL.
+public class ConnectionPool implements AutoCloseable {
+    private static final long BORROW_TIMEOUT_SECONDS = 30;
+
+    private static final String[] CONNECTION_PRAGMAS = {
+            "PRAGMA journal_mode=WAL;",
+            "PRAGMA synchronous=NORMAL;",
+            "PRAGMA cache_size=-16000;",
+            "PRAGMA mmap_size=268435456;",
+            "PRAGMA temp_store=MEMORY;",
+            "PRAGMA busy_timeout=5000;"
+    };
+
+    private final Connection writer;
+    private final ReentrantLock writerLock = new ReentrantLock(true);
+    private final BlockingQueue<Connection> idleReaders;
+    private final List<Connection> readers = new ArrayList<>();
+    // Filled during construction and only read afterwards
+    private final Map<Connection, StatementCache> statementCaches = new IdentityHashMap<>();
+    private volatile boolean closed;
+    // When the writer was last returned by anyone other than background maintenance
+    private volatile long lastWriteNanos = System.nanoTime();
+
+    public ConnectionPool(String url, int readerCount) throws SQLException {
+        if (readerCount < 1) {
+            throw new IllegalArgumentException("readerCount must be at least 1");
+        }
+        this.idleReaders = new ArrayBlockingQueue<>(readerCount);
+        try {
+            // The writer is opened first so WAL mode is set before any reader attaches.
+            this.writer = open(url, false);
+            for (int i = 0; i < readerCount; i++) {
+                Connection reader = open(url, true);
+                readers.add(reader);
+                idleReaders.add(reader);
+            }
+        } catch (SQLException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private Connection open(String url, boolean readOnly) throws SQLException {
+        Connection conn = DriverManager.getConnection(url);
+        try (Statement stmt = conn.createStatement()) {
+            if (!readOnly) {
+                // Only takes effect while the file has no tables and before WAL mode is set, so new databases
+                // start out able to return free pages; DatabaseMaintenance converts existing ones on request
+                stmt.execute("PRAGMA auto_vacuum = INCREMENTAL;");
+            }
+            for (String pragma : CONNECTION_PRAGMAS) {
+                stmt.execute(pragma);
+            }
+            if (readOnly) {
+                stmt.execute("PRAGMA query_only=1;");
+            }
+        } catch (SQLException e) {
+            conn.close();
+            throw e;
+        }
+        statementCaches.put(conn, new StatementCache(conn));
+        return conn;
+    }
+
+    public Lease reader() throws SQLException {
+        ensureOpen();
+        long start = System.nanoTime();
+        try {
+            Connection conn = idleReaders.poll(BORROW_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            if (conn == null) {
+                throw new SQLException("Timed out waiting for a database reader connection");
+            }
+            return new Lease(conn, false, false);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database reader connection", e);
+        } finally {
+            Metrics.record(Metrics.Operation.READER_WAIT, start);
+        }
+    }
+
+    // Not reentrant: a nested lease would share the outer transaction and roll it back when closed
+    public Lease writer() throws SQLException {
+        ensureOpen();
+        ensureWriterNotHeld();
+        long start = System.nanoTime();
+        try {
+            if (!writerLock.tryLock(BORROW_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                throw new SQLException("Timed out waiting for the database writer connection");
+            }
+            return new Lease(writer, true, false);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for the database writer connection", e);
+        } finally {
+            Metrics.record(Metrics.Operation.WRITER_WAIT, start);
+        }
+    }
+
+    // For background work: the writer if it is free and no one is queued for it, otherwise null.
+    // Leases taken this way do not count as activity for getWriterIdleMillis().
+    public Lease tryWriter() throws SQLException {
+        ensureOpen();
+        ensureWriterNotHeld();
+        if (writerLock.hasQueuedThreads() || !writerLock.tryLock()) {
+            return null;
+        }
+        return new Lease(writer, true, true);
+    }
+
+    public long getWriterIdleMillis() {
+        return writerLock.isLocked() ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastWriteNanos);
+    }
+
+    private void ensureOpen() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+    }
+
+    private void ensureWriterNotHeld() {
+        if (writerLock.isHeldByCurrentThread()) {
+            throw new IllegalStateException("This thread already holds the database writer connection");
+        }
+    }
+
+    private void release(Connection conn, boolean write, boolean background) {
+        if (write) {
+            if (!background) {
+                lastWriteNanos = System.nanoTime();
+            }
+            try {
+                // Never hand the writer on with a half-finished transaction.
+                if (!conn.getAutoCommit()) {
+                    conn.rollback();
+                    conn.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                System.out.println("An error occurred while resetting the writer connection: " + e.getMessage());
+            } finally {
+                writerLock.unlock();
+            }
+        } else {
+            idleReaders.offer(conn);
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        for (StatementCache cache : statementCaches.values()) {
+            cache.close();
+        }
+        for (Connection reader : readers) {
+            closeQuietly(reader);
+        }
+        if (writer != null) {
+            closeQuietly(writer);
+        }
+    }
+
+    private static void closeQuietly(Connection conn) {
+        try {
+            conn.close();
+        } catch (SQLException e) {
+            System.out.println("An error occurred while closing a database connection: " + e.getMessage());
+        }
+    }
+
+    // A borrowed connection; closing the lease returns it to the pool instead of closing it.
+    public class Lease implements AutoCloseable {
+        private final Connection conn;
+        private final boolean write;
+        private final boolean background;
+        private boolean released;
+
+        private Lease(Connection conn, boolean write, boolean background) {
+            this.conn = conn;
+            this.write = write;
+            this.background = background;
+        }
+
+        public Connection connection() {
+            return conn;
+        }
+
+        // Statements returned here belong to the connection's cache and must not be closed by the caller
+        public PreparedStatement prepare(String sql) throws SQLException {
+            return statementCaches.get(conn).prepare(sql);
+        }
+
+        public PreparedStatement prepareReturningKeys(String sql) throws SQLException {
+            return statementCaches.get(conn).prepareReturningKeys(sql);
+        }
+
+        // Some statements, VACUUM among them, refuse to run while any statement on the connection is
+        // still active; this closes the cached ones so they are prepared again on next use
+        public void closeStatements() {
+            statementCaches.get(conn).close();
+        }
+
+        @Override
+        public void close() {
+            if (!released) {
+                released = true;
+                release(conn, write, background);
+            }
+        }
+    }
+}
@@ -0,0 +1,267 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.zip.GZIPOutputStream;
+
+// Streams Vehicles or the appointment join to CSV or JSON-lines. Rows go straight from the ResultSet
+// cursor into a buffered channel writer, so memory use does not depend on table size.
+// Incremental exports follow the change log (see ChangeFeed) from the sequence number saved by the previous
+// export: every row inserted or updated since then, as it is now, and a line for every row deleted since then.
+// They carry an extra "change" column, "upsert" or "delete"; a deleted row has only its id filled in. When
+// deletions after the saved sequence have already expired from the log, the export falls back to every row.
+public class DataExporter {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    public enum Dataset {
+        VEHICLES("vehicles", ChangeFeed.Entity.VEHICLE, "Vehicles", "v.id", "SELECT v.* FROM Vehicles v"),
+        APPOINTMENTS("appointments", ChangeFeed.Entity.APPOINTMENT, "Appointments", "a.id",
+                "SELECT a.id, a.date, a.slot_time, a.car_id, v.make, v.model, v.variant, " +
+                "a.user_id, u.email, u.firstname, u.lastname " +
+                "FROM Appointments a " +
+                "JOIN Vehicles v ON a.car_id = v.id " +
+                "JOIN Users u ON a.user_id = u.id");
+
+        private final String name;
+        private final String allQuery;
+        private final String changedQuery;
+        private final String deletedQuery;
+
+        Dataset(String name, ChangeFeed.Entity entity, String table, String id, String select) {
+            this.name = name;
+            this.allQuery = select + " ORDER BY " + id;
+            this.changedQuery = select + " WHERE " + id + " IN (SELECT entity_id FROM ChangeLog " +
+                                "WHERE entity = '" + entity + "' AND seq > ?) ORDER BY " + id;
+            this.deletedQuery = "SELECT DISTINCT entity_id FROM ChangeLog WHERE entity = '" + entity + "' " +
+                                "AND kind = 'DELETE' AND seq > ? AND entity_id NOT IN (SELECT id FROM " + table + ") " +
+                                "ORDER BY entity_id";
+        }
+    }
+
+    public enum Format {
+        CSV, JSON_LINES
+    }
+
+    public static class Result {
+        private final long rows;
+        private final long deletions;
+        private final long sequence;
+        private final boolean complete;
+        private final long elapsedNanos;
+
+        private Result(long rows, long deletions, long sequence, boolean complete, long elapsedNanos) {
+            this.rows = rows;
+            this.deletions = deletions;
+            this.sequence = sequence;
+            this.complete = complete;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        // Lines written, deletions included
+        public long getRows() {
+            return rows;
+        }
+
+        public long getDeletions() {
+            return deletions;
+        }
+
+        // The change log sequence number the export is current to; the next incremental export starts after it
+        public long getSequence() {
+            return sequence;
+        }
+
+        // True when every row was written rather than only the changes
+        public boolean isComplete() {
+            return complete;
+        }
+
+        public double getSeconds() {
+            return elapsedNanos / 1_000_000_000.0;
+        }
+    }
+
+    public static Result export(ConnectionPool pool, Dataset dataset, Format format, Path path,
+                                boolean gzip, boolean incremental) throws IOException, SQLException {
+        long start = System.nanoTime();
+        long after = incremental ? readMarker(pool, dataset) : 0;
+        long sequence;
+        boolean complete;
+        long rows = 0;
+        long deletions = 0;
+
+        // Written beside the target and moved into place at the end, so readers never see a partial file
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (ConnectionPool.Lease lease = pool.reader();
+             Writer out = open(temp, gzip)) {
+            // One read transaction, so the rows written agree with the sequence number saved for next time
+            Connection conn = lease.connection();
+            conn.setAutoCommit(false);
+            try {
+                sequence = ChangeFeed.latest(lease);
+                complete = !incremental || after < ChangeFeed.horizon(lease);
+                PreparedStatement stmt = lease.prepare(complete ? dataset.allQuery : dataset.changedQuery);
+                if (!complete) {
+                    stmt.setLong(1, after);
+                }
+                String[] names;
+                int idColumn;
+                StringBuilder line = new StringBuilder(256);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    ResultSetMetaData meta = rs.getMetaData();
+                    int columnCount = meta.getColumnCount();
+                    names = new String[incremental ? columnCount + 1 : columnCount];
+                    for (int i = 0; i < columnCount; i++) {
+                        names[i] = meta.getColumnLabel(i + 1);
+                    }
+                    idColumn = rs.findColumn("id") - 1;
+                    if (incremental) {
+                        names[columnCount] = "change";
+                    }
+
+                    if (format == Format.CSV) {
+                        appendCsv(line, names);
+                        out.append(line).append('\n');
+                    }
+
+                    Object[] values = new Object[names.length];
+                    while (rs.next()) {
+                        for (int i = 0; i < columnCount; i++) {
+                            values[i] = rs.getObject(i + 1);
+                        }
+                        if (incremental) {
+                            values[columnCount] = "upsert";
+                        }
+                        write(out, line, format, names, values);
+                        rows++;
+                    }
+                }
+
+                if (!complete) {
+                    PreparedStatement deleted = lease.prepare(dataset.deletedQuery);
+                    deleted.setLong(1, after);
+                    Object[] values = new Object[names.length];
+                    values[names.length - 1] = "delete";
+                    try (ResultSet rs = deleted.executeQuery()) {
+                        while (rs.next()) {
+                            values[idColumn] = rs.getLong(1);
+                            write(out, line, format, names, values);
+                            rows++;
+                            deletions++;
+                        }
+                    }
+                }
+                conn.commit();
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (IOException | SQLException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        if (sequence != after) {
+            writeMarker(pool, dataset, sequence);
+        }
+        return new Result(rows, deletions, sequence, complete, System.nanoTime() - start);
+    }
+
+    private static void write(Writer out, StringBuilder line, Format format, String[] names, Object[] values)
+            throws IOException {
+        line.setLength(0);
+        if (format == Format.CSV) {
+            appendCsv(line, values);
+        } else {
+            line.append('{');
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    line.append(',');
+                }
+                Json.quote(line, names[i]);
+                line.append(':');
+                Object value = values[i];
+                if (value instanceof Number) {
+                    line.append(value);
+                } else {
+                    Json.quote(line, value == null ? null : value.toString());
+                }
+            }
+            line.append('}');
+        }
+        out.append(line).append('\n');
+    }
+
+    private static void appendCsv(StringBuilder line, Object[] values) {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                line.append(',');
+            }
+            if (values[i] != null) {
+                appendCsv(line, values[i].toString());
+            }
+        }
+    }
+
+    private static Writer open(Path path, boolean gzip) throws IOException {
+        WritableByteChannel channel;
+        if (gzip) {
+            channel = Channels.newChannel(new GZIPOutputStream(Files.newOutputStream(path), BUFFER_SIZE));
+        } else {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        }
+        return new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), BUFFER_SIZE), BUFFER_SIZE);
+    }
+
+    private static void appendCsv(StringBuilder line, String value) {
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            line.append(value);
+            return;
+        }
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                line.append('"');
+            }
+            line.append(c);
+        }
+        line.append('"');
+    }
+
+    public static long readMarker(ConnectionPool pool, Dataset dataset) throws SQLException {
+        try (ConnectionPool.Lease lease = pool.reader()) {
+            PreparedStatement stmt = lease.prepare("SELECT last_seq FROM ExportMarkers WHERE dataset = ?");
+            stmt.setString(1, dataset.name);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : 0;
+            }
+        }
+    }
+
+    private static void writeMarker(ConnectionPool pool, Dataset dataset, long sequence) throws SQLException {
+        try (ConnectionPool.Lease lease = pool.writer()) {
+            PreparedStatement stmt = lease.prepare("INSERT OR REPLACE INTO ExportMarkers (dataset, last_seq, exported_at) VALUES (?, ?, datetime('now'))");
+            stmt.setString(1, dataset.name);
+            stmt.setLong(2, sequence);
+            stmt.executeUpdate();
+        }
+    }
+}
@@ -0,0 +1,344 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Keeps the database file and its joins sized to live data. Deletes made before cascading existed left
+// Saltpw, Salts, Admin and Appointments rows pointing at users or vehicles that are gone; these are purged
+// in small keyset batches, each in its own short transaction, so the writer is never held for long.
+// The change log is compacted the same way (see ChangeFeed). Freed pages are then returned to the filesystem
+// with incremental vacuum, on databases that have it switched on, and the WAL is checkpointed.
+//
+// Work only starts once no one else has written for a while, and only if the writer is free at that
+// moment; it stops at the next batch boundary as soon as someone else is waiting to write.
+public class DatabaseMaintenance {
+    private static final long CHECK_INTERVAL_SECONDS = 60;
+    private static final long IDLE_MILLIS = 30_000;
+    private static final int BATCH_SIZE = 500;
+    private static final int VACUUM_PAGES_PER_RUN = 2_000;
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    // Each entry is a table and the condition that makes one of its rows an orphan (the row is aliased t)
+    private static final String[][] ORPHANS = {
+            {"Appointments", "NOT EXISTS (SELECT 1 FROM Users u WHERE u.id = t.user_id) " +
+                             "OR NOT EXISTS (SELECT 1 FROM Vehicles v WHERE v.id = t.car_id)"},
+            {"Saltpw", "NOT EXISTS (SELECT 1 FROM Users u WHERE u.id = t.id)"},
+            {"Salts", "NOT EXISTS (SELECT 1 FROM Users u WHERE u.id = t.id)"},
+            {"Admin", "NOT EXISTS (SELECT 1 FROM Users u WHERE u.id = t.id)"}
+    };
+
+    // Each entry names a kind of change log event maintenance removes and the condition that selects it
+    private static final String[][] CHANGE_LOG = {
+            {"superseded", ChangeFeed.SUPERSEDED},
+            {"expired", ChangeFeed.EXPIRED}
+    };
+
+    private final ConnectionPool pool;
+    private final AppointmentScheduler scheduler;
+    private ScheduledExecutorService executor;
+
+    // Guarded by this
+    private final Map<String, Long> purged = new LinkedHashMap<>();
+    private final Map<String, Long> compacted = new LinkedHashMap<>();
+    private long pagesReclaimed;
+    private long checkpoints;
+    private long busyCheckpoints;
+    private int runs;
+    private LocalDateTime lastRun;
+    private String lastError;
+
+    public DatabaseMaintenance(ConnectionPool pool, AppointmentScheduler scheduler) {
+        this.pool = pool;
+        this.scheduler = scheduler;
+        for (String[] orphan : ORPHANS) {
+            purged.put(orphan[0], 0L);
+        }
+        for (String[] events : CHANGE_LOG) {
+            compacted.put(events[0], 0L);
+        }
+    }
+
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "db-maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(() -> {
+            if (pool.getWriterIdleMillis() >= IDLE_MILLIS) {
+                run();
+            }
+        }, CHECK_INTERVAL_SECONDS, CHECK_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    // One full pass; returns the totals afterwards. Safe to call from the console while the
+    // background task is running, as passes never overlap.
+    public Report run() {
+        long start = System.nanoTime();
+        long written = 0;
+        synchronized (this) {
+            try {
+                for (String[] orphan : ORPHANS) {
+                    long count = purge(orphan[0], orphan[1]);
+                    purged.merge(orphan[0], count, Long::sum);
+                    written += count;
+                }
+                for (String[] events : CHANGE_LOG) {
+                    long count = purge("ChangeLog", events[1]);
+                    compacted.merge(events[0], count, Long::sum);
+                    written += count;
+                }
+                reclaimPages();
+                checkpoint();
+                lastError = null;
+            } catch (SQLException e) {
+                lastError = e.getMessage();
+                System.out.println("An error occurred during database maintenance: " + e.getMessage());
+            } finally {
+                runs++;
+                lastRun = LocalDateTime.now();
+                Metrics.record(Metrics.Operation.MAINTENANCE, start, 0, written);
+            }
+            return getReport();
+        }
+    }
+
+    private long purge(String table, String condition) throws SQLException {
+        String select = "SELECT t.rowid FROM " + table + " t WHERE t.rowid > ? AND (" + condition + ") ORDER BY t.rowid LIMIT " + BATCH_SIZE;
+        String delete = "DELETE FROM " + table + " WHERE rowid = ?";
+        long total = 0;
+        long after = 0;
+        while (true) {
+            List<Integer> rowIds = new ArrayList<>();
+            try (ConnectionPool.Lease lease = pool.tryWriter()) {
+                if (lease == null) {
+                    return total;
+                }
+                Connection conn = lease.connection();
+                conn.setAutoCommit(false);
+                try {
+                    PreparedStatement find = lease.prepare(select);
+                    find.setLong(1, after);
+                    try (ResultSet rs = find.executeQuery()) {
+                        while (rs.next()) {
+                            rowIds.add(rs.getInt(1));
+                        }
+                    }
+                    if (rowIds.isEmpty()) {
+                        conn.commit();
+                        return total;
+                    }
+                    PreparedStatement stmt = lease.prepare(delete);
+                    for (int rowId : rowIds) {
+                        stmt.setInt(1, rowId);
+                        stmt.addBatch();
+                    }
+                    stmt.executeBatch();
+                    conn.commit();
+                } catch (SQLException | RuntimeException e) {
+                    conn.rollback();
+                    throw e;
+                } finally {
+                    conn.setAutoCommit(true);
+                }
+            }
+            // Appointment ids are their rowids; drop them from the booking index now that they are gone
+            if (table.equals("Appointments")) {
+                scheduler.forget(rowIds);
+            }
+            total += rowIds.size();
+            after = rowIds.get(rowIds.size() - 1);
+            if (rowIds.size() < BATCH_SIZE) {
+                return total;
+            }
+        }
+    }
+
+    // Each pass releases up to VACUUM_PAGES_PER_RUN free pages. Databases created without auto_vacuum are
+    // skipped: switching it on needs a full VACUUM, which only an admin starts (enableIncrementalVacuum)
+    private void reclaimPages() throws SQLException {
+        try (ConnectionPool.Lease lease = pool.tryWriter()) {
+            if (lease == null) {
+                return;
+            }
+            Connection conn = lease.connection();
+            try (Statement stmt = conn.createStatement()) {
+                if (pragma(stmt, "auto_vacuum") != AUTO_VACUUM_INCREMENTAL) {
+                    return;
+                }
+
+                long free = pragma(stmt, "freelist_count");
+                if (free == 0) {
+                    return;
+                }
+                // The driver steps a pragma once per execute and each step frees one page, so the
+                // statement is run once per page inside a single transaction and closed before commit
+                conn.setAutoCommit(false);
+                try {
+                    try (PreparedStatement vacuum = conn.prepareStatement("PRAGMA incremental_vacuum")) {
+                        for (long i = 0; i < Math.min(free, VACUUM_PAGES_PER_RUN); i++) {
+                            vacuum.execute();
+                        }
+                    }
+                    conn.commit();
+                } catch (SQLException e) {
+                    conn.rollback();
+                    throw e;
+                } finally {
+                    conn.setAutoCommit(true);
+                }
+                pagesReclaimed += free - pragma(stmt, "freelist_count");
+            }
+        }
+    }
+
+    // Rebuilds the whole file with VACUUM so free pages can be returned from then on. Writes wait for it to
+    // finish, which can take minutes on a large database. Returns false if incremental vacuum was already on.
+    public synchronized boolean enableIncrementalVacuum() throws SQLException {
+        long start = System.nanoTime();
+        try (ConnectionPool.Lease lease = pool.writer();
+             Statement stmt = lease.connection().createStatement()) {
+            if (pragma(stmt, "auto_vacuum") == AUTO_VACUUM_INCREMENTAL) {
+                return false;
+            }
+            long pagesBefore = pragma(stmt, "page_count");
+            lease.closeStatements();
+            stmt.execute("PRAGMA auto_vacuum = INCREMENTAL");
+            stmt.execute("VACUUM");
+            pagesReclaimed += Math.max(0, pagesBefore - pragma(stmt, "page_count"));
+            return true;
+        } finally {
+            Metrics.record(Metrics.Operation.MAINTENANCE, start);
+        }
+    }
+
+    private void checkpoint() throws SQLException {
+        try (ConnectionPool.Lease lease = pool.tryWriter()) {
+            if (lease == null) {
+                return;
+            }
+            try (Statement stmt = lease.connection().createStatement();
+                 ResultSet rs = stmt.executeQuery("PRAGMA wal_checkpoint(TRUNCATE)")) {
+                // The first column is 1 when a reader kept the checkpoint from finishing
+                if (rs.next() && rs.getInt(1) != 0) {
+                    busyCheckpoints++;
+                } else {
+                    checkpoints++;
+                }
+            }
+        }
+    }
+
+    private static long pragma(Statement stmt, String name) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery("PRAGMA " + name)) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    public synchronized Report getReport() {
+        long pageCount = -1;
+        long freePages = -1;
+        boolean incrementalVacuum = false;
+        try (ConnectionPool.Lease lease = pool.reader();
+             Statement stmt = lease.connection().createStatement()) {
+            pageCount = pragma(stmt, "page_count");
+            freePages = pragma(stmt, "freelist_count");
+            incrementalVacuum = pragma(stmt, "auto_vacuum") == AUTO_VACUUM_INCREMENTAL;
+        } catch (SQLException e) {
+            // Sizes are left at -1; the counters are still worth showing
+        }
+        return new Report(new LinkedHashMap<>(purged), new LinkedHashMap<>(compacted), pagesReclaimed, checkpoints,
+                busyCheckpoints, runs, lastRun, lastError, pageCount, freePages, incrementalVacuum);
+    }
+
+    public static class Report {
+        private final Map<String, Long> orphansPurged;
+        private final Map<String, Long> changesCompacted;
+        private final long pagesReclaimed;
+        private final long checkpoints;
+        private final long busyCheckpoints;
+        private final int runs;
+        private final LocalDateTime lastRun;
+        private final String lastError;
+        private final long pageCount;
+        private final long freePages;
+        private final boolean incrementalVacuum;
+
+        private Report(Map<String, Long> orphansPurged, Map<String, Long> changesCompacted, long pagesReclaimed,
+                       long checkpoints, long busyCheckpoints, int runs, LocalDateTime lastRun, String lastError,
+                       long pageCount, long freePages, boolean incrementalVacuum) {
+            this.orphansPurged = orphansPurged;
+            this.changesCompacted = changesCompacted;
+            this.pagesReclaimed = pagesReclaimed;
+            this.checkpoints = checkpoints;
+            this.busyCheckpoints = busyCheckpoints;
+            this.runs = runs;
+            this.lastRun = lastRun;
+            this.lastError = lastError;
+            this.pageCount = pageCount;
+            this.freePages = freePages;
+            this.incrementalVacuum = incrementalVacuum;
+        }
+
+        // Rows removed per table since the program started
+        public Map<String, Long> getOrphansPurged() {
+            return orphansPurged;
+        }
+
+        // Change log events removed since the program started, superseded and expired
+        public Map<String, Long> getChangesCompacted() {
+            return changesCompacted;
+        }
+
+        public long getPagesReclaimed() {
+            return pagesReclaimed;
+        }
+
+        public long getCheckpoints() {
+            return checkpoints;
+        }
+
+        public long getBusyCheckpoints() {
+            return busyCheckpoints;
+        }
+
+        public int getRuns() {
+            return runs;
+        }
+
+        // Null until the first pass
+        public LocalDateTime getLastRun() {
+            return lastRun;
+        }
+
+        // Null when the last pass succeeded
+        public String getLastError() {
+            return lastError;
+        }
+
+        public long getPageCount() {
+            return pageCount;
+        }
+
+        public long getFreePages() {
+            return freePages;
+        }
+
+        // False for databases created without auto_vacuum, whose free pages are not returned until converted
+        public boolean isIncrementalVacuum() {
+            return incrementalVacuum;
+        }
+    }
+}
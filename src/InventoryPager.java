@@ -0,0 +1,326 @@
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+// Keyset pagination over Vehicles. Every page is fetched with a "(sort, id) > cursor ... LIMIT n" seek,
+// so page N costs the same as page 1 no matter how far into the table it is.
+// SQLite sorts NULLs first, so rows without a value for the sort column form their own leading run ordered by id.
+// Pages can be shared through a BoundedCache keyed by sort, size, direction and cursor, so paging through
+// the same stretch of inventory a second time is served without touching SQLite.
+// When an InventorySnapshot is in use, the overloads taking one walk it in the same order instead.
+public class InventoryPager {
+    static final String COLUMNS = "SELECT id, make, model, variant, registration, price, mileage FROM Vehicles ";
+
+    public enum SortKey {
+        ID("id", "ID"),
+        PRICE("price", "Price"),
+        MILEAGE("mileage", "Mileage"),
+        REGISTRATION("registration", "Registration");
+
+        private final String column;
+        private final String label;
+        private final String firstQuery;
+        private final String afterQuery;
+        private final String beforeQuery;
+        private final String nullsAfterQuery;
+        private final String nullsBeforeQuery;
+        private final String valuesFirstQuery;
+
+        SortKey(String column, String label) {
+            this.column = column;
+            this.label = label;
+            this.firstQuery = COLUMNS + "ORDER BY " + order(column, "") + " LIMIT ?";
+            if (column.equals("id")) {
+                this.afterQuery = COLUMNS + "WHERE id > ? ORDER BY id LIMIT ?";
+                this.beforeQuery = COLUMNS + "WHERE id < ? ORDER BY id DESC LIMIT ?";
+                this.nullsAfterQuery = null;
+                this.nullsBeforeQuery = null;
+                this.valuesFirstQuery = null;
+            } else {
+                this.afterQuery = COLUMNS + "WHERE (" + column + ", id) > (?, ?) ORDER BY " + order(column, "") + " LIMIT ?";
+                this.beforeQuery = COLUMNS + "WHERE (" + column + ", id) < (?, ?) ORDER BY " + order(column, " DESC") + " LIMIT ?";
+                this.nullsAfterQuery = COLUMNS + "WHERE " + column + " IS NULL AND id > ? ORDER BY id LIMIT ?";
+                this.nullsBeforeQuery = COLUMNS + "WHERE " + column + " IS NULL AND id < ? ORDER BY id DESC LIMIT ?";
+                this.valuesFirstQuery = COLUMNS + "WHERE " + column + " IS NOT NULL ORDER BY " + order(column, "") + " LIMIT ?";
+            }
+        }
+
+        private static String order(String column, String direction) {
+            return column.equals("id") ? "id" + direction : column + direction + ", id" + direction;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    public static class Row {
+        private final int id;
+        private final String make;
+        private final String model;
+        private final String variant;
+        private final String registration;
+        private final Integer price;
+        private final Integer mileage;
+        private final Object sortValue;
+
+        Row(ResultSet rs, SortKey sortKey) throws SQLException {
+            this.id = rs.getInt("id");
+            this.make = rs.getString("make");
+            this.model = rs.getString("model");
+            this.variant = rs.getString("variant");
+            this.registration = rs.getString("registration");
+            this.price = nullable(rs, rs.getInt("price"));
+            this.mileage = nullable(rs, rs.getInt("mileage"));
+            this.sortValue = sortKey == SortKey.ID ? null : rs.getObject(sortKey.column);
+        }
+
+        Row(int id, String make, String model, String variant, String registration, Integer price, Integer mileage,
+            Object sortValue) {
+            this.id = id;
+            this.make = make;
+            this.model = model;
+            this.variant = variant;
+            this.registration = registration;
+            this.price = price;
+            this.mileage = mileage;
+            this.sortValue = sortValue;
+        }
+
+        // The same row under another id, e.g. a dealership's own id mapped to its group-wide one
+        Row withId(int id) {
+            return new Row(id, make, model, variant, registration, price, mileage, sortValue);
+        }
+
+        // The same row carrying a relevance score in place of a sort value, lower being the better match
+        Row withScore(double score) {
+            return new Row(id, make, model, variant, registration, price, mileage, score);
+        }
+
+        private static Integer nullable(ResultSet rs, int value) throws SQLException {
+            return rs.wasNull() ? null : value;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getMake() {
+            return make;
+        }
+
+        public String getModel() {
+            return model;
+        }
+
+        public String getVariant() {
+            return variant;
+        }
+
+        public String getRegistration() {
+            return registration;
+        }
+
+        public Integer getPrice() {
+            return price;
+        }
+
+        public Integer getMileage() {
+            return mileage;
+        }
+    }
+
+    // Display order for rows of one sort key (or relevance scores) read from different databases: NULLs first,
+    // then by value, then by id, as SQLite sorts them
+    static final Comparator<Row> ORDER = (a, b) -> {
+        if (a.sortValue == null || b.sortValue == null) {
+            if (a.sortValue != b.sortValue) {
+                return a.sortValue == null ? -1 : 1;
+            }
+        } else {
+            int byValue = a.sortValue instanceof Number && b.sortValue instanceof Number
+                    ? Double.compare(((Number) a.sortValue).doubleValue(), ((Number) b.sortValue).doubleValue())
+                    : a.sortValue.toString().compareTo(b.sortValue.toString());
+            if (byValue != 0) {
+                return byValue;
+            }
+        }
+        return Integer.compare(a.id, b.id);
+    };
+
+    private final SortKey sortKey;
+    private final int pageSize;
+    private final BoundedCache<String, List<Row>> cache;
+    private List<Row> page = Collections.emptyList();
+
+    public InventoryPager(SortKey sortKey, int pageSize) {
+        this(sortKey, pageSize, null);
+    }
+
+    // Cached pages are unmodifiable and shared between pagers, so rows must not be edited in place
+    public InventoryPager(SortKey sortKey, int pageSize, BoundedCache<String, List<Row>> cache) {
+        this.sortKey = sortKey;
+        this.pageSize = pageSize;
+        this.cache = cache;
+    }
+
+    public SortKey getSortKey() {
+        return sortKey;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public List<Row> getPage() {
+        return page;
+    }
+
+    // For callers that assemble pages themselves, such as the dealership fan-out
+    void setPage(List<Row> page) {
+        this.page = page;
+    }
+
+    public List<Row> first(ConnectionPool.Lease lease) throws SQLException {
+        page = load(lease, null, true);
+        return page;
+    }
+
+    // Returns false and keeps the current page when there is nothing further
+    public boolean next(ConnectionPool.Lease lease) throws SQLException {
+        if (page.isEmpty()) {
+            return false;
+        }
+        List<Row> rows = load(lease, page.get(page.size() - 1), true);
+        if (rows.isEmpty()) {
+            return false;
+        }
+        page = rows;
+        return true;
+    }
+
+    public boolean previous(ConnectionPool.Lease lease) throws SQLException {
+        if (page.isEmpty()) {
+            return false;
+        }
+        List<Row> rows = load(lease, page.get(0), false);
+        if (rows.isEmpty()) {
+            return false;
+        }
+        page = rows;
+        return true;
+    }
+
+    // The same walk over an in-memory snapshot, which sorts exactly as the queries do. No page cache is
+    // needed; a page is cut straight out of the snapshot's precomputed order.
+    public List<Row> first(InventorySnapshot snapshot) {
+        page = Collections.unmodifiableList(snapshot.page(sortKey, null, null, true, pageSize));
+        return page;
+    }
+
+    public boolean next(InventorySnapshot snapshot) {
+        return !page.isEmpty() && turn(snapshot, page.get(page.size() - 1), true);
+    }
+
+    public boolean previous(InventorySnapshot snapshot) {
+        return !page.isEmpty() && turn(snapshot, page.get(0), false);
+    }
+
+    private boolean turn(InventorySnapshot snapshot, Row cursor, boolean forward) {
+        List<Row> rows = snapshot.page(sortKey, cursor.id, cursor.sortValue, forward, pageSize);
+        if (rows.isEmpty()) {
+            return false;
+        }
+        page = Collections.unmodifiableList(rows);
+        return true;
+    }
+
+    // One page either side of any cursor, leaving this pager's own page alone
+    List<Row> fetch(ConnectionPool.Lease lease, Row cursor, boolean forward) throws SQLException {
+        return load(lease, cursor, forward);
+    }
+
+    // A null cursor means the first page. Rows come back in display order either way.
+    private List<Row> load(ConnectionPool.Lease lease, Row cursor, boolean forward) throws SQLException {
+        String key = null;
+        long generation = 0;
+        if (cache != null) {
+            // The cursor's value is part of the key: fetch() callers may seek from an id paired with any value
+            key = sortKey + "/" + pageSize + (cursor == null ? "/first"
+                    : (forward ? "/after/" : "/before/") + cursor.id + "/" + cursor.sortValue);
+            generation = cache.getGeneration();
+            List<Row> cached = cache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        List<Row> rows;
+        if (cursor == null) {
+            PreparedStatement stmt = lease.prepare(sortKey.firstQuery);
+            stmt.setInt(1, pageSize);
+            rows = fetch(stmt);
+        } else {
+            rows = seek(lease, cursor, forward);
+            if (!forward) {
+                Collections.reverse(rows);
+            }
+        }
+        rows = Collections.unmodifiableList(rows);
+        if (cache != null) {
+            cache.put(key, rows, generation);
+        }
+        return rows;
+    }
+
+    private List<Row> seek(ConnectionPool.Lease lease, Row cursor, boolean forward) throws SQLException {
+        if (sortKey == SortKey.ID) {
+            PreparedStatement stmt = lease.prepare(forward ? sortKey.afterQuery : sortKey.beforeQuery);
+            stmt.setInt(1, cursor.id);
+            stmt.setInt(2, pageSize);
+            return fetch(stmt);
+        }
+
+        List<Row> rows;
+        if (cursor.sortValue == null) {
+            PreparedStatement stmt = lease.prepare(forward ? sortKey.nullsAfterQuery : sortKey.nullsBeforeQuery);
+            stmt.setInt(1, cursor.id);
+            stmt.setInt(2, pageSize);
+            rows = fetch(stmt);
+            // Walking forward off the end of the NULL run continues into the valued rows
+            if (forward && rows.size() < pageSize) {
+                PreparedStatement valued = lease.prepare(sortKey.valuesFirstQuery);
+                valued.setInt(1, pageSize - rows.size());
+                rows.addAll(fetch(valued));
+            }
+        } else {
+            PreparedStatement stmt = lease.prepare(forward ? sortKey.afterQuery : sortKey.beforeQuery);
+            stmt.setObject(1, cursor.sortValue);
+            stmt.setInt(2, cursor.id);
+            stmt.setInt(3, pageSize);
+            rows = fetch(stmt);
+            // Walking backward off the start of the valued rows continues into the NULL run
+            if (!forward && rows.size() < pageSize) {
+                PreparedStatement nulls = lease.prepare(sortKey.nullsBeforeQuery);
+                nulls.setInt(1, Integer.MAX_VALUE);
+                nulls.setInt(2, pageSize - rows.size());
+                rows.addAll(fetch(nulls));
+            }
+        }
+        return rows;
+    }
+
+    private List<Row> fetch(PreparedStatement stmt) throws SQLException {
+        List<Row> rows = new ArrayList<>(pageSize);
+        try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                rows.add(new Row(rs, sortKey));
+            }
+        }
+        return rows;
+    }
+}
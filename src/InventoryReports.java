@@ -0,0 +1,360 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+// Management reports read from summary tables instead of scanning Vehicles and Appointments:
+// stock by make and category, prices and mileage by fuel type, and viewings per vehicle per week.
+// Triggers adjust the summaries in the same transaction as every insert, update and delete on the base
+// tables, whichever code path makes it (the service, imports, cascades, maintenance), so a report costs
+// one row per group. rebuild() recomputes them from scratch should they ever drift.
+//
+// NULL make, category and fuel type are summarised under '' because NULLs never match a primary key;
+// appointments whose date is not a real date have no week and are left out.
+public class InventoryReports {
+    private static final int DEMAND_LIMIT = 20;
+    private static final int WEEKS_SHOWN = 8;
+    // The Monday starting the week of a YYYY-MM-DD date ('weekday 0' moves forward to Sunday)
+    private static final String WEEK_OF = "date(%s, 'weekday 0', '-6 days')";
+
+    static final String[] SCHEMA = {
+            "CREATE TABLE IF NOT EXISTS StockSummary (make TEXT NOT NULL, category TEXT NOT NULL, " +
+                    "vehicles INTEGER NOT NULL, priced INTEGER NOT NULL, total_price INTEGER NOT NULL, " +
+                    "PRIMARY KEY (make, category)) WITHOUT ROWID",
+            "CREATE TABLE IF NOT EXISTS FuelSummary (fueltype TEXT NOT NULL PRIMARY KEY, vehicles INTEGER NOT NULL, " +
+                    "priced INTEGER NOT NULL, total_price INTEGER NOT NULL, " +
+                    "with_mileage INTEGER NOT NULL, total_mileage INTEGER NOT NULL) WITHOUT ROWID",
+            "CREATE TABLE IF NOT EXISTS AppointmentDemand (car_id INTEGER NOT NULL, week TEXT NOT NULL, " +
+                    "appointments INTEGER NOT NULL, PRIMARY KEY (car_id, week)) WITHOUT ROWID",
+            "CREATE INDEX IF NOT EXISTS idx_appointment_demand_week ON AppointmentDemand (week, appointments)",
+            "CREATE TRIGGER IF NOT EXISTS vehicles_summary_insert AFTER INSERT ON Vehicles BEGIN " +
+                    addVehicle("new") + " END",
+            "CREATE TRIGGER IF NOT EXISTS vehicles_summary_delete AFTER DELETE ON Vehicles BEGIN " +
+                    removeVehicle("old") + " END",
+            "CREATE TRIGGER IF NOT EXISTS vehicles_summary_update AFTER UPDATE OF make, category, price, mileage, fueltype " +
+                    "ON Vehicles BEGIN " + removeVehicle("old") + " " + addVehicle("new") + " END",
+            "CREATE TRIGGER IF NOT EXISTS appointments_summary_insert AFTER INSERT ON Appointments BEGIN " +
+                    addAppointment("new") + " END",
+            "CREATE TRIGGER IF NOT EXISTS appointments_summary_delete AFTER DELETE ON Appointments BEGIN " +
+                    removeAppointment("old") + " END",
+            "CREATE TRIGGER IF NOT EXISTS appointments_summary_update AFTER UPDATE OF car_id, date ON Appointments BEGIN " +
+                    removeAppointment("old") + " " + addAppointment("new") + " END"
+    };
+
+    static final String[] REBUILD = {
+            "DELETE FROM StockSummary",
+            "INSERT INTO StockSummary (make, category, vehicles, priced, total_price) " +
+                    "SELECT IFNULL(make, ''), IFNULL(category, ''), COUNT(*), COUNT(price), IFNULL(SUM(price), 0) " +
+                    "FROM Vehicles GROUP BY IFNULL(make, ''), IFNULL(category, '')",
+            "DELETE FROM FuelSummary",
+            "INSERT INTO FuelSummary (fueltype, vehicles, priced, total_price, with_mileage, total_mileage) " +
+                    "SELECT IFNULL(fueltype, ''), COUNT(*), COUNT(price), IFNULL(SUM(price), 0), " +
+                    "COUNT(mileage), IFNULL(SUM(mileage), 0) FROM Vehicles GROUP BY IFNULL(fueltype, '')",
+            "DELETE FROM AppointmentDemand",
+            "INSERT INTO AppointmentDemand (car_id, week, appointments) " +
+                    "SELECT car_id, " + String.format(WEEK_OF, "date") + " AS week, COUNT(*) FROM Appointments " +
+                    "WHERE car_id IS NOT NULL AND week IS NOT NULL GROUP BY car_id, week"
+    };
+
+    private static String addVehicle(String row) {
+        return "INSERT INTO StockSummary (make, category, vehicles, priced, total_price) " +
+               "VALUES (IFNULL(" + row + ".make, ''), IFNULL(" + row + ".category, ''), 1, " +
+               row + ".price IS NOT NULL, IFNULL(" + row + ".price, 0)) " +
+               "ON CONFLICT (make, category) DO UPDATE SET vehicles = vehicles + 1, " +
+               "priced = priced + excluded.priced, total_price = total_price + excluded.total_price; " +
+               "INSERT INTO FuelSummary (fueltype, vehicles, priced, total_price, with_mileage, total_mileage) " +
+               "VALUES (IFNULL(" + row + ".fueltype, ''), 1, " + row + ".price IS NOT NULL, IFNULL(" + row + ".price, 0), " +
+               row + ".mileage IS NOT NULL, IFNULL(" + row + ".mileage, 0)) " +
+               "ON CONFLICT (fueltype) DO UPDATE SET vehicles = vehicles + 1, priced = priced + excluded.priced, " +
+               "total_price = total_price + excluded.total_price, with_mileage = with_mileage + excluded.with_mileage, " +
+               "total_mileage = total_mileage + excluded.total_mileage;";
+    }
+
+    // Groups left with no vehicles are deleted so reports only list what is in stock
+    private static String removeVehicle(String row) {
+        String stock = "make = IFNULL(" + row + ".make, '') AND category = IFNULL(" + row + ".category, '')";
+        String fuel = "fueltype = IFNULL(" + row + ".fueltype, '')";
+        return "UPDATE StockSummary SET vehicles = vehicles - 1, priced = priced - (" + row + ".price IS NOT NULL), " +
+               "total_price = total_price - IFNULL(" + row + ".price, 0) WHERE " + stock + "; " +
+               "DELETE FROM StockSummary WHERE " + stock + " AND vehicles <= 0; " +
+               "UPDATE FuelSummary SET vehicles = vehicles - 1, priced = priced - (" + row + ".price IS NOT NULL), " +
+               "total_price = total_price - IFNULL(" + row + ".price, 0), " +
+               "with_mileage = with_mileage - (" + row + ".mileage IS NOT NULL), " +
+               "total_mileage = total_mileage - IFNULL(" + row + ".mileage, 0) WHERE " + fuel + "; " +
+               "DELETE FROM FuelSummary WHERE " + fuel + " AND vehicles <= 0;";
+    }
+
+    private static String addAppointment(String row) {
+        return "INSERT INTO AppointmentDemand (car_id, week, appointments) " +
+               "SELECT " + row + ".car_id, week, 1 FROM (SELECT " + String.format(WEEK_OF, row + ".date") + " AS week) " +
+               "WHERE week IS NOT NULL AND " + row + ".car_id IS NOT NULL " +
+               "ON CONFLICT (car_id, week) DO UPDATE SET appointments = appointments + 1;";
+    }
+
+    private static String removeAppointment(String row) {
+        String match = "car_id = " + row + ".car_id AND week = " + String.format(WEEK_OF, row + ".date");
+        return "UPDATE AppointmentDemand SET appointments = appointments - 1 WHERE " + match + "; " +
+               "DELETE FROM AppointmentDemand WHERE " + match + " AND appointments <= 0;";
+    }
+
+    public static class StockGroup {
+        private final String make;
+        private final String category;
+        private final int vehicles;
+        private final long totalPrice;
+        private final int unpriced;
+
+        private StockGroup(ResultSet rs) throws SQLException {
+            this.make = rs.getString("make");
+            this.category = rs.getString("category");
+            this.vehicles = rs.getInt("vehicles");
+            this.totalPrice = rs.getLong("total_price");
+            this.unpriced = rs.getInt("vehicles") - rs.getInt("priced");
+        }
+
+        // Empty when the vehicles have no make
+        public String getMake() {
+            return make;
+        }
+
+        public String getCategory() {
+            return category;
+        }
+
+        public int getVehicles() {
+            return vehicles;
+        }
+
+        // Sum of the asking prices of the vehicles that have one
+        public long getTotalPrice() {
+            return totalPrice;
+        }
+
+        public int getUnpriced() {
+            return unpriced;
+        }
+    }
+
+    public static class FuelGroup {
+        private final String fuelType;
+        private final int vehicles;
+        private final Long averagePrice;
+        private final Long averageMileage;
+
+        private FuelGroup(ResultSet rs) throws SQLException {
+            this.fuelType = rs.getString("fueltype");
+            this.vehicles = rs.getInt("vehicles");
+            this.averagePrice = average(rs.getLong("total_price"), rs.getInt("priced"));
+            this.averageMileage = average(rs.getLong("total_mileage"), rs.getInt("with_mileage"));
+        }
+
+        private static Long average(long total, int count) {
+            return count == 0 ? null : Math.round((double) total / count);
+        }
+
+        public String getFuelType() {
+            return fuelType;
+        }
+
+        public int getVehicles() {
+            return vehicles;
+        }
+
+        // Null when none of the vehicles has a price
+        public Long getAveragePrice() {
+            return averagePrice;
+        }
+
+        public Long getAverageMileage() {
+            return averageMileage;
+        }
+    }
+
+    public static class Demand {
+        private final int vehicleId;
+        private final String make;
+        private final String model;
+        private final int appointments;
+
+        private Demand(ResultSet rs) throws SQLException {
+            this.vehicleId = rs.getInt("car_id");
+            this.make = rs.getString("make");
+            this.model = rs.getString("model");
+            this.appointments = rs.getInt("appointments");
+        }
+
+        public int getVehicleId() {
+            return vehicleId;
+        }
+
+        // Null for appointments left behind by a vehicle deleted before deletes cascaded
+        public String getMake() {
+            return make;
+        }
+
+        public String getModel() {
+            return model;
+        }
+
+        public int getAppointments() {
+            return appointments;
+        }
+    }
+
+    public static class Week {
+        private final LocalDate start;
+        private final int appointments;
+        private final int vehicles;
+
+        private Week(ResultSet rs) throws SQLException {
+            this.start = LocalDate.parse(rs.getString("week"));
+            this.appointments = rs.getInt("appointments");
+            this.vehicles = rs.getInt("vehicles");
+        }
+
+        // Always a Monday
+        public LocalDate getStart() {
+            return start;
+        }
+
+        public int getAppointments() {
+            return appointments;
+        }
+
+        // Distinct vehicles viewed that week
+        public int getVehicles() {
+            return vehicles;
+        }
+    }
+
+    public static class Report {
+        private final LocalDate week;
+        private final List<StockGroup> stock;
+        private final List<FuelGroup> fuel;
+        private final List<Demand> demand;
+        private final List<Week> weeks;
+
+        private Report(LocalDate week, List<StockGroup> stock, List<FuelGroup> fuel, List<Demand> demand, List<Week> weeks) {
+            this.week = week;
+            this.stock = stock;
+            this.fuel = fuel;
+            this.demand = demand;
+            this.weeks = weeks;
+        }
+
+        // The Monday of the week that getDemand() covers
+        public LocalDate getWeek() {
+            return week;
+        }
+
+        // Highest stock value first
+        public List<StockGroup> getStock() {
+            return stock;
+        }
+
+        public List<FuelGroup> getFuel() {
+            return fuel;
+        }
+
+        // The most viewed vehicles that week
+        public List<Demand> getDemand() {
+            return demand;
+        }
+
+        // Totals for the surrounding weeks, earliest first
+        public List<Week> getWeeks() {
+            return weeks;
+        }
+    }
+
+    public static LocalDate weekOf(LocalDate date) {
+        return date.minusDays(date.getDayOfWeek().getValue() - DayOfWeek.MONDAY.getValue());
+    }
+
+    // Every report, with demand for the week containing the given day. The reads share one transaction,
+    // so the figures agree with each other.
+    public static Report read(ConnectionPool.Lease lease, LocalDate day) throws SQLException {
+        LocalDate week = weekOf(day);
+        Connection conn = lease.connection();
+        conn.setAutoCommit(false);
+        try {
+            Report report = new Report(week, stock(lease), fuel(lease), demand(lease, week), weeks(lease, week));
+            conn.commit();
+            return report;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    private static List<StockGroup> stock(ConnectionPool.Lease lease) throws SQLException {
+        List<StockGroup> groups = new ArrayList<>();
+        try (ResultSet rs = lease.prepare("SELECT * FROM StockSummary ORDER BY total_price DESC, make, category").executeQuery()) {
+            while (rs.next()) {
+                groups.add(new StockGroup(rs));
+            }
+        }
+        return groups;
+    }
+
+    private static List<FuelGroup> fuel(ConnectionPool.Lease lease) throws SQLException {
+        List<FuelGroup> groups = new ArrayList<>();
+        try (ResultSet rs = lease.prepare("SELECT * FROM FuelSummary ORDER BY vehicles DESC, fueltype").executeQuery()) {
+            while (rs.next()) {
+                groups.add(new FuelGroup(rs));
+            }
+        }
+        return groups;
+    }
+
+    // The most viewed vehicles in the week starting on the given Monday
+    private static List<Demand> demand(ConnectionPool.Lease lease, LocalDate week) throws SQLException {
+        PreparedStatement stmt = lease.prepare("SELECT d.car_id, v.make, v.model, d.appointments FROM AppointmentDemand d " +
+                                               "LEFT JOIN Vehicles v ON v.id = d.car_id WHERE d.week = ? " +
+                                               "ORDER BY d.appointments DESC, d.car_id LIMIT " + DEMAND_LIMIT);
+        stmt.setString(1, week.toString());
+        List<Demand> demand = new ArrayList<>();
+        try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                demand.add(new Demand(rs));
+            }
+        }
+        return demand;
+    }
+
+    // Totals for the weeks on either side of the given Monday, earliest first
+    private static List<Week> weeks(ConnectionPool.Lease lease, LocalDate week) throws SQLException {
+        PreparedStatement stmt = lease.prepare("SELECT week, SUM(appointments) AS appointments, COUNT(*) AS vehicles " +
+                                               "FROM AppointmentDemand WHERE week BETWEEN ? AND ? GROUP BY week ORDER BY week");
+        stmt.setString(1, week.minusWeeks(WEEKS_SHOWN / 2).toString());
+        stmt.setString(2, week.plusWeeks(WEEKS_SHOWN / 2).toString());
+        List<Week> weeks = new ArrayList<>();
+        try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                weeks.add(new Week(rs));
+            }
+        }
+        return weeks;
+    }
+
+    // Recomputes every summary in one transaction; readers keep seeing the old totals until it commits
+    public static void rebuild(ConnectionPool.Lease lease) throws SQLException {
+        Connection conn = lease.connection();
+        conn.setAutoCommit(false);
+        try (Statement stmt = conn.createStatement()) {
+            for (String sql : REBUILD) {
+                stmt.execute(sql);
+            }
+            conn.commit();
+        } catch (SQLException | RuntimeException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+}
@@ -0,0 +1,906 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+// The data operations behind the console menus and the HTTP API, so both go through the same SQL.
+// Each method borrows a connection for just the statements it runs; nothing here prompts or prints.
+// Vehicle details and inventory pages are read through caches; every write to Vehicles must go through
+// vehicleChanged() so neither cache serves a row that no longer matches the table.
+// Once enableSnapshot() is called, listings and filtered searches are answered from an in-memory
+// InventorySnapshot instead. Readers take whatever snapshot is current without locking; vehicleChanged()
+// re-reads the changed row and publishes a new snapshot in its place.
+public class InventoryService {
+    private static final int VEHICLE_CACHE_SIZE = 10_000;
+    private static final long VEHICLE_CACHE_TTL_MINUTES = 10;
+    private static final int PAGE_CACHE_SIZE = 2_000;
+    private static final long PAGE_CACHE_TTL_SECONDS = 60;
+
+    static final String LOGIN_QUERY = "SELECT u.id, s.saltpw, a.id AS admin_id FROM Users u " +
+                                              "LEFT JOIN Saltpw s ON u.id = s.id " +
+                                              "LEFT JOIN Admin a ON u.id = a.id " +
+                                              "WHERE u.email = ?";
+    private static final String APPOINTMENTS_QUERY = "SELECT a.id, a.date, a.slot_time, v.make, v.model, u.email " +
+                                                     "FROM Appointments a " +
+                                                     "JOIN Vehicles v ON a.car_id = v.id " +
+                                                     "JOIN Users u ON a.user_id = u.id ";
+    private static final String APPOINTMENT_ORDER = "ORDER BY a.date, a.slot_time, a.id";
+
+    // Dependent rows first, the owning row last; each list runs in one transaction
+    private static final String[] USER_CASCADE = {
+            "DELETE FROM Appointments WHERE user_id = ?",
+            "DELETE FROM Saltpw WHERE id = ?",
+            "DELETE FROM Salts WHERE id = ?",
+            "DELETE FROM Admin WHERE id = ?",
+            "DELETE FROM Users WHERE id = ?"
+    };
+    private static final String[] VEHICLE_CASCADE = {
+            "DELETE FROM Appointments WHERE car_id = ?",
+            "DELETE FROM Vehicles WHERE id = ?"
+    };
+
+    private final ConnectionPool pool;
+    private final PasswordHasher hasher;
+    private final WriteQueue writes;
+    private final AppointmentScheduler scheduler;
+    private final DatabaseMaintenance maintenance;
+    // Writes, the scheduler, maintenance and both caches are null in a read-only service
+    private final boolean readOnly;
+    private final BoundedCache<Integer, Vehicle> vehicleCache;
+    private final BoundedCache<String, List<InventoryPager.Row>> pageCache;
+    // Null until enableSnapshot(); snapshotLock orders the publishers so none overwrites a newer snapshot
+    private final AtomicReference<InventorySnapshot> snapshot = new AtomicReference<>();
+    private final Object snapshotLock = new Object();
+    private volatile boolean snapshotEnabled;
+    // Built on the first similar-vehicles lookup; kept current like the snapshot, under its own lock
+    private final AtomicReference<SimilarVehicles> similarIndex = new AtomicReference<>();
+    private final Object similarLock = new Object();
+    // Read-only services only: the change log sequence the index was loaded at, guarded by similarLock
+    private long similarSequence;
+    // Null until enablePhotos()
+    private volatile PhotoStore photos;
+
+    public InventoryService(ConnectionPool pool, PasswordHasher hasher) throws SQLException {
+        this(pool, hasher, false);
+    }
+
+    // A read-only service reads a database that another process may be writing, so it keeps nothing that
+    // only its own writes would invalidate: no caches, no booking index, no write queue. Only the read
+    // methods may be called on it.
+    InventoryService(ConnectionPool pool, PasswordHasher hasher, boolean readOnly) throws SQLException {
+        this.pool = pool;
+        this.hasher = hasher;
+        this.readOnly = readOnly;
+        if (readOnly) {
+            this.writes = null;
+            this.scheduler = null;
+            this.maintenance = null;
+            this.vehicleCache = null;
+            this.pageCache = null;
+        } else {
+            this.writes = new WriteQueue(pool);
+            this.scheduler = new AppointmentScheduler(pool, writes);
+            this.maintenance = new DatabaseMaintenance(pool, scheduler);
+            this.vehicleCache = new BoundedCache<>("Vehicle details", VEHICLE_CACHE_SIZE, VEHICLE_CACHE_TTL_MINUTES, TimeUnit.MINUTES);
+            this.pageCache = new BoundedCache<>("Inventory pages", PAGE_CACHE_SIZE, PAGE_CACHE_TTL_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    public ConnectionPool getPool() {
+        return pool;
+    }
+
+    public static class LoginResult {
+        public enum Status {
+            SUCCESS, UNKNOWN_USER, WRONG_PASSWORD
+        }
+
+        private final Status status;
+        private final int userId;
+        private final boolean admin;
+
+        private LoginResult(Status status, int userId, boolean admin) {
+            this.status = status;
+            this.userId = userId;
+            this.admin = admin;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        public int getUserId() {
+            return userId;
+        }
+
+        public boolean isAdmin() {
+            return admin;
+        }
+
+        LoginResult withUserId(int userId) {
+            return new LoginResult(status, userId, admin);
+        }
+    }
+
+    public static class User {
+        private final int id;
+        private final String email;
+
+        private User(int id, String email) {
+            this.id = id;
+            this.email = email;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getEmail() {
+            return email;
+        }
+
+        User withId(int id) {
+            return new User(id, email);
+        }
+    }
+
+    public static class Appointment {
+        private final int id;
+        private final String date;
+        private final String time;
+        private final String make;
+        private final String model;
+        private final String email;
+
+        private Appointment(int id, String date, String time, String make, String model, String email) {
+            this.id = id;
+            this.date = date;
+            this.time = time;
+            this.make = make;
+            this.model = model;
+            this.email = email;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getDate() {
+            return date;
+        }
+
+        // Null for appointments booked before time slots were introduced
+        public String getTime() {
+            return time;
+        }
+
+        public String getMake() {
+            return make;
+        }
+
+        public String getModel() {
+            return model;
+        }
+
+        public String getEmail() {
+            return email;
+        }
+
+        Appointment withId(int id) {
+            return new Appointment(id, date, time, make, model, email);
+        }
+    }
+
+    public LoginResult login(String email, String password) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            int userId;
+            boolean admin;
+            String hashedPassword;
+            // The connection goes back to the pool before bcrypt runs
+            try (ConnectionPool.Lease lease = pool.reader()) {
+                PreparedStatement stmt = lease.prepare(LOGIN_QUERY);
+                stmt.setString(1, email);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (!rs.next()) {
+                        return new LoginResult(LoginResult.Status.UNKNOWN_USER, -1, false);
+                    }
+                    userId = rs.getInt("id");
+                    hashedPassword = rs.getString("saltpw");
+                    admin = rs.getInt("admin_id") != 0;
+                }
+            }
+
+            if (!hasher.verify(password, hashedPassword)) {
+                return new LoginResult(LoginResult.Status.WRONG_PASSWORD, -1, false);
+            }
+            if (!readOnly && hasher.needsRehash(hashedPassword)) {
+                hasher.rehashLater(pool, userId, password, hashedPassword);
+            }
+            return new LoginResult(LoginResult.Status.SUCCESS, userId, admin);
+        } finally {
+            Metrics.record(Metrics.Operation.LOGIN, start, 1, 0);
+        }
+    }
+
+    // Returns the new user's id, or -1 if nothing was inserted
+    public int register(String email, String firstName, String lastName, String password) throws SQLException {
+        long start = System.nanoTime();
+        int written = 0;
+        try {
+            // Hash before borrowing the writer so bcrypt does not hold the write lock
+            int userId = insertUser(email, firstName, lastName, hasher.hash(password));
+            written = userId > 0 ? 2 : 0;
+            return userId;
+        } finally {
+            Metrics.record(Metrics.Operation.REGISTER, start, 0, written);
+        }
+    }
+
+    // Both rows go in together through the write queue, so a user never exists without a password.
+    // Returns the new user's id, or -1 if nothing was inserted.
+    int insertUser(String email, String firstName, String lastName, String hashedPassword) throws SQLException {
+        return writes.execute(lease -> {
+            PreparedStatement userStmt = lease.prepareReturningKeys("INSERT INTO Users (email, firstname, lastname) VALUES (?, ?, ?)");
+            userStmt.setString(1, email);
+            userStmt.setString(2, firstName);
+            userStmt.setString(3, lastName);
+            if (userStmt.executeUpdate() == 0) {
+                return -1;
+            }
+
+            int id;
+            try (ResultSet generatedKeys = userStmt.getGeneratedKeys()) {
+                if (!generatedKeys.next()) {
+                    return -1;
+                }
+                id = generatedKeys.getInt(1);
+            }
+
+            PreparedStatement saltpwStmt = lease.prepare("INSERT INTO Saltpw (id, saltpw) VALUES (?, ?)");
+            saltpwStmt.setInt(1, id);
+            saltpwStmt.setString(2, hashedPassword);
+            saltpwStmt.executeUpdate();
+            return id;
+        });
+    }
+
+    public List<BoundedCache.Stats> getCacheStats() {
+        List<BoundedCache.Stats> stats = new ArrayList<>();
+        stats.add(vehicleCache.getStats());
+        stats.add(pageCache.getStats());
+        return stats;
+    }
+
+    // Any id may be passed; page contents depend on every row, so all cached pages go
+    private void vehicleChanged(int vehicleId) {
+        vehicleCache.invalidate(vehicleId);
+        pageCache.invalidateAll();
+        refreshSnapshot(vehicleId);
+        refreshSimilarIndex(vehicleId);
+    }
+
+    // Loads Vehicles into memory and serves listings, filtered searches and facet counts from it from now on
+    public void enableSnapshot() throws SQLException {
+        snapshotEnabled = true;
+        reloadSnapshot();
+    }
+
+    // Null while the snapshot is not in use
+    public InventorySnapshot getSnapshot() {
+        return snapshot.get();
+    }
+
+    private void reloadSnapshot() throws SQLException {
+        synchronized (snapshotLock) {
+            try (ConnectionPool.Lease lease = pool.reader()) {
+                snapshot.set(InventorySnapshot.load(lease));
+            } catch (SQLException e) {
+                snapshot.set(null);
+                throw e;
+            }
+        }
+    }
+
+    // The row is read back after the write has committed and the result published under the lock, so
+    // whichever of two racing writers publishes last has also read last and the newest state wins
+    private void refreshSnapshot(int vehicleId) {
+        synchronized (snapshotLock) {
+            InventorySnapshot current = snapshot.get();
+            if (current == null) {
+                return;
+            }
+            try (ConnectionPool.Lease lease = pool.reader()) {
+                PreparedStatement stmt = lease.prepare(InventorySnapshot.COLUMNS + "WHERE id = ?");
+                stmt.setInt(1, vehicleId);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    snapshot.set(rs.next() ? current.with(rs) : current.without(vehicleId));
+                }
+            } catch (SQLException e) {
+                // Better slower than stale: reads go back to SQLite until the next import reloads it
+                snapshot.set(null);
+                System.out.println("An error occurred while updating the inventory snapshot: " + e.getMessage());
+            }
+        }
+    }
+
+    // Up to count vehicles most like the given one, closest first; with cheaper, only ones priced below it.
+    // Null when there is no vehicle with that id.
+    public List<InventoryPager.Row> similarVehicles(int vehicleId, int count, boolean cheaper) throws SQLException {
+        long start = System.nanoTime();
+        List<InventoryPager.Row> rows = null;
+        try {
+            SimilarVehicles index = similarIndex.get();
+            if (index == null || readOnly) {
+                index = loadSimilarIndex();
+            }
+            int[] ids = index.nearest(vehicleId, count, cheaper);
+            if (ids == null) {
+                return null;
+            }
+            rows = new ArrayList<>(ids.length);
+            if (ids.length == 0) {
+                return rows;
+            }
+            StringBuilder placeholders = new StringBuilder();
+            for (int i = 0; i < ids.length; i++) {
+                placeholders.append(i == 0 ? "?" : ", ?");
+            }
+            Map<Integer, InventoryPager.Row> byId = new HashMap<>();
+            try (ConnectionPool.Lease lease = pool.reader()) {
+                PreparedStatement stmt = lease.prepare(InventoryPager.COLUMNS + "WHERE id IN (" + placeholders + ")");
+                for (int i = 0; i < ids.length; i++) {
+                    stmt.setInt(i + 1, ids[i]);
+                }
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        InventoryPager.Row row = new InventoryPager.Row(rs, InventoryPager.SortKey.ID);
+                        byId.put(row.getId(), row);
+                    }
+                }
+            }
+            for (int id : ids) {
+                InventoryPager.Row row = byId.get(id);
+                if (row != null) {
+                    rows.add(row);
+                }
+            }
+            return rows;
+        } finally {
+            Metrics.record(Metrics.Operation.SIMILAR_VEHICLES, start, rows == null ? 0 : rows.size(), 0);
+        }
+    }
+
+    // Null until the first lookup
+    public SimilarVehicles getSimilarIndex() {
+        return similarIndex.get();
+    }
+
+    // A read-only service is not told about changes, so it keeps its index only while the change log has
+    // not moved
+    private SimilarVehicles loadSimilarIndex() throws SQLException {
+        synchronized (similarLock) {
+            SimilarVehicles index = similarIndex.get();
+            if (index == null || readOnly) {
+                try (ConnectionPool.Lease lease = pool.reader()) {
+                    long sequence = readOnly ? ChangeFeed.latest(lease) : 0;
+                    if (index == null || sequence != similarSequence) {
+                        index = SimilarVehicles.load(lease);
+                        similarSequence = sequence;
+                    }
+                }
+                similarIndex.set(index);
+            }
+            return index;
+        }
+    }
+
+    // As refreshSnapshot(); on failure the index is dropped and rebuilt by the next lookup
+    private void refreshSimilarIndex(int vehicleId) {
+        synchronized (similarLock) {
+            SimilarVehicles current = similarIndex.get();
+            if (current == null) {
+                return;
+            }
+            try (ConnectionPool.Lease lease = pool.reader()) {
+                PreparedStatement stmt = lease.prepare(SimilarVehicles.COLUMNS + "WHERE id = ?");
+                stmt.setInt(1, vehicleId);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    similarIndex.set(rs.next() ? current.with(rs) : current.without(vehicleId));
+                }
+            } catch (SQLException e) {
+                similarIndex.set(null);
+                System.out.println("An error occurred while updating the similar-vehicles index: " + e.getMessage());
+            }
+        }
+    }
+
+    // Serves photos from the store; without one, photo lists are empty and uploads fail
+    public void enablePhotos(PhotoStore store) {
+        photos = store;
+    }
+
+    public PhotoStore getPhotoStore() {
+        return photos;
+    }
+
+    // Null when there is no such vehicle
+    public PhotoStore.Photo addPhoto(int vehicleId, byte[] image) throws SQLException, IOException {
+        PhotoStore store = photos;
+        if (store == null) {
+            throw new IllegalStateException("Photos are not enabled.");
+        }
+        if (getVehicle(vehicleId) == null) {
+            return null;
+        }
+        return store.add(vehicleId, image);
+    }
+
+    // The vehicle's photos in upload order; the store's index answers without touching the database
+    public List<PhotoStore.Photo> listPhotos(int vehicleId) {
+        PhotoStore store = photos;
+        return store == null ? Collections.<PhotoStore.Photo>emptyList() : store.list(vehicleId);
+    }
+
+    // Null when there is no such photo; the caller must close what it gets
+    public PhotoStore.Content openPhoto(int photoId, boolean thumbnail) {
+        PhotoStore store = photos;
+        return store == null ? null : store.open(photoId, thumbnail);
+    }
+
+    public boolean deletePhoto(int photoId) {
+        PhotoStore store = photos;
+        return store != null && store.delete(photoId);
+    }
+
+    // Returns the bytes reclaimed, or 0 when photos are not enabled
+    public long compactPhotos() throws IOException {
+        PhotoStore store = photos;
+        return store == null ? 0 : store.compact();
+    }
+
+    void deletePhotos(int vehicleId) {
+        PhotoStore store = photos;
+        if (store != null) {
+            store.deleteVehicle(vehicleId);
+        }
+    }
+
+    // Management reports, with appointment demand for the week containing the given day
+    public InventoryReports.Report getReports(LocalDate day) throws SQLException {
+        long start = System.nanoTime();
+        try (ConnectionPool.Lease lease = pool.reader()) {
+            return InventoryReports.read(lease, day);
+        } finally {
+            Metrics.record(Metrics.Operation.REPORTS, start);
+        }
+    }
+
+    // Recomputes the report summaries from Vehicles and Appointments
+    public void rebuildReports() throws SQLException {
+        long start = System.nanoTime();
+        try (ConnectionPool.Lease lease = pool.writer()) {
+            InventoryReports.rebuild(lease);
+        } finally {
+            Metrics.record(Metrics.Operation.REPORTS, start);
+        }
+    }
+
+    // Up to limit changes to vehicles, users and appointments after the given sequence number, oldest first
+    public ChangeFeed.Page changesSince(long sequence, int limit) throws SQLException {
+        long start = System.nanoTime();
+        int read = 0;
+        try (ConnectionPool.Lease lease = pool.reader()) {
+            ChangeFeed.Page page = ChangeFeed.since(lease, sequence, limit);
+            read = page.getChanges().size();
+            return page;
+        } finally {
+            Metrics.record(Metrics.Operation.CHANGE_FEED, start, read, 0);
+        }
+    }
+
+    // Starts purging orphans, compacting the change log, vacuuming and checkpointing in the background
+    // whenever the database is idle, and compacting the photo store
+    public void startMaintenance() {
+        maintenance.start();
+        PhotoStore store = photos;
+        if (store != null) {
+            store.start();
+        }
+    }
+
+    public DatabaseMaintenance.Report runMaintenance() {
+        return maintenance.run();
+    }
+
+    public DatabaseMaintenance.Report getMaintenanceReport() {
+        return maintenance.getReport();
+    }
+
+    // Blocks writes for as long as the rebuild takes; see DatabaseMaintenance.enableIncrementalVacuum()
+    public boolean enableIncrementalVacuum() throws SQLException {
+        return maintenance.enableIncrementalVacuum();
+    }
+
+    public InventoryPager newPager(InventoryPager.SortKey sortKey, int pageSize) {
+        return pageCache == null ? new InventoryPager(sortKey, pageSize) : new InventoryPager(sortKey, pageSize, pageCache);
+    }
+
+    public List<InventoryPager.Row> firstPage(InventoryPager pager) throws SQLException {
+        long start = System.nanoTime();
+        List<InventoryPager.Row> rows = null;
+        try {
+            InventorySnapshot current = snapshot.get();
+            if (current != null) {
+                rows = pager.first(current);
+                return rows;
+            }
+            try (ConnectionPool.Lease lease = pool.reader()) {
+                rows = pager.first(lease);
+                return rows;
+            }
+        } finally {
+            Metrics.record(Metrics.Operation.INVENTORY_PAGE, start, rows == null ? 0 : rows.size(), 0);
+        }
+    }
+
+    public boolean turnPage(InventoryPager pager, boolean forward) throws SQLException {
+        long start = System.nanoTime();
+        boolean turned = false;
+        try {
+            InventorySnapshot current = snapshot.get();
+            if (current != null) {
+                turned = forward ? pager.next(current) : pager.previous(current);
+                return turned;
+            }
+            try (ConnectionPool.Lease lease = pool.reader()) {
+                turned = forward ? pager.next(lease) : pager.previous(lease);
+                return turned;
+            }
+        } finally {
+            Metrics.record(Metrics.Operation.INVENTORY_PAGE, start, turned ? pager.getPage().size() : 0, 0);
+        }
+    }
+
+    public List<InventoryPager.Row> search(VehicleSearch.Criteria criteria, int afterId, int limit) throws SQLException {
+        long start = System.nanoTime();
+        List<InventoryPager.Row> rows = null;
+        try {
+            // Keywords need the full-text index, so those searches always go to SQLite
+            InventorySnapshot current = snapshot.get();
+            if (current != null && !criteria.hasText()) {
+                rows = VehicleSearch.search(current, criteria, afterId, limit);
+                return rows;
+            }
+            try (ConnectionPool.Lease lease = pool.reader()) {
+                rows = VehicleSearch.search(lease, criteria, afterId, limit);
+                return rows;
+            }
+        } finally {
+            Metrics.record(Metrics.Operation.SEARCH, start, rows == null ? 0 : rows.size(), 0);
+        }
+    }
+
+    // Keyword search ranked by relevance; criteria must have text
+    public List<InventoryPager.Row> rankedSearch(VehicleSearch.Criteria criteria, int offset, int limit) throws SQLException {
+        long start = System.nanoTime();
+        List<InventoryPager.Row> rows = null;
+        try (ConnectionPool.Lease lease = pool.reader()) {
+            rows = VehicleSearch.rankedSearch(lease, criteria, offset, limit);
+            return rows;
+        } finally {
+            Metrics.record(Metrics.Operation.SEARCH, start, rows == null ? 0 : rows.size(), 0);
+        }
+    }
+
+    public int countMatches(VehicleSearch.Criteria criteria) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            InventorySnapshot current = snapshot.get();
+            if (current != null && !criteria.hasText()) {
+                return VehicleSearch.count(current, criteria);
+            }
+            try (ConnectionPool.Lease lease = pool.reader()) {
+                return VehicleSearch.count(lease, criteria);
+            }
+        } finally {
+            Metrics.record(Metrics.Operation.SEARCH, start);
+        }
+    }
+
+    public Map<VehicleSearch.Facet, Map<String, Integer>> facets(VehicleSearch.Criteria criteria) throws SQLException {
+        long start = System.nanoTime();
+        Map<VehicleSearch.Facet, Map<String, Integer>> facets = new LinkedHashMap<>();
+        try {
+            // One snapshot for every facet, so the counts agree with each other
+            InventorySnapshot current = snapshot.get();
+            if (current != null && !criteria.hasText()) {
+                for (VehicleSearch.Facet facet : VehicleSearch.Facet.values()) {
+                    facets.put(facet, VehicleSearch.facetCounts(current, criteria, facet));
+                }
+                return facets;
+            }
+            try (ConnectionPool.Lease lease = pool.reader()) {
+                for (VehicleSearch.Facet facet : VehicleSearch.Facet.values()) {
+                    facets.put(facet, VehicleSearch.facetCounts(lease, criteria, facet));
+                }
+            }
+        } finally {
+            Metrics.record(Metrics.Operation.SEARCH, start);
+        }
+        return facets;
+    }
+
+    // Returns null when there is no vehicle with that id. The returned object may be shared with other
+    // callers through the cache, so it must not be modified.
+    public Vehicle getVehicle(int vehicleId) throws SQLException {
+        long start = System.nanoTime();
+        int read = 0;
+        try {
+            long generation = readOnly ? 0 : vehicleCache.getGeneration();
+            Vehicle vehicle = readOnly ? null : vehicleCache.get(vehicleId);
+            if (vehicle != null) {
+                return vehicle;
+            }
+
+            try (ConnectionPool.Lease lease = pool.reader()) {
+                PreparedStatement stmt = lease.prepare("SELECT * FROM Vehicles WHERE id = ?");
+                stmt.setInt(1, vehicleId);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (!rs.next()) {
+                        return null;
+                    }
+                    vehicle = Vehicle.read(rs);
+                    read = 1;
+                }
+            }
+            if (!readOnly) {
+                vehicleCache.put(vehicleId, vehicle, generation);
+            }
+            return vehicle;
+        } finally {
+            Metrics.record(Metrics.Operation.VEHICLE_DETAILS, start, read, 0);
+        }
+    }
+
+    // Returns the new appointment's id
+    public int makeAppointment(int userId, int vehicleId, AppointmentScheduler.Slot slot)
+            throws SQLException, AppointmentScheduler.BookingException {
+        return makeAppointment(lease -> userId, vehicleId, slot);
+    }
+
+    // With the user found inside the booking's transaction; see AppointmentScheduler.book()
+    int makeAppointment(WriteQueue.Write<Integer, SQLException> user, int vehicleId, AppointmentScheduler.Slot slot)
+            throws SQLException, AppointmentScheduler.BookingException {
+        long start = System.nanoTime();
+        int written = 0;
+        try {
+            int id = scheduler.book(user, vehicleId, slot);
+            written = 1;
+            return id;
+        } finally {
+            Metrics.record(Metrics.Operation.BOOK_APPOINTMENT, start, 0, written);
+        }
+    }
+
+    public List<AppointmentScheduler.Slot> freeSlots(int vehicleId, LocalDate date) throws SQLException {
+        return bookings().freeSlots(vehicleId, date);
+    }
+
+    // Null when the vehicle has no free slot within the booking horizon
+    public AppointmentScheduler.Slot nextFreeSlot(int vehicleId) throws SQLException {
+        return bookings().nextFreeSlot(vehicleId);
+    }
+
+    // A read-only service loads the bookings afresh for every question; they span the booking horizon only
+    private AppointmentScheduler bookings() throws SQLException {
+        return readOnly ? new AppointmentScheduler(pool, null) : scheduler;
+    }
+
+    // For a writer whose database may have been written by another process since it last looked
+    void reloadBookings() throws SQLException {
+        scheduler.reload();
+    }
+
+    // Returns the new vehicle's id, or -1 if nothing was inserted
+    public int addVehicle(Vehicle vehicle) throws SQLException {
+        long start = System.nanoTime();
+        int written = 0;
+        try {
+            int id = -1;
+            try (ConnectionPool.Lease lease = pool.writer()) {
+                PreparedStatement stmt = lease.prepareReturningKeys(VehicleImporter.INSERT_QUERY);
+                vehicle.bindInsert(stmt);
+                written = stmt.executeUpdate();
+                if (written == 0) {
+                    return -1;
+                }
+                try (ResultSet generatedKeys = stmt.getGeneratedKeys()) {
+                    if (generatedKeys.next()) {
+                        id = generatedKeys.getInt(1);
+                    }
+                }
+            }
+            if (id < 0) {
+                return -1;
+            }
+            // After the writer is returned, so other writers do not wait while the snapshot is copied
+            vehicle.setId(id);
+            vehicleChanged(id);
+            return id;
+        } finally {
+            Metrics.record(Metrics.Operation.ADD_VEHICLE, start, 0, written);
+        }
+    }
+
+    // Also deletes the vehicle's appointments and marks its photos deleted
+    public boolean deleteVehicle(int vehicleId) throws SQLException {
+        boolean deleted = deleteVehicleRows(vehicleId);
+        deletePhotos(vehicleId);
+        return deleted;
+    }
+
+    // The vehicle and its appointments only; ShardedInventoryService marks photos under its own ids
+    boolean deleteVehicleRows(int vehicleId) throws SQLException {
+        try {
+            return cascadeDelete(Metrics.Operation.DELETE_VEHICLE, "SELECT id FROM Appointments WHERE car_id = ?",
+                    VEHICLE_CASCADE, vehicleId);
+        } finally {
+            vehicleChanged(vehicleId);
+        }
+    }
+
+    // Runs the deletes in one transaction and returns whether the last one removed a row.
+    // The appointments they remove are looked up first so the scheduler can release their slots.
+    private boolean cascadeDelete(Metrics.Operation operation, String appointmentsQuery, String[] deletes, int id)
+            throws SQLException {
+        long start = System.nanoTime();
+        int written = 0;
+        boolean deleted;
+        List<Integer> appointmentIds = new ArrayList<>();
+        try (ConnectionPool.Lease lease = pool.writer()) {
+            Connection conn = lease.connection();
+            conn.setAutoCommit(false);
+            try {
+                PreparedStatement appointments = lease.prepare(appointmentsQuery);
+                appointments.setInt(1, id);
+                try (ResultSet rs = appointments.executeQuery()) {
+                    while (rs.next()) {
+                        appointmentIds.add(rs.getInt(1));
+                    }
+                }
+                int count = 0;
+                for (String sql : deletes) {
+                    PreparedStatement stmt = lease.prepare(sql);
+                    stmt.setInt(1, id);
+                    count = stmt.executeUpdate();
+                    written += count;
+                }
+                deleted = count > 0;
+                conn.commit();
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                written = 0;
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } finally {
+            Metrics.record(operation, start, 0, written);
+        }
+        scheduler.forget(appointmentIds);
+        return deleted;
+    }
+
+    public VehicleImporter.Report importVehicles(Path path) throws IOException, SQLException {
+        long start = System.nanoTime();
+        VehicleImporter.Report report = null;
+        try {
+            report = VehicleImporter.importFile(pool, path);
+            return report;
+        } finally {
+            // Batches commit as they go, so even a failed import may have added rows
+            pageCache.invalidateAll();
+            synchronized (similarLock) {
+                similarIndex.set(null);
+            }
+            Metrics.record(Metrics.Operation.IMPORT_VEHICLES, start, 0, report == null ? 0 : report.getRowsImported());
+            if (snapshotEnabled) {
+                reloadSnapshot();
+            }
+        }
+    }
+
+    public DataExporter.Result export(DataExporter.Dataset dataset, DataExporter.Format format, Path path,
+                                      boolean gzip, boolean incremental) throws IOException, SQLException {
+        long start = System.nanoTime();
+        DataExporter.Result result = null;
+        try {
+            result = DataExporter.export(pool, dataset, format, path, gzip, incremental);
+            return result;
+        } finally {
+            Metrics.record(Metrics.Operation.EXPORT_DATA, start, result == null ? 0 : result.getRows(), 0);
+        }
+    }
+
+    public List<User> listUsers() throws SQLException {
+        long start = System.nanoTime();
+        List<User> users = new ArrayList<>();
+        try (ConnectionPool.Lease lease = pool.reader()) {
+            PreparedStatement stmt = lease.prepare("SELECT id, email FROM Users");
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    users.add(new User(rs.getInt("id"), rs.getString("email")));
+                }
+            }
+        } finally {
+            Metrics.record(Metrics.Operation.LIST_USERS, start, users.size(), 0);
+        }
+        return users;
+    }
+
+    public boolean promoteUser(int userId) throws SQLException {
+        long start = System.nanoTime();
+        int written = 0;
+        try (ConnectionPool.Lease lease = pool.writer()) {
+            PreparedStatement stmt = lease.prepare("INSERT INTO Admin (id) VALUES (?)");
+            stmt.setInt(1, userId);
+            written = stmt.executeUpdate();
+            return written > 0;
+        } finally {
+            Metrics.record(Metrics.Operation.PROMOTE_USER, start, 0, written);
+        }
+    }
+
+    // Also deletes the user's password, admin flag and appointments
+    public boolean deleteUser(int userId) throws SQLException {
+        return cascadeDelete(Metrics.Operation.DELETE_USER, "SELECT id FROM Appointments WHERE user_id = ?",
+                USER_CASCADE, userId);
+    }
+
+    // All appointments when day is null, otherwise that day's schedule in time order
+    public List<Appointment> listAppointments(LocalDate day) throws SQLException {
+        long start = System.nanoTime();
+        List<Appointment> appointments = new ArrayList<>();
+        try (ConnectionPool.Lease lease = pool.reader()) {
+            PreparedStatement stmt;
+            if (day == null) {
+                stmt = lease.prepare(APPOINTMENTS_QUERY + APPOINTMENT_ORDER);
+            } else {
+                stmt = lease.prepare(APPOINTMENTS_QUERY + "WHERE a.date = ? " + APPOINTMENT_ORDER);
+                stmt.setString(1, day.toString());
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    appointments.add(new Appointment(rs.getInt("id"), rs.getString("date"), rs.getString("slot_time"),
+                            rs.getString("make"), rs.getString("model"), rs.getString("email")));
+                }
+            }
+        } finally {
+            Metrics.record(Metrics.Operation.LIST_APPOINTMENTS, start, appointments.size(), 0);
+        }
+        return appointments;
+    }
+
+    public boolean deleteAppointment(int appointmentId) throws SQLException {
+        long start = System.nanoTime();
+        boolean deleted = false;
+        try {
+            deleted = scheduler.cancel(appointmentId);
+            return deleted;
+        } finally {
+            Metrics.record(Metrics.Operation.DELETE_APPOINTMENT, start, 0, deleted ? 1 : 0);
+        }
+    }
+}
@@ -0,0 +1,605 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// An immutable, column-oriented copy of the Vehicles fields that listings and searches use, so browsing can
+// be served from memory. Rows are held in id order. Numbers live in int arrays with NULL stored as
+// Integer.MIN_VALUE; text is dictionary-encoded, and each dictionary is sorted so comparing two codes
+// compares the strings. The price, mileage and registration orders are kept as permutations of the rows,
+// built with NULLs first and ties broken by id exactly as InventoryPager's queries sort.
+//
+// A snapshot is never changed once built. with() and without() return a new snapshot and share nothing
+// mutable with the old one, so readers need no locks and a page is always read from one consistent copy.
+public class InventorySnapshot {
+    static final int NULL = Integer.MIN_VALUE;
+    static final String COLUMNS = "SELECT id, make, model, variant, registration, category, fueltype, transmission, " +
+                                  "drivetrain, colour, price, mileage, size, power FROM Vehicles ";
+
+    private static final String[] TEXT_COLUMNS = {"make", "model", "variant", "registration", "category", "fueltype",
+                                                  "transmission", "drivetrain", "colour"};
+    private static final String[] NUMBER_COLUMNS = {"price", "mileage", "size", "power"};
+    private static final int MAKE = 0;
+    private static final int MODEL = 1;
+    private static final int VARIANT = 2;
+    private static final int REGISTRATION = 3;
+    private static final int PRICE = 0;
+    private static final int MILEAGE = 1;
+
+    private final int size;
+    private final int[] ids;
+    private final TextColumn[] text;
+    private final int[][] numbers;
+    // Indexed by SortKey ordinal; null for ID, which is the row order itself
+    private final int[][] orders;
+
+    private InventorySnapshot(int[] ids, TextColumn[] text, int[][] numbers, int[][] orders) {
+        this.size = ids.length;
+        this.ids = ids;
+        this.text = text;
+        this.numbers = numbers;
+        this.orders = orders;
+    }
+
+    public static InventorySnapshot load(ConnectionPool.Lease lease) throws SQLException {
+        int capacity = 1024;
+        int count = 0;
+        int[] ids = new int[capacity];
+        int[][] numbers = new int[NUMBER_COLUMNS.length][capacity];
+        int[][] codes = new int[TEXT_COLUMNS.length][capacity];
+        List<Map<String, Integer>> dictionaries = new ArrayList<>();
+        for (int c = 0; c < TEXT_COLUMNS.length; c++) {
+            dictionaries.add(new HashMap<String, Integer>());
+        }
+
+        try (ResultSet rs = lease.prepare(COLUMNS + "ORDER BY id").executeQuery()) {
+            while (rs.next()) {
+                if (count == capacity) {
+                    capacity *= 2;
+                    ids = Arrays.copyOf(ids, capacity);
+                    for (int c = 0; c < numbers.length; c++) {
+                        numbers[c] = Arrays.copyOf(numbers[c], capacity);
+                    }
+                    for (int c = 0; c < codes.length; c++) {
+                        codes[c] = Arrays.copyOf(codes[c], capacity);
+                    }
+                }
+                ids[count] = rs.getInt("id");
+                for (int c = 0; c < NUMBER_COLUMNS.length; c++) {
+                    numbers[c][count] = number(rs, NUMBER_COLUMNS[c]);
+                }
+                // Codes are handed out in arrival order for now and renumbered once the dictionaries are sorted
+                for (int c = 0; c < TEXT_COLUMNS.length; c++) {
+                    String value = rs.getString(TEXT_COLUMNS[c]);
+                    if (value == null) {
+                        codes[c][count] = NULL;
+                    } else {
+                        Map<String, Integer> dictionary = dictionaries.get(c);
+                        Integer code = dictionary.get(value);
+                        if (code == null) {
+                            code = dictionary.size();
+                            dictionary.put(value, code);
+                        }
+                        codes[c][count] = code;
+                    }
+                }
+                count++;
+            }
+        }
+
+        ids = Arrays.copyOf(ids, count);
+        for (int c = 0; c < numbers.length; c++) {
+            numbers[c] = Arrays.copyOf(numbers[c], count);
+        }
+        TextColumn[] text = new TextColumn[TEXT_COLUMNS.length];
+        for (int c = 0; c < TEXT_COLUMNS.length; c++) {
+            text[c] = TextColumn.sorted(dictionaries.get(c), Arrays.copyOf(codes[c], count));
+        }
+
+        InventorySnapshot snapshot = new InventorySnapshot(ids, text, numbers, new int[InventoryPager.SortKey.values().length][]);
+        for (InventoryPager.SortKey sortKey : InventoryPager.SortKey.values()) {
+            if (sortKey != InventoryPager.SortKey.ID) {
+                snapshot.orders[sortKey.ordinal()] = snapshot.sortOrder(sortKey);
+            }
+        }
+        return snapshot;
+    }
+
+    private static int number(ResultSet rs, String column) throws SQLException {
+        int value = rs.getInt(column);
+        return rs.wasNull() ? NULL : value;
+    }
+
+    // Sorts (value, row) pairs packed into longs; rows are already in id order, so this gives (value, id)
+    private int[] sortOrder(InventoryPager.SortKey sortKey) {
+        long[] keys = new long[size];
+        for (int row = 0; row < size; row++) {
+            keys[row] = ((long) sortValue(sortKey, row) << 32) | row;
+        }
+        Arrays.sort(keys);
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = (int) keys[i];
+        }
+        return order;
+    }
+
+    private int sortValue(InventoryPager.SortKey sortKey, int row) {
+        switch (sortKey) {
+            case PRICE:
+                return numbers[PRICE][row];
+            case MILEAGE:
+                return numbers[MILEAGE][row];
+            case REGISTRATION:
+                return text[REGISTRATION].code(row);
+            default:
+                return ids[row];
+        }
+    }
+
+    public int getVehicleCount() {
+        return size;
+    }
+
+    // Arrays plus dictionary strings, roughly as the JVM lays them out
+    public long estimateBytes() {
+        long bytes = (long) size * (4 + 4 * NUMBER_COLUMNS.length + 4 * (orders.length - 1));
+        for (TextColumn column : text) {
+            bytes += column.estimateBytes();
+        }
+        return bytes;
+    }
+
+    // A copy with the row the result set is positioned on, replacing any row with the same id.
+    // The result set must have the columns of COLUMNS.
+    public InventorySnapshot with(ResultSet rs) throws SQLException {
+        int id = rs.getInt("id");
+        InventorySnapshot base = without(id);
+        int row = -Arrays.binarySearch(base.ids, id) - 1;
+
+        int[][] numbers = new int[NUMBER_COLUMNS.length][];
+        for (int c = 0; c < NUMBER_COLUMNS.length; c++) {
+            numbers[c] = insert(base.numbers[c], row, number(rs, NUMBER_COLUMNS[c]));
+        }
+        TextColumn[] text = new TextColumn[TEXT_COLUMNS.length];
+        for (int c = 0; c < TEXT_COLUMNS.length; c++) {
+            text[c] = base.text[c].insert(row, rs.getString(TEXT_COLUMNS[c]));
+        }
+        InventorySnapshot snapshot = new InventorySnapshot(insert(base.ids, row, id), text, numbers, new int[orders.length][]);
+
+        // Existing entries move up one row past the insertion point; the new row goes in at its sorted place
+        for (InventoryPager.SortKey sortKey : InventoryPager.SortKey.values()) {
+            int[] old = base.orders[sortKey.ordinal()];
+            if (old == null) {
+                continue;
+            }
+            int at = snapshot.firstAfter(sortKey, old, row, snapshot.sortValue(sortKey, row), id);
+            int[] order = new int[old.length + 1];
+            for (int i = 0; i < old.length; i++) {
+                int shifted = old[i] >= row ? old[i] + 1 : old[i];
+                order[i < at ? i : i + 1] = shifted;
+            }
+            order[at] = row;
+            snapshot.orders[sortKey.ordinal()] = order;
+        }
+        return snapshot;
+    }
+
+    // First position in an order built before the insertion whose (value, id) is greater than the new row's
+    private int firstAfter(InventoryPager.SortKey sortKey, int[] old, int inserted, int value, int id) {
+        int low = 0;
+        int high = old.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int row = old[mid] >= inserted ? old[mid] + 1 : old[mid];
+            int cmp = Integer.compare(sortValue(sortKey, row), value);
+            if (cmp < 0 || (cmp == 0 && ids[row] < id)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // A copy without the vehicle, or this snapshot when there is no such vehicle
+    public InventorySnapshot without(int id) {
+        int row = Arrays.binarySearch(ids, id);
+        if (row < 0) {
+            return this;
+        }
+        int[][] numbers = new int[NUMBER_COLUMNS.length][];
+        for (int c = 0; c < NUMBER_COLUMNS.length; c++) {
+            numbers[c] = remove(this.numbers[c], row);
+        }
+        TextColumn[] text = new TextColumn[TEXT_COLUMNS.length];
+        for (int c = 0; c < TEXT_COLUMNS.length; c++) {
+            text[c] = this.text[c].remove(row);
+        }
+        int[][] orders = new int[this.orders.length][];
+        for (int k = 0; k < orders.length; k++) {
+            int[] old = this.orders[k];
+            if (old == null) {
+                continue;
+            }
+            int[] order = new int[old.length - 1];
+            int i = 0;
+            for (int entry : old) {
+                if (entry != row) {
+                    order[i++] = entry > row ? entry - 1 : entry;
+                }
+            }
+            orders[k] = order;
+        }
+        return new InventorySnapshot(remove(ids, row), text, numbers, orders);
+    }
+
+    private static int[] insert(int[] values, int index, int value) {
+        int[] copy = new int[values.length + 1];
+        System.arraycopy(values, 0, copy, 0, index);
+        copy[index] = value;
+        System.arraycopy(values, index, copy, index + 1, values.length - index);
+        return copy;
+    }
+
+    private static int[] remove(int[] values, int index) {
+        int[] copy = new int[values.length - 1];
+        System.arraycopy(values, 0, copy, 0, index);
+        System.arraycopy(values, index + 1, copy, index, copy.length - index);
+        return copy;
+    }
+
+    // The page after (forward) or before the cursor, or the first page when cursorId is null, in display
+    // order. The cursor is a (sort value, id) position, so it still works if that vehicle has since gone.
+    List<InventoryPager.Row> page(InventoryPager.SortKey sortKey, Integer cursorId, Object cursorValue,
+                                  boolean forward, int limit) {
+        int[] order = orders[sortKey.ordinal()];
+        int from;
+        int to;
+        if (cursorId == null) {
+            from = 0;
+            to = Math.min(size, limit);
+        } else if (forward) {
+            from = firstPast(sortKey, order, cursorId, cursorValue, true);
+            to = Math.min(size, from + limit);
+        } else {
+            to = firstPast(sortKey, order, cursorId, cursorValue, false);
+            from = Math.max(0, to - limit);
+        }
+        List<InventoryPager.Row> rows = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            rows.add(row(order == null ? i : order[i], sortKey));
+        }
+        return rows;
+    }
+
+    // First position in the order that sorts after the cursor, or at or after it when after is false
+    private int firstPast(InventoryPager.SortKey sortKey, int[] order, int cursorId, Object cursorValue, boolean after) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareToCursor(sortKey, order == null ? mid : order[mid], cursorId, cursorValue);
+            if (cmp < 0 || (after && cmp == 0)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int compareToCursor(InventoryPager.SortKey sortKey, int row, int cursorId, Object cursorValue) {
+        int cmp = 0;
+        if (sortKey == InventoryPager.SortKey.REGISTRATION) {
+            String value = text[REGISTRATION].get(row);
+            String cursor = cursorValue == null ? null : cursorValue.toString();
+            cmp = value == null ? (cursor == null ? 0 : -1) : (cursor == null ? 1 : value.compareTo(cursor));
+        } else if (sortKey != InventoryPager.SortKey.ID) {
+            int cursor = cursorValue == null ? NULL : ((Number) cursorValue).intValue();
+            cmp = Integer.compare(sortValue(sortKey, row), cursor);
+        }
+        return cmp != 0 ? cmp : Integer.compare(ids[row], cursorId);
+    }
+
+    private InventoryPager.Row row(int row, InventoryPager.SortKey sortKey) {
+        Integer price = boxed(numbers[PRICE][row]);
+        Integer mileage = boxed(numbers[MILEAGE][row]);
+        String registration = text[REGISTRATION].get(row);
+        Object sortValue = null;
+        if (sortKey == InventoryPager.SortKey.PRICE) {
+            sortValue = price;
+        } else if (sortKey == InventoryPager.SortKey.MILEAGE) {
+            sortValue = mileage;
+        } else if (sortKey == InventoryPager.SortKey.REGISTRATION) {
+            sortValue = registration;
+        }
+        return new InventoryPager.Row(ids[row], text[MAKE].get(row), text[MODEL].get(row), text[VARIANT].get(row),
+                registration, price, mileage, sortValue);
+    }
+
+    private static Integer boxed(int value) {
+        return value == NULL ? null : value;
+    }
+
+    public Filter filter() {
+        return new Filter();
+    }
+
+    // Up to limit matches with an id greater than afterId, in id order
+    List<InventoryPager.Row> search(Filter filter, int afterId, int limit) {
+        List<InventoryPager.Row> rows = new ArrayList<>(limit);
+        int row = Arrays.binarySearch(ids, afterId);
+        row = row < 0 ? -row - 1 : row + 1;
+        for (; row < size && rows.size() < limit; row++) {
+            if (filter.matches(row)) {
+                rows.add(row(row, InventoryPager.SortKey.ID));
+            }
+        }
+        return rows;
+    }
+
+    int count(Filter filter) {
+        int count = 0;
+        for (int row = 0; row < size; row++) {
+            if (filter.matches(row)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // Matches per value of the column, merging values that differ only in case, most common first
+    Map<String, Integer> facetCounts(Filter filter, String column, int limit) {
+        TextColumn values = text[textColumn(column)];
+        int[] counts = new int[values.dictionary.length];
+        int nulls = 0;
+        for (int row = 0; row < size; row++) {
+            if (filter.matches(row)) {
+                int code = values.code(row);
+                if (code == NULL) {
+                    nulls++;
+                } else {
+                    counts[code]++;
+                }
+            }
+        }
+
+        // Keyed by lower case; the first spelling in dictionary order names the group
+        Map<String, String> spellings = new HashMap<>();
+        Map<String, Integer> totals = new HashMap<>();
+        for (int code = 0; code < counts.length; code++) {
+            if (counts[code] > 0) {
+                String value = values.dictionary[code];
+                String key = value.toLowerCase();
+                spellings.putIfAbsent(key, value);
+                totals.merge(key, counts[code], Integer::sum);
+            }
+        }
+        List<String> groups = new ArrayList<>(totals.keySet());
+        groups.sort((a, b) -> {
+            int cmp = Integer.compare(totals.get(b), totals.get(a));
+            return cmp != 0 ? cmp : spellings.get(a).compareTo(spellings.get(b));
+        });
+
+        Map<String, Integer> result = new LinkedHashMap<>();
+        // Like SQLite, NULL sorts before any value with the same count
+        boolean nullsAdded = nulls == 0;
+        for (String group : groups) {
+            if (result.size() == limit) {
+                break;
+            }
+            if (!nullsAdded && nulls >= totals.get(group)) {
+                result.put("(none)", nulls);
+                nullsAdded = true;
+                if (result.size() == limit) {
+                    break;
+                }
+            }
+            result.put(spellings.get(group), totals.get(group));
+        }
+        if (!nullsAdded && result.size() < limit) {
+            result.put("(none)", nulls);
+        }
+        return result;
+    }
+
+    private static int textColumn(String column) {
+        for (int c = 0; c < TEXT_COLUMNS.length; c++) {
+            if (TEXT_COLUMNS[c].equals(column)) {
+                return c;
+            }
+        }
+        throw new IllegalArgumentException("No text column " + column + " in the inventory snapshot");
+    }
+
+    private static int numberColumn(String column) {
+        for (int c = 0; c < NUMBER_COLUMNS.length; c++) {
+            if (NUMBER_COLUMNS[c].equals(column)) {
+                return c;
+            }
+        }
+        throw new IllegalArgumentException("No number column " + column + " in the inventory snapshot");
+    }
+
+    // Conditions against one snapshot, mirroring the SQL that VehicleSearch builds: text equality ignores
+    // case, and NULL never satisfies a condition. Conditions are resolved to dictionary codes up front, so
+    // testing a row compares ints only.
+    public class Filter {
+        private final List<boolean[]> allowedCodes = new ArrayList<>();
+        private final List<TextColumn> allowedColumns = new ArrayList<>();
+        private final List<int[]> ranges = new ArrayList<>();
+
+        private Filter() {
+        }
+
+        public Filter equal(String column, String value) {
+            if (value != null) {
+                TextColumn values = text[textColumn(column)];
+                boolean[] allowed = new boolean[values.dictionary.length];
+                for (int code = 0; code < allowed.length; code++) {
+                    allowed[code] = values.dictionary[code].equalsIgnoreCase(value);
+                }
+                allowedCodes.add(allowed);
+                allowedColumns.add(values);
+            }
+            return this;
+        }
+
+        public Filter range(String column, Integer min, Integer max) {
+            if (min != null || max != null) {
+                ranges.add(new int[]{numberColumn(column), min == null ? NULL + 1 : min, max == null ? Integer.MAX_VALUE : max});
+            }
+            return this;
+        }
+
+        // Text bounds become code bounds, since dictionary order is string order
+        public Filter range(String column, String from, String to) {
+            if (from != null || to != null) {
+                int c = textColumn(column);
+                String[] dictionary = text[c].dictionary;
+                int low = from == null ? 0 : lowerBound(dictionary, from, false);
+                int high = to == null ? dictionary.length - 1 : lowerBound(dictionary, to, true) - 1;
+                ranges.add(new int[]{-1 - c, low, high});
+            }
+            return this;
+        }
+
+        private boolean matches(int row) {
+            for (int i = 0; i < allowedCodes.size(); i++) {
+                int code = allowedColumns.get(i).code(row);
+                if (code == NULL || !allowedCodes.get(i)[code]) {
+                    return false;
+                }
+            }
+            for (int[] range : ranges) {
+                int value = range[0] >= 0 ? numbers[range[0]][row] : text[-1 - range[0]].code(row);
+                if (value == NULL || value < range[1] || value > range[2]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    // First index whose entry is at or after the key, or strictly after it when past is true
+    private static int lowerBound(String[] dictionary, String key, boolean past) {
+        int low = 0;
+        int high = dictionary.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int cmp = dictionary[mid].compareTo(key);
+            if (cmp < 0 || (past && cmp == 0)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // Sorted distinct values plus one code per row. Codes take two bytes each while the dictionary is small
+    // enough, which for make, fuel type and the like it always is.
+    private static class TextColumn {
+        private static final char NARROW_NULL = '\uffff';
+
+        private final String[] dictionary;
+        private final char[] narrow;
+        private final int[] wide;
+
+        private TextColumn(String[] dictionary, int[] codes) {
+            this.dictionary = dictionary;
+            if (dictionary.length < NARROW_NULL) {
+                this.narrow = new char[codes.length];
+                for (int i = 0; i < codes.length; i++) {
+                    narrow[i] = codes[i] == NULL ? NARROW_NULL : (char) codes[i];
+                }
+                this.wide = null;
+            } else {
+                this.narrow = null;
+                this.wide = codes;
+            }
+        }
+
+        // Renumbers codes handed out in arrival order so they follow the sorted dictionary
+        static TextColumn sorted(Map<String, Integer> arrivals, int[] codes) {
+            String[] dictionary = arrivals.keySet().toArray(new String[0]);
+            Arrays.sort(dictionary);
+            int[] renumbered = new int[dictionary.length];
+            for (int code = 0; code < dictionary.length; code++) {
+                renumbered[arrivals.get(dictionary[code])] = code;
+            }
+            for (int i = 0; i < codes.length; i++) {
+                if (codes[i] != NULL) {
+                    codes[i] = renumbered[codes[i]];
+                }
+            }
+            return new TextColumn(dictionary, codes);
+        }
+
+        int code(int row) {
+            if (narrow != null) {
+                char code = narrow[row];
+                return code == NARROW_NULL ? NULL : code;
+            }
+            return wide[row];
+        }
+
+        String get(int row) {
+            int code = code(row);
+            return code == NULL ? null : dictionary[code];
+        }
+
+        private int[] codes() {
+            if (wide != null) {
+                return wide.clone();
+            }
+            int[] codes = new int[narrow.length];
+            for (int i = 0; i < codes.length; i++) {
+                codes[i] = code(i);
+            }
+            return codes;
+        }
+
+        // A value not yet in the dictionary is added at its sorted place and later codes move up by one
+        TextColumn insert(int row, String value) {
+            int[] codes = codes();
+            String[] dictionary = this.dictionary;
+            int code = NULL;
+            if (value != null) {
+                code = Arrays.binarySearch(dictionary, value);
+                if (code < 0) {
+                    code = -code - 1;
+                    String[] grown = new String[dictionary.length + 1];
+                    System.arraycopy(dictionary, 0, grown, 0, code);
+                    grown[code] = value;
+                    System.arraycopy(dictionary, code, grown, code + 1, dictionary.length - code);
+                    dictionary = grown;
+                    for (int i = 0; i < codes.length; i++) {
+                        if (codes[i] != NULL && codes[i] >= code) {
+                            codes[i]++;
+                        }
+                    }
+                }
+            }
+            return new TextColumn(dictionary, InventorySnapshot.insert(codes, row, code));
+        }
+
+        // The dictionary keeps the value even if no row uses it any more; a reload drops it
+        TextColumn remove(int row) {
+            return new TextColumn(dictionary, InventorySnapshot.remove(codes(), row));
+        }
+
+        long estimateBytes() {
+            long bytes = narrow != null ? 2L * narrow.length : 4L * wide.length;
+            for (String value : dictionary) {
+                bytes += 40 + 2L * value.length();
+            }
+            return bytes;
+        }
+    }
+}
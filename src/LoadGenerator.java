@@ -0,0 +1,258 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Replays a mixed customer workload from a number of simulated users at once and reports throughput and
+// latency percentiles per action. It runs against a snapshot taken with VACUUM INTO, so registrations and
+// bookings made by the simulated users never reach the live database; the snapshot is deleted afterwards.
+public class LoadGenerator {
+    private static final int PAGE_SIZE = 20;
+    private static final int BOOKING_DAYS = 30;
+    private static final String PASSWORD = "load-test-password";
+
+    // Weights are relative; they roughly follow what customers do in the console
+    public enum Action {
+        BROWSE("Browse first page", 25),
+        NEXT_PAGE("Next page", 15),
+        SEARCH("Search", 15),
+        DETAILS("Vehicle details", 30),
+        SLOTS("Free slots", 7),
+        BOOK("Book appointment", 5),
+        LOGIN("Login", 3);
+
+        private final String label;
+        private final int weight;
+
+        Action(String label, int weight) {
+            this.label = label;
+            this.weight = weight;
+        }
+    }
+
+    private static final int TOTAL_WEIGHT;
+
+    static {
+        int total = 0;
+        for (Action action : Action.values()) {
+            total += action.weight;
+        }
+        TOTAL_WEIGHT = total;
+    }
+
+    private final int users;
+    private final int seconds;
+    private final LatencyHistogram[] latencies = new LatencyHistogram[Action.values().length];
+    private final AtomicLong[] failures = new AtomicLong[Action.values().length];
+    // Bookings turned down by the capacity rules are expected under load, so they are counted separately
+    private final AtomicLong rejectedBookings = new AtomicLong();
+
+    public LoadGenerator(int users, int seconds) {
+        if (users < 1 || seconds < 1) {
+            throw new IllegalArgumentException("users and seconds must be at least 1");
+        }
+        this.users = users;
+        this.seconds = seconds;
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LatencyHistogram();
+            failures[i] = new AtomicLong();
+        }
+    }
+
+    // Copies the database behind source, runs the workload against the copy and prints the report.
+    // With inventorySnapshot the copy's listings and searches are served from memory.
+    public void run(ConnectionPool source, PasswordHasher hasher, int readerConnections, boolean inventorySnapshot) throws Exception {
+        Path copy = Files.createTempFile(Paths.get("."), "load-test-", ".db");
+        Files.delete(copy);
+        try {
+            System.out.println("Copying the database to " + copy + "...");
+            try (ConnectionPool.Lease lease = source.writer()) {
+                lease.closeStatements();
+                PreparedStatement stmt = lease.connection().prepareStatement("VACUUM INTO ?");
+                stmt.setString(1, copy.toString());
+                stmt.execute();
+                stmt.close();
+            }
+
+            try (ConnectionPool pool = new ConnectionPool("jdbc:sqlite:" + copy, readerConnections)) {
+                InventoryService service = new InventoryService(pool, hasher);
+                if (inventorySnapshot) {
+                    service.enableSnapshot();
+                }
+                int maxVehicleId = maxVehicleId(pool);
+                if (maxVehicleId == 0) {
+                    throw new IllegalStateException("The database has no vehicles to browse");
+                }
+                runUsers(service, maxVehicleId);
+            }
+        } finally {
+            Files.deleteIfExists(copy);
+            Files.deleteIfExists(Paths.get(copy + "-wal"));
+            Files.deleteIfExists(Paths.get(copy + "-shm"));
+        }
+    }
+
+    private static int maxVehicleId(ConnectionPool pool) throws SQLException {
+        try (ConnectionPool.Lease lease = pool.reader();
+             ResultSet rs = lease.prepare("SELECT MAX(id) FROM Vehicles").executeQuery()) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    private void runUsers(InventoryService service, int maxVehicleId) throws InterruptedException {
+        // Every simulated user registers before the clock starts, so hashing the passwords is not measured
+        System.out.println("Registering " + users + " simulated users...");
+        CountDownLatch registered = new CountDownLatch(users);
+        CountDownLatch start = new CountDownLatch(1);
+        long[] deadline = new long[1];
+        List<Thread> threads = new ArrayList<>();
+        String runId = Long.toString(System.currentTimeMillis(), 36);
+        for (int i = 0; i < users; i++) {
+            String email = "load-" + runId + "-" + i + "@load.test";
+            Thread thread = new Thread(() -> {
+                int userId;
+                try {
+                    userId = service.register(email, "Load", "Test", PASSWORD);
+                } catch (Exception e) {
+                    System.out.println("An error occurred while registering a simulated user: " + e.getMessage());
+                    userId = -1;
+                } finally {
+                    registered.countDown();
+                }
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (userId > 0) {
+                    simulate(service, userId, email, maxVehicleId, deadline[0]);
+                }
+            }, "load-user-" + i);
+            thread.start();
+            threads.add(thread);
+        }
+
+        registered.await();
+        System.out.println("Running for " + seconds + " seconds...");
+        Metrics.reset();
+        long startNanos = System.nanoTime();
+        deadline[0] = startNanos + seconds * 1_000_000_000L;
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        printReport((System.nanoTime() - startNanos) / 1e9);
+    }
+
+    // One customer's session: pick an action by weight, time it, repeat until the deadline
+    private void simulate(InventoryService service, int userId, String email, int maxVehicleId, long deadline) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        InventoryPager pager = service.newPager(InventoryPager.SortKey.ID, PAGE_SIZE);
+        boolean browsing = false;
+        while (System.nanoTime() < deadline) {
+            Action action = pick(random.nextInt(TOTAL_WEIGHT));
+            long start = System.nanoTime();
+            try {
+                switch (action) {
+                    case BROWSE:
+                        pager = service.newPager(InventoryPager.SortKey.values()[random.nextInt(InventoryPager.SortKey.values().length)], PAGE_SIZE);
+                        service.firstPage(pager);
+                        browsing = true;
+                        break;
+                    case NEXT_PAGE:
+                        if (!browsing || !service.turnPage(pager, true)) {
+                            service.firstPage(pager);
+                            browsing = true;
+                        }
+                        break;
+                    case SEARCH:
+                        VehicleSearch.Criteria criteria = new VehicleSearch.Criteria();
+                        int minPrice = random.nextInt(50) * 1_000;
+                        criteria.setPriceRange(minPrice, minPrice + 20_000);
+                        service.search(criteria, 0, PAGE_SIZE);
+                        break;
+                    case DETAILS:
+                        service.getVehicle(1 + random.nextInt(maxVehicleId));
+                        break;
+                    case SLOTS:
+                        service.freeSlots(1 + random.nextInt(maxVehicleId), LocalDate.now().plusDays(1 + random.nextInt(BOOKING_DAYS)));
+                        break;
+                    case BOOK:
+                        book(service, userId, maxVehicleId, random);
+                        break;
+                    case LOGIN:
+                        if (service.login(email, PASSWORD).getStatus() != InventoryService.LoginResult.Status.SUCCESS) {
+                            throw new IllegalStateException("Login failed");
+                        }
+                        break;
+                }
+            } catch (Exception e) {
+                failures[action.ordinal()].incrementAndGet();
+            } finally {
+                latencies[action.ordinal()].record(System.nanoTime() - start);
+            }
+        }
+    }
+
+    private void book(InventoryService service, int userId, int maxVehicleId, ThreadLocalRandom random) throws SQLException {
+        LocalDate date = LocalDate.now().plusDays(1 + random.nextInt(BOOKING_DAYS));
+        LocalTime time = LocalTime.of(9, 0).plusMinutes((long) AppointmentScheduler.SLOT_MINUTES * random.nextInt(16));
+        try {
+            service.makeAppointment(userId, 1 + random.nextInt(maxVehicleId), AppointmentScheduler.Slot.of(date, time));
+        } catch (AppointmentScheduler.BookingException | IllegalArgumentException e) {
+            // Full, closed on that day, or a gap in the vehicle ids
+            rejectedBookings.incrementAndGet();
+        }
+    }
+
+    private static Action pick(int roll) {
+        for (Action action : Action.values()) {
+            roll -= action.weight;
+            if (roll < 0) {
+                return action;
+            }
+        }
+        return Action.DETAILS;
+    }
+
+    private void printReport(double elapsedSeconds) {
+        long total = 0;
+        for (LatencyHistogram histogram : latencies) {
+            total += histogram.getCount();
+        }
+        System.out.printf("\n%d users, %.1f seconds, %d operations, %.0f operations/second\n\n",
+                users, elapsedSeconds, total, total / elapsedSeconds);
+
+        TableRenderer table = new TableRenderer(TableRenderer.left("Action"), TableRenderer.right("Count"),
+                TableRenderer.right("Ops/s"), TableRenderer.right("Failed"), TableRenderer.right("p50 ms"),
+                TableRenderer.right("p99 ms"), TableRenderer.right("p999 ms"), TableRenderer.right("Max ms"));
+        for (Action action : Action.values()) {
+            LatencyHistogram histogram = latencies[action.ordinal()];
+            table.cell(action.label)
+                    .cell((int) histogram.getCount())
+                    .cell(String.format("%.1f", histogram.getCount() / elapsedSeconds))
+                    .cell((int) failures[action.ordinal()].get())
+                    .cell(millis(histogram.percentileNanos(0.50)))
+                    .cell(millis(histogram.percentileNanos(0.99)))
+                    .cell(millis(histogram.percentileNanos(0.999)))
+                    .cell(millis(histogram.getMaxNanos()));
+        }
+        table.print();
+        System.out.println("\nBookings turned down by the capacity rules: " + rejectedBookings.get());
+        System.out.println("\nWhere the time went (all simulated users):");
+        System.out.print(Metrics.report());
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.3f", nanos / 1_000_000.0);
+    }
+}
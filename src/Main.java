@@ -1,17 +1,109 @@
+import java.io.BufferedReader;
 import java.io.Console;
-import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
 
-import org.mindrot.jbcrypt.BCrypt;
-
 public class Main {
-    private static final String DATABASE_URL = "jdbc:sqlite:car_inventory.db";
+    private static final String DATABASE_FILE = "car_inventory.db";
+    private static final int READER_CONNECTIONS = Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()));
+
+    private static final int PAGE_SIZE = 20;
+    private static final int SIMILAR_VEHICLES = 5;
+    private static final long TARGET_HASH_MILLIS = 250;
+    private static final int HASH_QUEUE_LIMIT = 64;
+    private static final int DEFAULT_SERVER_PORT = 8080;
+    private static final long DEFAULT_STATS_INTERVAL_SECONDS = 60;
+    private static final int DEFAULT_LOAD_USERS = 20;
+    private static final int DEFAULT_LOAD_SECONDS = 30;
+
+    // Listings are laid out by reusable renderers, one per table shape. The print methods below are shared with
+    // ScriptRunner and, like the renderers, are for the thread driving the console.
+    private static final TableRenderer INVENTORY_TABLE = new TableRenderer(TableRenderer.right("ID"),
+            TableRenderer.left("Make"), TableRenderer.left("Model"), TableRenderer.left("Variant"),
+            TableRenderer.right("Price"), TableRenderer.right("Mileage"));
+    private static final TableRenderer VEHICLE_CHOICE_TABLE = new TableRenderer(TableRenderer.right("ID"),
+            TableRenderer.left("Make"), TableRenderer.left("Model"), TableRenderer.left("Variant"));
+    private static final TableRenderer USER_TABLE = new TableRenderer(TableRenderer.right("ID"),
+            TableRenderer.left("Email"));
+    private static final TableRenderer APPOINTMENT_TABLE = new TableRenderer(TableRenderer.right("ID"),
+            TableRenderer.left("Date"), TableRenderer.left("Time"), TableRenderer.left("Make"),
+            TableRenderer.left("Model"), TableRenderer.left("User"));
+    private static final TableRenderer STOCK_TABLE = new TableRenderer(TableRenderer.left("Make"),
+            TableRenderer.left("Category"), TableRenderer.right("Vehicles"), TableRenderer.right("Stock value"),
+            TableRenderer.right("Unpriced"));
+    private static final TableRenderer FUEL_TABLE = new TableRenderer(TableRenderer.left("Fuel Type"),
+            TableRenderer.right("Vehicles"), TableRenderer.right("Avg price"), TableRenderer.right("Avg mileage"));
+    private static final TableRenderer DEMAND_TABLE = new TableRenderer(TableRenderer.right("ID"),
+            TableRenderer.left("Make"), TableRenderer.left("Model"), TableRenderer.right("Viewings"));
+    private static final TableRenderer WEEK_TABLE = new TableRenderer(TableRenderer.left("Week of"),
+            TableRenderer.right("Viewings"), TableRenderer.right("Vehicles"));
+    private static final TableRenderer CHANGE_TABLE = new TableRenderer(TableRenderer.right("Seq"),
+            TableRenderer.left("Changed at (UTC)"), TableRenderer.left("Entity"), TableRenderer.right("ID"),
+            TableRenderer.left("Change"));
+
+    private static ConnectionPool pool;
+    private static PasswordHasher hasher;
+    private static InventoryService service;
+    // Set by -Ddealerships=name=file,...; this process serves the one named by -Dsite (default the first)
+    private static Map<String, String> dealerships;
+    private static String site;
+    // Set by -Dphotos; by default a directory named after the database file
+    private static Path photoDirectory;
 
     public static void main(String[] args) {
-        enableWALMode();
+        openDatabase();
+        hasher = new PasswordHasher(TARGET_HASH_MILLIS, HASH_QUEUE_LIMIT);
+        try {
+            service = dealerships == null ? new InventoryService(pool, hasher)
+                    : new ShardedInventoryService(pool, site, dealerships, hasher, READER_CONNECTIONS);
+        } catch (Exception e) {
+            System.out.println("An error occurred while opening the inventory: " + e.getMessage());
+            System.exit(1);
+        }
+
+        if (Boolean.getBoolean("inventory.snapshot")) {
+            try {
+                service.enableSnapshot();
+            } catch (Exception e) {
+                System.out.println("An error occurred while loading the inventory into memory: " + e.getMessage());
+            }
+        }
+        try {
+            service.enablePhotos(PhotoStore.open(photoDirectory));
+        } catch (Exception e) {
+            System.out.println("An error occurred while opening the photo store: " + e.getMessage());
+        }
+        service.startMaintenance();
+        Metrics.registerMBean();
+        String statsLog = System.getProperty("stats.log");
+        if (statsLog != null) {
+            Metrics.startLogging(Paths.get(statsLog), Long.getLong("stats.interval", DEFAULT_STATS_INTERVAL_SECONDS));
+        }
+
+        if (args.length > 0 && args[0].equals("--server")) {
+            startServer(args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_SERVER_PORT);
+            return;
+        }
+        if (args.length > 1 && args[0].equals("--script")) {
+            runScript(args[1]);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--load")) {
+            runLoad(args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_LOAD_USERS,
+                    args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_LOAD_SECONDS);
+            return;
+        }
+
         Scanner scanner = new Scanner(System.in);
 
         while (true) {
@@ -34,6 +126,8 @@ public class Main {
                 case "3":
                     System.out.println("Goodbye!");
                     scanner.close();
+                    hasher.close();
+                    closeDatabase();
                     System.exit(0);
                 default:
                     System.out.println("Invalid option. Please try again.");
@@ -41,12 +135,87 @@ public class Main {
         }
     }
 
-    private static void enableWALMode() {
-        try (Connection conn = DriverManager.getConnection(DATABASE_URL)) {
-            conn.createStatement().execute("PRAGMA journal_mode=WAL;");
+    // Connections are opened once and kept for the lifetime of the program; the pool applies WAL mode and the other pragmas,
+    // then any pending schema migrations are applied before the menus start
+    private static void openDatabase() {
+        try {
+            String file = DATABASE_FILE;
+            String spec = System.getProperty("dealerships");
+            if (spec != null) {
+                dealerships = ShardedInventoryService.parseDatabases(spec);
+                site = System.getProperty("site", dealerships.keySet().iterator().next());
+                file = dealerships.get(site);
+                if (file == null) {
+                    throw new IllegalArgumentException("-Dsite=" + site + " is not one of the dealerships");
+                }
+            }
+            String photos = System.getProperty("photos");
+            photoDirectory = Paths.get(photos != null ? photos : file.replaceFirst("\\.db$", "") + "-photos");
+            if (dealerships != null) {
+                ShardedInventoryService.copySchemaIfEmpty(site, dealerships);
+            }
+            pool = new ConnectionPool("jdbc:sqlite:" + file, READER_CONNECTIONS);
+            SchemaMigrator.migrate(pool);
+        } catch (Exception e) {
+            System.out.println("An error occurred while opening the database: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static void closeDatabase() {
+        if (service != null && service.getPhotoStore() != null) {
+            service.getPhotoStore().close();
+        }
+        if (service instanceof ShardedInventoryService) {
+            ((ShardedInventoryService) service).close();
+        }
+        pool.close();
+    }
+
+    // Serves the JSON API instead of the console menus; the server runs until the process is stopped
+    private static void startServer(int port) {
+        try {
+            ApiServer server = new ApiServer(service, port);
+            server.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                server.stop();
+                hasher.close();
+                closeDatabase();
+            }));
+            System.out.println("Serving the inventory API on port " + port + " (" + server.getExecutorDescription() + ")");
         } catch (Exception e) {
-            System.out.println("An error occurred while enabling WAL mode: " + e.getMessage());
+            System.out.println("An error occurred while starting the server: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    // Runs the commands in the file ('-' for standard input) and exits with status 1 if any failed
+    private static void runScript(String file) {
+        int failures;
+        try (BufferedReader in = file.equals("-")
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                : Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+            failures = new ScriptRunner(service).run(in);
+        } catch (IOException e) {
+            System.out.println("An error occurred while reading the script: " + e.getMessage());
+            failures = 1;
         }
+        hasher.close();
+        closeDatabase();
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    private static void runLoad(int users, int seconds) {
+        int status = 0;
+        try {
+            new LoadGenerator(users, seconds).run(pool, hasher, READER_CONNECTIONS, Boolean.getBoolean("inventory.snapshot"));
+        } catch (Exception e) {
+            System.out.println("An error occurred while running the load test: " + e.getMessage());
+            status = 1;
+        }
+        hasher.close();
+        closeDatabase();
+        System.exit(status);
     }
 
     private static void login(Scanner scanner) {
@@ -55,39 +224,32 @@ public class Main {
         System.out.print("Enter your email: ");
         String email = scanner.nextLine();
 
-        String password = getPassword("Enter your password: ");
-
-        try (Connection conn = DriverManager.getConnection(DATABASE_URL)) {
-            String query = "SELECT u.id, s.saltpw, a.id AS admin_id FROM Users u " +
-                           "LEFT JOIN Saltpw s ON u.id = s.id " +
-                           "LEFT JOIN Admin a ON u.id = a.id " +
-                           "WHERE u.email = ?";
-            try (PreparedStatement stmt = conn.prepareStatement(query)) {
-                stmt.setString(1, email);
-
-                try (ResultSet rs = stmt.executeQuery()) {
-                    if (rs.next()) {
-                        String hashedPassword = rs.getString("saltpw");
-                        if (BCrypt.checkpw(password, hashedPassword)) {
-                            int userId = rs.getInt("id");
-                            boolean isAdmin = rs.getInt("admin_id") != 0;
-                            clearScreen();
-                            System.out.println("Login successful! Welcome back!");
-                            if (isAdmin) {
-                                adminMenu(scanner, userId);
-                            } else {
-                                userMenu(scanner, userId);
-                            }
-                        } else {
-                            System.out.println("Invalid password.");
-                        }
-                    } else {
-                        System.out.println("User not found.");
-                    }
-                }
-            }
+        String password = getPassword(scanner, "Enter your password: ");
+
+        InventoryService.LoginResult result;
+        try {
+            result = service.login(email, password);
         } catch (Exception e) {
             System.out.println("An error occurred: " + e.getMessage());
+            return;
+        }
+
+        switch (result.getStatus()) {
+            case UNKNOWN_USER:
+                System.out.println("User not found.");
+                return;
+            case WRONG_PASSWORD:
+                System.out.println("Invalid password.");
+                return;
+            default:
+                break;
+        }
+        clearScreen();
+        System.out.println("Login successful! Welcome back!");
+        if (result.isAdmin()) {
+            adminMenu(scanner, result.getUserId());
+        } else {
+            userMenu(scanner, result.getUserId());
         }
     }
 
@@ -103,37 +265,13 @@ public class Main {
         System.out.print("Enter your last name: ");
         String lastName = scanner.nextLine();
 
-        String password = getPassword("Enter a password: ");
-
-        try (Connection conn = DriverManager.getConnection(DATABASE_URL)) {
-            String salt = BCrypt.gensalt();
-            String hashedPassword = BCrypt.hashpw(password, salt);
-
-            String userQuery = "INSERT INTO Users (email, firstname, lastname) VALUES (?, ?, ?)";
-            try (PreparedStatement userStmt = conn.prepareStatement(userQuery, PreparedStatement.RETURN_GENERATED_KEYS)) {
-                userStmt.setString(1, email);
-                userStmt.setString(2, firstName);
-                userStmt.setString(3, lastName);
-
-                int rowsInserted = userStmt.executeUpdate();
-                if (rowsInserted > 0) {
-                    try (ResultSet generatedKeys = userStmt.getGeneratedKeys()) {
-                        if (generatedKeys.next()) {
-                            int userId = generatedKeys.getInt(1);
-
-                            String saltpwQuery = "INSERT INTO Saltpw (id, saltpw) VALUES (?, ?)";
-                            try (PreparedStatement saltpwStmt = conn.prepareStatement(saltpwQuery)) {
-                                saltpwStmt.setInt(1, userId);
-                                saltpwStmt.setString(2, hashedPassword);
-                                saltpwStmt.executeUpdate();
-                            }
+        String password = getPassword(scanner, "Enter a password: ");
 
-                            System.out.println("Registration successful! You can now log in.");
-                        }
-                    }
-                } else {
-                    System.out.println("Registration failed. Please try again.");
-                }
+        try {
+            if (service.register(email, firstName, lastName, password) > 0) {
+                System.out.println("Registration successful! You can now log in.");
+            } else {
+                System.out.println("Registration failed. Please try again.");
             }
         } catch (Exception e) {
             System.out.println("An error occurred: " + e.getMessage());
@@ -145,7 +283,8 @@ public class Main {
             clearScreen();
             System.out.println("\n=== User Menu ===");
             System.out.println("1. View Vehicle Inventory");
-            System.out.println("2. Logout");
+            System.out.println("2. Search Vehicles");
+            System.out.println("3. Logout");
             System.out.print("Please select an option: ");
 
             String choice = scanner.nextLine();
@@ -155,6 +294,9 @@ public class Main {
                     viewVehicleInventory(scanner, userId);
                     break;
                 case "2":
+                    searchVehicles(scanner, userId);
+                    break;
+                case "3":
                     System.out.println("Logged out successfully.");
                     return;
                 default:
@@ -164,23 +306,25 @@ public class Main {
     }
 
     private static void viewVehicleInventory(Scanner scanner, int userId) {
-        try (Connection conn = DriverManager.getConnection(DATABASE_URL)) {
-            String query = "SELECT id, make, model, variant, price, mileage FROM Vehicles";
-            try (PreparedStatement stmt = conn.prepareStatement(query);
-                 ResultSet rs = stmt.executeQuery()) {
-                System.out.println("\n=== Vehicle Inventory ===");
-                while (rs.next()) {
-                    System.out.printf("ID: %d, Make: %s, Model: %s, Variant: %s, Price: %d, Mileage: %d\n",
-                            rs.getInt("id"), rs.getString("make"), rs.getString("model"), rs.getString("variant"),
-                            rs.getInt("price"), rs.getInt("mileage"));
-                }
+        InventoryPager pager = service.newPager(InventoryPager.SortKey.ID, PAGE_SIZE);
+        if (!firstPage(pager)) {
+            return;
+        }
 
-                System.out.println("\nOptions:");
-                System.out.println("1. Go Back");
-                System.out.println("2. See Details of a Vehicle");
-                System.out.print("Please select an option: ");
-                String choice = scanner.nextLine();
+        while (true) {
+            System.out.println("\n=== Vehicle Inventory (sorted by " + pager.getSortKey().getLabel() + ") ===");
+            printInventoryPage(pager.getPage());
+
+            System.out.println("\nOptions:");
+            System.out.println("1. Go Back");
+            System.out.println("2. See Details of a Vehicle");
+            System.out.println("3. Next Page");
+            System.out.println("4. Previous Page");
+            System.out.println("5. Change Sort Order");
+            System.out.print("Please select an option: ");
+            String choice = scanner.nextLine();
 
+            try {
                 switch (choice) {
                     case "1":
                         return;
@@ -188,72 +332,339 @@ public class Main {
                         System.out.print("Enter the ID of the vehicle you want to see (or type 'back' to cancel): ");
                         String input = scanner.nextLine();
                         if (input.equalsIgnoreCase("back")) {
-                            return;
+                            break;
                         }
                         int vehicleId = Integer.parseInt(input);
                         viewVehicleDetails(scanner, userId, vehicleId);
                         break;
+                    case "3":
+                        if (!turnPage(pager, true)) {
+                            System.out.println("You are on the last page.");
+                        }
+                        break;
+                    case "4":
+                        if (!turnPage(pager, false)) {
+                            System.out.println("You are on the first page.");
+                        }
+                        break;
+                    case "5":
+                        InventoryPager.SortKey sortKey = chooseSortKey(scanner);
+                        if (sortKey != null) {
+                            pager = service.newPager(sortKey, PAGE_SIZE);
+                            if (!firstPage(pager)) {
+                                return;
+                            }
+                        }
+                        break;
                     default:
-                        System.out.println("Invalid option. Returning to the previous menu.");
+                        System.out.println("Invalid option. Please try again.");
                 }
+            } catch (Exception e) {
+                System.out.println("An error occurred while retrieving the vehicle inventory: " + e.getMessage());
             }
+        }
+    }
+
+    private static boolean firstPage(InventoryPager pager) {
+        try {
+            service.firstPage(pager);
+            return true;
         } catch (Exception e) {
             System.out.println("An error occurred while retrieving the vehicle inventory: " + e.getMessage());
+            return false;
         }
     }
 
-    private static void viewVehicleDetails(Scanner scanner, int userId, int vehicleId) {
-        try (Connection conn = DriverManager.getConnection(DATABASE_URL)) {
-            String query = "SELECT * FROM Vehicles WHERE id = ?";
-            try (PreparedStatement stmt = conn.prepareStatement(query)) {
-                stmt.setInt(1, vehicleId);
-
-                try (ResultSet rs = stmt.executeQuery()) {
-                    if (rs.next()) {
-                        System.out.printf("ID: %d\nMake: %s\nModel: %s\nVariant: %s\nRegistration: %s\nCategory: %s\nPrice: %d\nMileage: %d\nFuel Type: %s\nSize: %d\nEngine Position: %s\nPower: %d\nDrivetrain: %s\nTransmission: %s\nColour: %s\nInterior Colour: %s\nEngine Type: %s\nNotes: %s\n",
-                                rs.getInt("id"), rs.getString("make"), rs.getString("model"), rs.getString("variant"),
-                                rs.getString("registration"), rs.getString("category"), rs.getInt("price"),
-                                rs.getInt("mileage"), rs.getString("fueltype"), rs.getInt("size"),
-                                rs.getString("engineposition"), rs.getInt("power"), rs.getString("drivetrain"),
-                                rs.getString("transmission"), rs.getString("colour"), rs.getString("interiorcolour"),
-                                rs.getString("enginetype"), rs.getString("notes"));
-
-                        System.out.println("\nWould you like to make an appointment to see this vehicle?");
-                        System.out.print("Enter 'yes' to make an appointment, 'no' to go back: ");
-                        String choice = scanner.nextLine().toLowerCase();
-
-                        if (choice.equals("yes")) {
-                            System.out.print("Enter appointment date (YYYY-MM-DD): ");
-                            String appointmentDate = scanner.nextLine();
-                            makeAppointment(conn, userId, vehicleId, appointmentDate);
-                        } else {
-                            System.out.println("Returning to the previous menu.");
+    private static boolean turnPage(InventoryPager pager, boolean forward) throws Exception {
+        return service.turnPage(pager, forward);
+    }
+
+    static void printInventoryPage(List<InventoryPager.Row> rows) {
+        if (rows.isEmpty()) {
+            System.out.println("No vehicles found.");
+            return;
+        }
+        long start = System.nanoTime();
+        INVENTORY_TABLE.clear();
+        for (InventoryPager.Row row : rows) {
+            INVENTORY_TABLE.cell(row.getId()).cell(row.getMake()).cell(row.getModel()).cell(row.getVariant())
+                    .cell(row.getPrice()).cell(row.getMileage());
+        }
+        INVENTORY_TABLE.print();
+        Metrics.record(Metrics.Operation.CONSOLE_RENDER, start);
+    }
+
+    private static void printVehicleChoices(List<InventoryPager.Row> rows) {
+        long start = System.nanoTime();
+        VEHICLE_CHOICE_TABLE.clear();
+        for (InventoryPager.Row row : rows) {
+            VEHICLE_CHOICE_TABLE.cell(row.getId()).cell(row.getMake()).cell(row.getModel()).cell(row.getVariant());
+        }
+        VEHICLE_CHOICE_TABLE.print();
+        Metrics.record(Metrics.Operation.CONSOLE_RENDER, start);
+    }
+
+    static void printUsers(List<InventoryService.User> users) {
+        long start = System.nanoTime();
+        USER_TABLE.clear();
+        for (InventoryService.User user : users) {
+            USER_TABLE.cell(user.getId()).cell(user.getEmail());
+        }
+        USER_TABLE.print();
+        Metrics.record(Metrics.Operation.CONSOLE_RENDER, start);
+    }
+
+    static void printAppointments(List<InventoryService.Appointment> appointments) {
+        long start = System.nanoTime();
+        APPOINTMENT_TABLE.clear();
+        for (InventoryService.Appointment appointment : appointments) {
+            APPOINTMENT_TABLE.cell(appointment.getId()).cell(appointment.getDate()).cell(slotTime(appointment))
+                    .cell(appointment.getMake()).cell(appointment.getModel()).cell(appointment.getEmail());
+        }
+        APPOINTMENT_TABLE.print();
+        Metrics.record(Metrics.Operation.CONSOLE_RENDER, start);
+    }
+
+    private static InventoryPager.SortKey chooseSortKey(Scanner scanner) {
+        InventoryPager.SortKey[] keys = InventoryPager.SortKey.values();
+        System.out.println("\nSort by:");
+        for (int i = 0; i < keys.length; i++) {
+            System.out.println((i + 1) + ". " + keys[i].getLabel());
+        }
+        System.out.print("Please select an option: ");
+        String choice = scanner.nextLine();
+        try {
+            return keys[Integer.parseInt(choice) - 1];
+        } catch (RuntimeException e) {
+            System.out.println("Invalid option. Keeping the current sort order.");
+            return null;
+        }
+    }
+
+    private static void searchVehicles(Scanner scanner, int userId) {
+        System.out.println("\n=== Search Vehicles ===");
+        System.out.println("Leave any field blank to ignore it.");
+        VehicleSearch.Criteria criteria = new VehicleSearch.Criteria();
+        try {
+            System.out.print("Keywords (e.g. red convertible manual): ");
+            criteria.setText(scanner.nextLine());
+            System.out.print("Make: ");
+            criteria.setMake(scanner.nextLine());
+            System.out.print("Model: ");
+            criteria.setModel(scanner.nextLine());
+            System.out.print("Category: ");
+            criteria.setCategory(scanner.nextLine());
+            System.out.print("Fuel Type: ");
+            criteria.setFuelType(scanner.nextLine());
+            System.out.print("Transmission: ");
+            criteria.setTransmission(scanner.nextLine());
+            System.out.print("Drivetrain: ");
+            criteria.setDrivetrain(scanner.nextLine());
+            System.out.print("Minimum Price: ");
+            Integer minPrice = readOptionalInt(scanner);
+            System.out.print("Maximum Price: ");
+            criteria.setPriceRange(minPrice, readOptionalInt(scanner));
+            System.out.print("Minimum Mileage: ");
+            Integer minMileage = readOptionalInt(scanner);
+            System.out.print("Maximum Mileage: ");
+            criteria.setMileageRange(minMileage, readOptionalInt(scanner));
+            System.out.print("Registered From (YYYY-MM-DD): ");
+            String registeredFrom = scanner.nextLine();
+            System.out.print("Registered To (YYYY-MM-DD): ");
+            criteria.setRegistrationRange(registeredFrom, scanner.nextLine());
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid number: " + e.getMessage());
+            return;
+        }
+
+        // Keyword results come in relevance order and are paged by offset; the rest are paged by id
+        int afterId = 0;
+        int offset = 0;
+        while (true) {
+            List<InventoryPager.Row> rows;
+            try {
+                rows = criteria.hasText()
+                        ? service.rankedSearch(criteria, offset, PAGE_SIZE)
+                        : service.search(criteria, afterId, PAGE_SIZE);
+                if (afterId == 0 && offset == 0) {
+                    System.out.println("\n" + service.countMatches(criteria) + " matching vehicles");
+                    for (Map.Entry<VehicleSearch.Facet, Map<String, Integer>> facet : service.facets(criteria).entrySet()) {
+                        System.out.println(facet.getKey().getLabel() + ": " + facet.getValue());
+                    }
+                }
+            } catch (Exception e) {
+                System.out.println("An error occurred while searching vehicles: " + e.getMessage());
+                return;
+            }
+
+            System.out.println("\n=== Search Results ===");
+            printInventoryPage(rows);
+
+            System.out.println("\nOptions:");
+            System.out.println("1. Go Back");
+            System.out.println("2. See Details of a Vehicle");
+            System.out.println("3. Next Page");
+            System.out.print("Please select an option: ");
+            String choice = scanner.nextLine();
+
+            switch (choice) {
+                case "1":
+                    return;
+                case "2":
+                    System.out.print("Enter the ID of the vehicle you want to see (or type 'back' to cancel): ");
+                    String input = scanner.nextLine();
+                    if (!input.equalsIgnoreCase("back")) {
+                        try {
+                            viewVehicleDetails(scanner, userId, Integer.parseInt(input));
+                        } catch (NumberFormatException e) {
+                            System.out.println("Invalid vehicle ID.");
                         }
+                    }
+                    return;
+                case "3":
+                    if (rows.size() < PAGE_SIZE) {
+                        System.out.println("You are on the last page.");
+                    } else if (criteria.hasText()) {
+                        offset += PAGE_SIZE;
                     } else {
-                        System.out.println("Vehicle not found.");
+                        afterId = rows.get(rows.size() - 1).getId();
                     }
-                }
+                    break;
+                default:
+                    System.out.println("Invalid option. Please try again.");
             }
+        }
+    }
+
+    private static Integer readOptionalInt(Scanner scanner) {
+        String input = scanner.nextLine().trim();
+        return input.isEmpty() ? null : Integer.valueOf(input);
+    }
+
+    private static void viewVehicleDetails(Scanner scanner, int userId, int vehicleId) {
+        Vehicle vehicle;
+        try {
+            vehicle = service.getVehicle(vehicleId);
         } catch (Exception e) {
             System.out.println("An error occurred while retrieving vehicle details: " + e.getMessage());
+            return;
+        }
+
+        if (vehicle == null) {
+            System.out.println("Vehicle not found.");
+        } else {
+            System.out.printf("ID: %d\nMake: %s\nModel: %s\nVariant: %s\nRegistration: %s\nCategory: %s\nPrice: %d\nMileage: %d\nFuel Type: %s\nSize: %d\nEngine Position: %s\nPower: %d\nDrivetrain: %s\nTransmission: %s\nColour: %s\nInterior Colour: %s\nEngine Type: %s\nNotes: %s\n",
+                    vehicle.getId(), vehicle.getMake(), vehicle.getModel(), vehicle.getVariant(),
+                    vehicle.getRegistration(), vehicle.getCategory(), vehicle.getPrice(),
+                    vehicle.getMileage(), vehicle.getFuelType(), vehicle.getSize(),
+                    vehicle.getEnginePosition(), vehicle.getPower(), vehicle.getDrivetrain(),
+                    vehicle.getTransmission(), vehicle.getColour(), vehicle.getInteriorColour(),
+                    vehicle.getEngineType(), vehicle.getNotes());
+            int photos = service.listPhotos(vehicleId).size();
+            if (photos > 0) {
+                System.out.println("Photos: " + photos);
+            }
+
+            System.out.println("\nWould you like to make an appointment to see this vehicle?");
+            System.out.print("Enter 'yes' to make an appointment, 'similar' to see similar vehicles, " +
+                    "'cheaper' for similar vehicles at a lower price, or 'no' to go back: ");
+            String choice = scanner.nextLine().toLowerCase();
+
+            if (choice.equals("yes")) {
+                AppointmentScheduler.Slot slot = chooseSlot(scanner, vehicleId);
+                if (slot != null) {
+                    makeAppointment(userId, vehicleId, slot);
+                }
+            } else if (choice.equals("similar") || choice.equals("cheaper")) {
+                viewSimilarVehicles(scanner, userId, vehicleId, choice.equals("cheaper"));
+            } else {
+                System.out.println("Returning to the previous menu.");
+            }
         }
     }
 
-    private static void makeAppointment(Connection conn, int userId, int vehicleId, String date) {
+    private static void viewSimilarVehicles(Scanner scanner, int userId, int vehicleId, boolean cheaper) {
+        List<InventoryPager.Row> rows;
         try {
-            String query = "INSERT INTO Appointments (car_id, user_id, date) VALUES (?, ?, ?)";
-            try (PreparedStatement stmt = conn.prepareStatement(query)) {
-                stmt.setInt(1, vehicleId);
-                stmt.setInt(2, userId);
-                stmt.setString(3, date);
-
-                int rowsInserted = stmt.executeUpdate();
-                if (rowsInserted > 0) {
-                    System.out.println("Appointment created successfully!");
-                } else {
-                    System.out.println("Failed to create an appointment.");
-                }
+            rows = service.similarVehicles(vehicleId, SIMILAR_VEHICLES, cheaper);
+        } catch (Exception e) {
+            System.out.println("An error occurred while finding similar vehicles: " + e.getMessage());
+            return;
+        }
+        if (rows == null || rows.isEmpty()) {
+            System.out.println(cheaper ? "No similar vehicles at a lower price were found." : "No similar vehicles were found.");
+            return;
+        }
+        printInventoryPage(rows);
+        System.out.print("Enter a vehicle ID to view its details, or press Enter to go back: ");
+        String input = scanner.nextLine().trim();
+        if (!input.isEmpty()) {
+            try {
+                viewVehicleDetails(scanner, userId, Integer.parseInt(input));
+            } catch (NumberFormatException e) {
+                System.out.println("Invalid vehicle ID.");
             }
+        }
+    }
+
+    // Offers the free slots on a chosen day, or the next free slot when no day is given
+    private static AppointmentScheduler.Slot chooseSlot(Scanner scanner, int vehicleId) {
+        System.out.print("Enter appointment date (YYYY-MM-DD), or leave blank for the next available slot: ");
+        String input = scanner.nextLine().trim();
+        if (input.isEmpty()) {
+            AppointmentScheduler.Slot next;
+            try {
+                next = service.nextFreeSlot(vehicleId);
+            } catch (SQLException e) {
+                System.out.println("An error occurred while finding free slots: " + e.getMessage());
+                return null;
+            }
+            if (next == null) {
+                System.out.println("There are no free slots for this vehicle.");
+                return null;
+            }
+            System.out.print("The next available slot is " + next + ". Enter 'yes' to book it: ");
+            return scanner.nextLine().trim().equalsIgnoreCase("yes") ? next : null;
+        }
+
+        LocalDate date;
+        try {
+            date = LocalDate.parse(input);
+        } catch (DateTimeParseException e) {
+            System.out.println("Invalid date. Please use YYYY-MM-DD.");
+            return null;
+        }
+        List<AppointmentScheduler.Slot> free;
+        try {
+            free = service.freeSlots(vehicleId, date);
+        } catch (SQLException e) {
+            System.out.println("An error occurred while finding free slots: " + e.getMessage());
+            return null;
+        }
+        if (free.isEmpty()) {
+            System.out.println("There are no free slots for this vehicle on " + date + ".");
+            return null;
+        }
+        StringBuilder times = new StringBuilder("Free times:");
+        for (AppointmentScheduler.Slot slot : free) {
+            times.append(' ').append(slot.getStart());
+        }
+        System.out.println(times);
+        System.out.print("Enter appointment time (HH:MM): ");
+        try {
+            return AppointmentScheduler.Slot.parse(input, scanner.nextLine());
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            return null;
+        }
+    }
+
+    private static void makeAppointment(int userId, int vehicleId, AppointmentScheduler.Slot slot) {
+        try {
+            service.makeAppointment(userId, vehicleId, slot);
+            System.out.println("Appointment created successfully for " + slot + "!");
+        } catch (AppointmentScheduler.BookingException e) {
+            System.out.println("Failed to create an appointment: " + e.getMessage());
         } catch (Exception e) {
             System.out.println("An error occurred while creating the appointment: " + e.getMessage());
         }
@@ -270,7 +681,13 @@ public class Main {
             System.out.println("5. Delete a User");
             System.out.println("6. View Appointments");
             System.out.println("7. Delete an Appointment");
-            System.out.println("8. Logout");
+            System.out.println("8. Import Vehicles");
+            System.out.println("9. Export Data");
+            System.out.println("10. System Stats");
+            System.out.println("11. Database Maintenance");
+            System.out.println("12. Reports");
+            System.out.println("13. Change Feed");
+            System.out.println("14. Logout");
             System.out.print("Please select an option: ");
 
             String choice = scanner.nextLine();
@@ -298,6 +715,24 @@ public class Main {
                     deleteAppointment(scanner);
                     break;
                 case "8":
+                    importVehicles(scanner);
+                    break;
+                case "9":
+                    exportData(scanner);
+                    break;
+                case "10":
+                    viewSystemStats(scanner);
+                    break;
+                case "11":
+                    databaseMaintenance(scanner);
+                    break;
+                case "12":
+                    viewReports(scanner);
+                    break;
+                case "13":
+                    viewChangeFeed(scanner);
+                    break;
+                case "14":
                     System.out.println("Logged out successfully.");
                     return;
                 default:
@@ -310,123 +745,383 @@ public class Main {
         System.out.println("=== Add a Vehicle ===");
         System.out.println("Please provide the following details:");
 
+        Vehicle vehicle = new Vehicle();
         System.out.print("Enter Make: ");
-        String make = scanner.nextLine();
+        vehicle.setMake(scanner.nextLine());
 
         System.out.print("Enter Model: ");
-        String model = scanner.nextLine();
+        vehicle.setModel(scanner.nextLine());
 
         System.out.print("Enter Variant: ");
-        String variant = scanner.nextLine();
+        vehicle.setVariant(scanner.nextLine());
 
         System.out.print("Enter Registration Date (YYYY-MM-DD): ");
-        String registration = scanner.nextLine();
+        vehicle.setRegistration(scanner.nextLine());
 
         System.out.print("Enter Category: ");
-        String category = scanner.nextLine();
+        vehicle.setCategory(scanner.nextLine());
 
         System.out.print("Enter Price: ");
-        int price = Integer.parseInt(scanner.nextLine());
+        vehicle.setPrice(Integer.parseInt(scanner.nextLine()));
 
         System.out.print("Enter Mileage: ");
-        int mileage = Integer.parseInt(scanner.nextLine());
+        vehicle.setMileage(Integer.parseInt(scanner.nextLine()));
 
         System.out.print("Enter Fuel Type: ");
-        String fuelType = scanner.nextLine();
+        vehicle.setFuelType(scanner.nextLine());
 
         System.out.print("Enter Size: ");
-        int size = Integer.parseInt(scanner.nextLine());
+        vehicle.setSize(Integer.parseInt(scanner.nextLine()));
 
         System.out.print("Enter Engine Position: ");
-        String enginePosition = scanner.nextLine();
+        vehicle.setEnginePosition(scanner.nextLine());
 
         System.out.print("Enter Power: ");
-        int power = Integer.parseInt(scanner.nextLine());
+        vehicle.setPower(Integer.parseInt(scanner.nextLine()));
 
         System.out.print("Enter Drivetrain: ");
-        String drivetrain = scanner.nextLine();
+        vehicle.setDrivetrain(scanner.nextLine());
 
         System.out.print("Enter Transmission: ");
-        String transmission = scanner.nextLine();
+        vehicle.setTransmission(scanner.nextLine());
 
         System.out.print("Enter Colour: ");
-        String colour = scanner.nextLine();
+        vehicle.setColour(scanner.nextLine());
 
         System.out.print("Enter Interior Colour: ");
-        String interiorColour = scanner.nextLine();
+        vehicle.setInteriorColour(scanner.nextLine());
 
         System.out.print("Enter Engine Type: ");
-        String engineType = scanner.nextLine();
+        vehicle.setEngineType(scanner.nextLine());
 
         System.out.print("Enter Notes: ");
-        String notes = scanner.nextLine();
-
-        try (Connection conn = DriverManager.getConnection(DATABASE_URL)) {
-            String query = "INSERT INTO Vehicles (make, model, variant, registration, category, price, mileage, fueltype, size, engineposition, power, drivetrain, transmission, colour, interiorcolour, enginetype, notes) " +
-                           "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
-            try (PreparedStatement stmt = conn.prepareStatement(query)) {
-                stmt.setString(1, make);
-                stmt.setString(2, model);
-                stmt.setString(3, variant);
-                stmt.setString(4, registration);
-                stmt.setString(5, category);
-                stmt.setInt(6, price);
-                stmt.setInt(7, mileage);
-                stmt.setString(8, fuelType);
-                stmt.setInt(9, size);
-                stmt.setString(10, enginePosition);
-                stmt.setInt(11, power);
-                stmt.setString(12, drivetrain);
-                stmt.setString(13, transmission);
-                stmt.setString(14, colour);
-                stmt.setString(15, interiorColour);
-                stmt.setString(16, engineType);
-                stmt.setString(17, notes);
-
-                int rowsInserted = stmt.executeUpdate();
-                if (rowsInserted > 0) {
-                    System.out.println("Vehicle added successfully!");
-                } else {
-                    System.out.println("Failed to add the vehicle.");
-                }
+        vehicle.setNotes(scanner.nextLine());
+
+        try {
+            if (service.addVehicle(vehicle) > 0) {
+                System.out.println("Vehicle added successfully!");
+            } else {
+                System.out.println("Failed to add the vehicle.");
             }
         } catch (Exception e) {
             System.out.println("An error occurred while adding the vehicle: " + e.getMessage());
         }
     }
 
-    private static void deleteVehicle(Scanner scanner) {
-        System.out.println("=== Delete a Vehicle ===");
+    private static void importVehicles(Scanner scanner) {
+        System.out.println("=== Import Vehicles ===");
+        System.out.println("Accepts a CSV file with a header row of Vehicles column names, or a JSON-lines file (.jsonl) with one vehicle object per line.");
+        System.out.print("Enter the path of the file to import (or type 'back' to cancel): ");
+        String input = scanner.nextLine().trim();
+        if (input.equalsIgnoreCase("back")) {
+            return;
+        }
 
-        try (Connection conn = DriverManager.getConnection(DATABASE_URL)) {
-            String query = "SELECT id, make, model, variant FROM Vehicles";
-            try (PreparedStatement stmt = conn.prepareStatement(query);
-                 ResultSet rs = stmt.executeQuery()) {
-                System.out.println("\nAvailable Vehicles:");
-                while (rs.next()) {
-                    System.out.printf("ID: %d, Make: %s, Model: %s, Variant: %s\n",
-                            rs.getInt("id"), rs.getString("make"), rs.getString("model"), rs.getString("variant"));
+        try {
+            VehicleImporter.Report report = service.importVehicles(Paths.get(input));
+            for (String error : report.getErrors()) {
+                System.out.println(error);
+            }
+            if (report.getRowsRejected() > report.getErrors().size()) {
+                System.out.println("... " + (report.getRowsRejected() - report.getErrors().size()) + " more rejected rows not shown");
+            }
+            System.out.printf("Read %d rows, imported %d, rejected %d in %.2f seconds (%.0f rows/second)\n",
+                    report.getRowsRead(), report.getRowsImported(), report.getRowsRejected(),
+                    report.getSeconds(), report.getRowsPerSecond());
+        } catch (Exception e) {
+            System.out.println("An error occurred while importing vehicles: " + e.getMessage());
+        }
+        System.out.print("Press Enter to continue...");
+        scanner.nextLine();
+    }
+
+    private static void exportData(Scanner scanner) {
+        System.out.println("=== Export Data ===");
+        System.out.println("1. Vehicles");
+        System.out.println("2. Appointments");
+        System.out.print("Please select what to export: ");
+        String choice = scanner.nextLine();
+        DataExporter.Dataset dataset;
+        if (choice.equals("1")) {
+            dataset = DataExporter.Dataset.VEHICLES;
+        } else if (choice.equals("2")) {
+            dataset = DataExporter.Dataset.APPOINTMENTS;
+        } else {
+            System.out.println("Invalid option. Returning to the previous menu.");
+            return;
+        }
+
+        System.out.print("Format ('csv' or 'jsonl'): ");
+        DataExporter.Format format = scanner.nextLine().trim().equalsIgnoreCase("jsonl")
+                ? DataExporter.Format.JSON_LINES : DataExporter.Format.CSV;
+        System.out.print("Compress with gzip? (yes/no): ");
+        boolean gzip = scanner.nextLine().trim().equalsIgnoreCase("yes");
+        System.out.print("Only changes since the last export (new, updated and deleted rows)? (yes/no): ");
+        boolean incremental = scanner.nextLine().trim().equalsIgnoreCase("yes");
+        System.out.print("Enter the path of the file to write: ");
+        String path = scanner.nextLine().trim();
+
+        try {
+            DataExporter.Result result = service.export(dataset, format, Paths.get(path), gzip, incremental);
+            System.out.printf("Exported %d rows (%d deletions) to %s in %.2f seconds (change sequence %d)\n",
+                    result.getRows(), result.getDeletions(), path, result.getSeconds(), result.getSequence());
+            if (incremental && result.isComplete()) {
+                System.out.println("Deletions since the last export have expired from the change log, so every row was exported.");
+            }
+        } catch (Exception e) {
+            System.out.println("An error occurred while exporting data: " + e.getMessage());
+        }
+        System.out.print("Press Enter to continue...");
+        scanner.nextLine();
+    }
+
+    private static void viewSystemStats(Scanner scanner) {
+        System.out.println("=== System Stats ===");
+        System.out.print(Metrics.report());
+        System.out.println("\nCaches:");
+        for (BoundedCache.Stats stats : service.getCacheStats()) {
+            System.out.printf("%s: %d/%d entries, %d hits, %d misses (%.1f%% hit ratio), %d evicted, %d expired\n",
+                    stats.getName(), stats.getSize(), stats.getMaxEntries(), stats.getHits(), stats.getMisses(),
+                    stats.getHitRatio() * 100, stats.getEvictions(), stats.getExpirations());
+        }
+        InventorySnapshot snapshot = service.getSnapshot();
+        if (snapshot != null && snapshot.getVehicleCount() > 0) {
+            System.out.printf("Inventory snapshot: %d vehicles in about %d KB (%d bytes per vehicle)\n",
+                    snapshot.getVehicleCount(), snapshot.estimateBytes() / 1024,
+                    snapshot.estimateBytes() / snapshot.getVehicleCount());
+        }
+        SimilarVehicles similar = service.getSimilarIndex();
+        if (similar != null) {
+            System.out.printf("Similar-vehicles index: %d vehicles in about %d KB\n",
+                    similar.getVehicleCount(), similar.estimateBytes() / 1024);
+        }
+        PhotoStore store = service.getPhotoStore();
+        if (store != null) {
+            PhotoStore.Stats stats = store.getStats();
+            System.out.printf("Photo store: %d photos in %d segments, %d KB live, %d KB awaiting compaction\n",
+                    stats.getPhotos(), stats.getSegments(), stats.getLiveBytes() / 1024, stats.getDeadBytes() / 1024);
+        }
+        if (service instanceof ShardedInventoryService) {
+            System.out.println("Dealerships: " + String.join(", ", ((ShardedInventoryService) service).getSiteNames()));
+        }
+        System.out.print("Press Enter to continue...");
+        scanner.nextLine();
+    }
+
+    private static void viewReports(Scanner scanner) {
+        System.out.println("=== Reports ===");
+        LocalDate day = LocalDate.now();
+        while (true) {
+            try {
+                printReports(service.getReports(day));
+            } catch (Exception e) {
+                System.out.println("An error occurred while reading the reports: " + e.getMessage());
+            }
+
+            System.out.print("\nEnter a date to see demand for its week (YYYY-MM-DD), 'rebuild' to recalculate the reports, " +
+                             "or press Enter to return: ");
+            String input = scanner.nextLine().trim();
+            if (input.isEmpty()) {
+                return;
+            }
+            if (input.equalsIgnoreCase("rebuild")) {
+                try {
+                    service.rebuildReports();
+                    System.out.println("Reports recalculated from the vehicle and appointment tables.");
+                } catch (Exception e) {
+                    System.out.println("An error occurred while rebuilding the reports: " + e.getMessage());
                 }
+                continue;
+            }
+            try {
+                day = LocalDate.parse(input);
+            } catch (DateTimeParseException e) {
+                System.out.println("Invalid date. Please use YYYY-MM-DD.");
             }
+        }
+    }
 
-            System.out.print("\nEnter the ID of the vehicle to delete (or type 'back' to cancel): ");
-            String input = scanner.nextLine();
-            if (input.equalsIgnoreCase("back")) {
+    static void printReports(InventoryReports.Report report) {
+        System.out.println("\nStock by make and category:");
+        STOCK_TABLE.clear();
+        long vehicles = 0;
+        long value = 0;
+        for (InventoryReports.StockGroup group : report.getStock()) {
+            STOCK_TABLE.cell(orNone(group.getMake()))
+                    .cell(orNone(group.getCategory()))
+                    .cell(group.getVehicles())
+                    .cell(String.valueOf(group.getTotalPrice()))
+                    .cell(group.getUnpriced());
+            vehicles += group.getVehicles();
+            value += group.getTotalPrice();
+        }
+        STOCK_TABLE.print();
+        System.out.println("Total: " + vehicles + " vehicles worth " + value);
+
+        System.out.println("\nPrice and mileage by fuel type:");
+        FUEL_TABLE.clear();
+        for (InventoryReports.FuelGroup group : report.getFuel()) {
+            FUEL_TABLE.cell(orNone(group.getFuelType()))
+                    .cell(group.getVehicles())
+                    .cell(group.getAveragePrice() == null ? null : String.valueOf(group.getAveragePrice()))
+                    .cell(group.getAverageMileage() == null ? null : String.valueOf(group.getAverageMileage()));
+        }
+        FUEL_TABLE.print();
+
+        System.out.println("\nMost viewed vehicles, week of " + report.getWeek() + ":");
+        DEMAND_TABLE.clear();
+        for (InventoryReports.Demand demand : report.getDemand()) {
+            DEMAND_TABLE.cell(demand.getVehicleId())
+                    .cell(demand.getMake() == null ? "(deleted)" : demand.getMake())
+                    .cell(demand.getModel())
+                    .cell(demand.getAppointments());
+        }
+        DEMAND_TABLE.print();
+
+        System.out.println("\nViewings per week:");
+        WEEK_TABLE.clear();
+        for (InventoryReports.Week week : report.getWeeks()) {
+            WEEK_TABLE.cell(week.getStart().toString())
+                    .cell(week.getAppointments())
+                    .cell(week.getVehicles());
+        }
+        WEEK_TABLE.print();
+    }
+
+    private static String orNone(String value) {
+        return value.isEmpty() ? "(none)" : value;
+    }
+
+    private static void viewChangeFeed(Scanner scanner) {
+        System.out.println("=== Change Feed ===");
+        System.out.print("Show changes after sequence number (Enter for 0): ");
+        String input = scanner.nextLine().trim();
+        long sequence;
+        try {
+            sequence = input.isEmpty() ? 0 : Long.parseLong(input);
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid sequence number.");
+            return;
+        }
+        while (true) {
+            ChangeFeed.Page page;
+            try {
+                page = service.changesSince(sequence, PAGE_SIZE);
+            } catch (Exception e) {
+                System.out.println("An error occurred while reading the change feed: " + e.getMessage());
                 return;
             }
-            int vehicleId = Integer.parseInt(input);
+            printChanges(page);
+            if (page.getNext() >= page.getLatest()) {
+                System.out.print("Up to date. Press Enter to continue...");
+                scanner.nextLine();
+                return;
+            }
+            System.out.print("\nPress Enter for the next page, or type 'q' to return: ");
+            if (scanner.nextLine().trim().equalsIgnoreCase("q")) {
+                return;
+            }
+            sequence = page.getNext();
+        }
+    }
+
+    static void printChanges(ChangeFeed.Page page) {
+        if (page.isResyncRequired()) {
+            System.out.println("Deletions after this sequence number have expired; reload from 0 to resync.");
+        }
+        CHANGE_TABLE.clear();
+        for (ChangeFeed.Change change : page.getChanges()) {
+            CHANGE_TABLE.cell(String.valueOf(change.getSequence()))
+                    .cell(change.getChangedAt())
+                    .cell(change.getEntity().name().toLowerCase())
+                    .cell(change.getEntityId())
+                    .cell(change.getKind().name().toLowerCase());
+        }
+        CHANGE_TABLE.print();
+        System.out.println("Next sequence: " + page.getNext() + " (latest " + page.getLatest() + ")");
+    }
+
+    private static void databaseMaintenance(Scanner scanner) {
+        System.out.println("=== Database Maintenance ===");
+        System.out.println("Orphaned rows are purged, the change log compacted and free pages reclaimed automatically " +
+                           "while the system is idle.");
+        printMaintenanceReport(service.getMaintenanceReport());
+
+        System.out.print("\nRun maintenance now? (yes/no): ");
+        if (scanner.nextLine().trim().equalsIgnoreCase("yes")) {
+            printMaintenanceReport(service.runMaintenance());
+            try {
+                System.out.println("Photo store space reclaimed: " + service.compactPhotos() / 1024 + " KB");
+            } catch (Exception e) {
+                System.out.println("An error occurred while compacting the photo store: " + e.getMessage());
+            }
+        }
+
+        if (!service.getMaintenanceReport().isIncrementalVacuum()) {
+            System.out.println("\nThis database was created without incremental vacuum, so free pages are not returned to the filesystem.");
+            System.out.print("Rebuild it to switch incremental vacuum on? Writes wait until the rebuild finishes (yes/no): ");
+            if (scanner.nextLine().trim().equalsIgnoreCase("yes")) {
+                try {
+                    service.enableIncrementalVacuum();
+                    System.out.println("Incremental vacuum is now on.");
+                    printMaintenanceReport(service.getMaintenanceReport());
+                } catch (Exception e) {
+                    System.out.println("An error occurred while rebuilding the database: " + e.getMessage());
+                }
+            }
+        }
+        System.out.print("Press Enter to continue...");
+        scanner.nextLine();
+    }
+
+    private static void printMaintenanceReport(DatabaseMaintenance.Report report) {
+        System.out.println("\nPasses run: " + report.getRuns() + (report.getLastRun() == null ? "" : ", last at " + report.getLastRun()));
+        for (Map.Entry<String, Long> entry : report.getOrphansPurged().entrySet()) {
+            System.out.println("Orphaned " + entry.getKey() + " rows purged: " + entry.getValue());
+        }
+        for (Map.Entry<String, Long> entry : report.getChangesCompacted().entrySet()) {
+            System.out.println("Change log events removed as " + entry.getKey() + ": " + entry.getValue());
+        }
+        System.out.println("Pages reclaimed: " + report.getPagesReclaimed());
+        System.out.println("Database size: " + report.getPageCount() + " pages (" + report.getFreePages() + " free" +
+                           (report.isIncrementalVacuum() ? ")" : ", incremental vacuum off)"));
+        System.out.println("WAL checkpoints: " + report.getCheckpoints() + " completed, " + report.getBusyCheckpoints() + " blocked by readers");
+        if (report.getLastError() != null) {
+            System.out.println("Last pass failed: " + report.getLastError());
+        }
+    }
+
+    private static void deleteVehicle(Scanner scanner) {
+        System.out.println("=== Delete a Vehicle ===");
 
-            String deleteQuery = "DELETE FROM Vehicles WHERE id = ?";
-            try (PreparedStatement deleteStmt = conn.prepareStatement(deleteQuery)) {
-                deleteStmt.setInt(1, vehicleId);
+        InventoryPager pager = service.newPager(InventoryPager.SortKey.ID, PAGE_SIZE);
+        try {
+            service.firstPage(pager);
+
+            int vehicleId;
+            while (true) {
+                System.out.println("\nAvailable Vehicles:");
+                printVehicleChoices(pager.getPage());
 
-                int rowsDeleted = deleteStmt.executeUpdate();
-                if (rowsDeleted > 0) {
-                    System.out.println("Vehicle deleted successfully!");
+                System.out.print("\nEnter the ID of the vehicle to delete, 'next' or 'prev' to change page (or type 'back' to cancel): ");
+                String input = scanner.nextLine();
+                if (input.equalsIgnoreCase("back")) {
+                    return;
+                } else if (input.equalsIgnoreCase("next") || input.equalsIgnoreCase("prev")) {
+                    if (!turnPage(pager, input.equalsIgnoreCase("next"))) {
+                        System.out.println("There are no more vehicles in that direction.");
+                    }
                 } else {
-                    System.out.println("Vehicle not found.");
+                    vehicleId = Integer.parseInt(input);
+                    break;
                 }
             }
+
+            if (service.deleteVehicle(vehicleId)) {
+                System.out.println("Vehicle deleted successfully!");
+            } else {
+                System.out.println("Vehicle not found.");
+            }
         } catch (Exception e) {
             System.out.println("An error occurred while deleting the vehicle: " + e.getMessage());
         }
@@ -440,15 +1135,9 @@ public class Main {
     private static void makeUserAdmin(Scanner scanner) {
         System.out.println("=== Make a User Admin ===");
 
-        try (Connection conn = DriverManager.getConnection(DATABASE_URL)) {
-            String query = "SELECT id, email FROM Users";
-            try (PreparedStatement stmt = conn.prepareStatement(query);
-                 ResultSet rs = stmt.executeQuery()) {
-                System.out.println("\nAvailable Users:");
-                while (rs.next()) {
-                    System.out.printf("ID: %d, Email: %s\n", rs.getInt("id"), rs.getString("email"));
-                }
-            }
+        try {
+            System.out.println("\nAvailable Users:");
+            printUsers(service.listUsers());
 
             System.out.print("\nEnter the ID of the user to promote to admin (or type 'back' to cancel): ");
             String input = scanner.nextLine();
@@ -457,16 +1146,10 @@ public class Main {
             }
             int userId = Integer.parseInt(input);
 
-            String promoteQuery = "INSERT INTO Admin (id) VALUES (?)";
-            try (PreparedStatement promoteStmt = conn.prepareStatement(promoteQuery)) {
-                promoteStmt.setInt(1, userId);
-
-                int rowsInserted = promoteStmt.executeUpdate();
-                if (rowsInserted > 0) {
-                    System.out.println("User promoted to admin successfully!");
-                } else {
-                    System.out.println("Failed to promote user to admin.");
-                }
+            if (service.promoteUser(userId)) {
+                System.out.println("User promoted to admin successfully!");
+            } else {
+                System.out.println("Failed to promote user to admin.");
             }
         } catch (Exception e) {
             System.out.println("An error occurred while promoting the user: " + e.getMessage());
@@ -476,42 +1159,30 @@ public class Main {
     private static void viewAppointments(Scanner scanner) {
         System.out.println("=== View Appointments ===");
 
-        try (Connection conn = DriverManager.getConnection(DATABASE_URL)) {
-            String query = "SELECT a.id, a.date, v.make, v.model, u.email " +
-                           "FROM Appointments a " +
-                           "JOIN Vehicles v ON a.car_id = v.id " +
-                           "JOIN Users u ON a.user_id = u.id";
-            try (PreparedStatement stmt = conn.prepareStatement(query);
-                 ResultSet rs = stmt.executeQuery()) {
-                System.out.println("\nAppointments:");
-                while (rs.next()) {
-                    System.out.printf("Appointment ID: %d, Date: %s, Vehicle: %s %s, User: %s\n",
-                            rs.getInt("id"), rs.getString("date"), rs.getString("make"), rs.getString("model"),
-                            rs.getString("email"));
-                }
-            }
+        System.out.print("Enter a date to see that day's schedule (YYYY-MM-DD), or leave blank for all: ");
+        String input = scanner.nextLine().trim();
+        try {
+            LocalDate day = input.isEmpty() ? null : LocalDate.parse(input);
+            List<InventoryService.Appointment> appointments = service.listAppointments(day);
+            System.out.println("\nAppointments:");
+            printAppointments(appointments);
+        } catch (DateTimeParseException e) {
+            System.out.println("Invalid date. Please use YYYY-MM-DD.");
         } catch (Exception e) {
             System.out.println("An error occurred while retrieving appointments: " + e.getMessage());
         }
     }
 
+    private static String slotTime(InventoryService.Appointment appointment) {
+        return appointment.getTime() == null ? "any time" : appointment.getTime();
+    }
+
     private static void deleteAppointment(Scanner scanner) {
         System.out.println("=== Delete an Appointment ===");
 
-        try (Connection conn = DriverManager.getConnection(DATABASE_URL)) {
-            String query = "SELECT a.id, a.date, v.make, v.model, u.email " +
-                           "FROM Appointments a " +
-                           "JOIN Vehicles v ON a.car_id = v.id " +
-                           "JOIN Users u ON a.user_id = u.id";
-            try (PreparedStatement stmt = conn.prepareStatement(query);
-                 ResultSet rs = stmt.executeQuery()) {
-                System.out.println("\nAppointments:");
-                while (rs.next()) {
-                    System.out.printf("ID: %d, Date: %s, Vehicle: %s %s, User: %s\n",
-                            rs.getInt("id"), rs.getString("date"), rs.getString("make"), rs.getString("model"),
-                            rs.getString("email"));
-                }
-            }
+        try {
+            System.out.println("\nAppointments:");
+            printAppointments(service.listAppointments(null));
 
             System.out.print("\nEnter the ID of the appointment to delete (or type 'back' to cancel): ");
             String input = scanner.nextLine();
@@ -520,16 +1191,10 @@ public class Main {
             }
             int appointmentId = Integer.parseInt(input);
 
-            String deleteQuery = "DELETE FROM Appointments WHERE id = ?";
-            try (PreparedStatement deleteStmt = conn.prepareStatement(deleteQuery)) {
-                deleteStmt.setInt(1, appointmentId);
-
-                int rowsDeleted = deleteStmt.executeUpdate();
-                if (rowsDeleted > 0) {
-                    System.out.println("Appointment deleted successfully!");
-                } else {
-                    System.out.println("Appointment not found.");
-                }
+            if (service.deleteAppointment(appointmentId)) {
+                System.out.println("Appointment deleted successfully!");
+            } else {
+                System.out.println("Appointment not found.");
             }
         } catch (Exception e) {
             System.out.println("An error occurred while deleting the appointment: " + e.getMessage());
@@ -539,15 +1204,9 @@ public class Main {
     private static void deleteUser(Scanner scanner) {
         System.out.println("=== Delete a User ===");
 
-        try (Connection conn = DriverManager.getConnection(DATABASE_URL)) {
-            String query = "SELECT id, email FROM Users";
-            try (PreparedStatement stmt = conn.prepareStatement(query);
-                 ResultSet rs = stmt.executeQuery()) {
-                System.out.println("\nAvailable Users:");
-                while (rs.next()) {
-                    System.out.printf("ID: %d, Email: %s\n", rs.getInt("id"), rs.getString("email"));
-                }
-            }
+        try {
+            System.out.println("\nAvailable Users:");
+            printUsers(service.listUsers());
 
             System.out.print("\nEnter the ID of the user to delete (or type 'back' to cancel): ");
             String input = scanner.nextLine();
@@ -556,16 +1215,10 @@ public class Main {
             }
             int userId = Integer.parseInt(input);
 
-            String deleteQuery = "DELETE FROM Users WHERE id = ?";
-            try (PreparedStatement deleteStmt = conn.prepareStatement(deleteQuery)) {
-                deleteStmt.setInt(1, userId);
-
-                int rowsDeleted = deleteStmt.executeUpdate();
-                if (rowsDeleted > 0) {
-                    System.out.println("User deleted successfully!");
-                } else {
-                    System.out.println("User not found.");
-                }
+            if (service.deleteUser(userId)) {
+                System.out.println("User deleted successfully!");
+            } else {
+                System.out.println("User not found.");
             }
         } catch (Exception e) {
             System.out.println("An error occurred while deleting the user: " + e.getMessage());
@@ -587,14 +1240,13 @@ public class Main {
     }
 
     // Hide password input
-    private static String getPassword(String prompt) {
+    private static String getPassword(Scanner scanner, String prompt) {
         Console console = System.console();
         if (console != null) {
             char[] passwordArray = console.readPassword(prompt);
             return new String(passwordArray);
         } else {
-            // Fallback for IDEs that do not support Console
-            Scanner scanner = new Scanner(System.in);
+            // Fallback for IDEs and piped input; reuses the menu's Scanner, which may already have buffered this line
             System.out.print(prompt);
             return scanner.nextLine();
         }
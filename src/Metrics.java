@@ -0,0 +1,239 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// Process-wide latency histograms and row counters for every data operation, plus the waits that usually
+// explain a slow one: borrowing a connection, bcrypt, and writing to the console.
+// Callers take System.nanoTime() before the operation and call record() in a finally block.
+public final class Metrics {
+    public static final String MBEAN_NAME = "ImpMotor:type=Metrics";
+    private static final int REPORTED_STATEMENTS = 10;
+
+    public enum Operation {
+        LOGIN("Login"),
+        REGISTER("Register"),
+        INVENTORY_PAGE("Inventory page"),
+        SEARCH("Search"),
+        VEHICLE_DETAILS("Vehicle details"),
+        SIMILAR_VEHICLES("Similar vehicles"),
+        PHOTO_READ("Photo read"),
+        PHOTO_UPLOAD("Photo upload"),
+        ADD_VEHICLE("Add vehicle"),
+        DELETE_VEHICLE("Delete vehicle"),
+        IMPORT_VEHICLES("Import vehicles"),
+        EXPORT_DATA("Export data"),
+        BOOK_APPOINTMENT("Book appointment"),
+        LIST_APPOINTMENTS("List appointments"),
+        DELETE_APPOINTMENT("Delete appointment"),
+        LIST_USERS("List users"),
+        PROMOTE_USER("Promote user"),
+        DELETE_USER("Delete user"),
+        REPORTS("Reports"),
+        CHANGE_FEED("Change feed"),
+        MAINTENANCE("Background maintenance"),
+        GROUP_COMMIT("Group commit"),
+        READER_WAIT("Reader connection wait"),
+        WRITER_WAIT("Writer connection wait"),
+        BCRYPT("bcrypt (queue + hash)"),
+        CONSOLE_RENDER("Console rendering");
+
+        private final String label;
+        private final LatencyHistogram histogram = new LatencyHistogram();
+        private final AtomicLong rowsRead = new AtomicLong();
+        private final AtomicLong rowsWritten = new AtomicLong();
+
+        Operation(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    private static ScheduledExecutorService logger;
+
+    private Metrics() {
+    }
+
+    public static void record(Operation operation, long startNanos) {
+        operation.histogram.record(System.nanoTime() - startNanos);
+    }
+
+    public static void record(Operation operation, long startNanos, long rowsRead, long rowsWritten) {
+        operation.histogram.record(System.nanoTime() - startNanos);
+        if (rowsRead > 0) {
+            operation.rowsRead.addAndGet(rowsRead);
+        }
+        if (rowsWritten > 0) {
+            operation.rowsWritten.addAndGet(rowsWritten);
+        }
+    }
+
+    public static void reset() {
+        for (Operation operation : Operation.values()) {
+            operation.histogram.reset();
+            operation.rowsRead.set(0);
+            operation.rowsWritten.set(0);
+        }
+    }
+
+    // Operations that have run at least once, in declaration order
+    public static List<OperationStats> snapshot() {
+        List<OperationStats> stats = new ArrayList<>();
+        for (Operation operation : Operation.values()) {
+            if (operation.histogram.getCount() > 0) {
+                stats.add(new OperationStats(operation));
+            }
+        }
+        return stats;
+    }
+
+    // The statements prepared most often, busiest first
+    public static List<StatementCache.Counter> busiestStatements() {
+        List<StatementCache.Counter> counters = new ArrayList<>(StatementCache.counters());
+        counters.sort(Comparator.comparingLong((StatementCache.Counter c) -> c.getHits() + c.getMisses()).reversed());
+        return counters.subList(0, Math.min(REPORTED_STATEMENTS, counters.size()));
+    }
+
+    public static String report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-26s %9s %10s %10s %10s %10s %10s %11s %11s%n",
+                "Operation", "Count", "Mean ms", "p50 ms", "p99 ms", "p999 ms", "Max ms", "Rows read", "Rows written"));
+        for (OperationStats stats : snapshot()) {
+            sb.append(String.format("%-26s %9d %10.3f %10.3f %10.3f %10.3f %10.3f %11d %11d%n",
+                    stats.getName(), stats.getCount(), stats.getMeanMillis(), stats.getP50Millis(), stats.getP99Millis(),
+                    stats.getP999Millis(), stats.getMaxMillis(), stats.getRowsRead(), stats.getRowsWritten()));
+        }
+        sb.append(String.format("%nPrepared statements (hits / misses):%n"));
+        for (StatementCache.Counter counter : busiestStatements()) {
+            sb.append(String.format("%9d / %-6d %s%n", counter.getHits(), counter.getMisses(), counter.getSql()));
+        }
+        return sb.toString();
+    }
+
+    public static void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new Bean(), new ObjectName(MBEAN_NAME));
+        } catch (JMException e) {
+            System.out.println("Could not register the metrics MBean: " + e.getMessage());
+        }
+    }
+
+    // Appends report() to the file every intervalSeconds on a daemon thread
+    public static synchronized void startLogging(Path file, long intervalSeconds) {
+        if (logger != null) {
+            return;
+        }
+        logger = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "stats-log");
+            thread.setDaemon(true);
+            return thread;
+        });
+        logger.scheduleAtFixedRate(() -> {
+            String entry = "=== " + LocalDateTime.now() + " ===" + System.lineSeparator() + report() + System.lineSeparator();
+            try {
+                Files.write(file, entry.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            } catch (IOException e) {
+                System.out.println("An error occurred while writing the stats log: " + e.getMessage());
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    public static class OperationStats {
+        private final String name;
+        private final long count;
+        private final long meanNanos;
+        private final long p50Nanos;
+        private final long p99Nanos;
+        private final long p999Nanos;
+        private final long maxNanos;
+        private final long rowsRead;
+        private final long rowsWritten;
+
+        private OperationStats(Operation operation) {
+            LatencyHistogram histogram = operation.histogram;
+            this.name = operation.label;
+            this.count = histogram.getCount();
+            this.meanNanos = histogram.getMeanNanos();
+            this.p50Nanos = histogram.percentileNanos(0.50);
+            this.p99Nanos = histogram.percentileNanos(0.99);
+            this.p999Nanos = histogram.percentileNanos(0.999);
+            this.maxNanos = histogram.getMaxNanos();
+            this.rowsRead = operation.rowsRead.get();
+            this.rowsWritten = operation.rowsWritten.get();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMeanMillis() {
+            return meanNanos / 1_000_000.0;
+        }
+
+        public double getP50Millis() {
+            return p50Nanos / 1_000_000.0;
+        }
+
+        public double getP99Millis() {
+            return p99Nanos / 1_000_000.0;
+        }
+
+        public double getP999Millis() {
+            return p999Nanos / 1_000_000.0;
+        }
+
+        public double getMaxMillis() {
+            return maxNanos / 1_000_000.0;
+        }
+
+        public long getRowsRead() {
+            return rowsRead;
+        }
+
+        public long getRowsWritten() {
+            return rowsWritten;
+        }
+    }
+
+    private static class Bean implements MetricsMXBean {
+        @Override
+        public List<OperationStats> getOperations() {
+            return snapshot();
+        }
+
+        @Override
+        public List<StatementCache.Counter> getBusiestStatements() {
+            return busiestStatements();
+        }
+
+        @Override
+        public String getReport() {
+            return report();
+        }
+
+        @Override
+        public void reset() {
+            Metrics.reset();
+        }
+    }
+}
@@ -0,0 +1,13 @@
+import java.util.List;
+
+// Published as ImpMotor:type=Metrics so jconsole or any JMX client can read the live numbers
+public interface MetricsMXBean {
+
+    List<Metrics.OperationStats> getOperations();
+
+    List<StatementCache.Counter> getBusiestStatements();
+
+    String getReport();
+
+    void reset();
+}
@@ -0,0 +1,149 @@
+import java.sql.PreparedStatement;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.mindrot.jbcrypt.BCrypt;
+
+// Runs bcrypt on a fixed pool sized to the cores with a bounded queue. When the queue is full new work is
+// rejected immediately instead of piling up behind a login burst.
+// The cost factor is calibrated at startup to the highest value whose hash time stays within the target,
+// and hashes stored with a lower cost are upgraded after the next successful login.
+public class PasswordHasher implements AutoCloseable {
+    private static final int MIN_COST = 10;
+    private static final int MAX_COST = 16;
+    private static final long WAIT_SECONDS = 30;
+
+    private final ThreadPoolExecutor executor;
+    private final int cost;
+
+    public PasswordHasher(long targetMillis, int queueLimit) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueLimit),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "bcrypt-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        this.cost = calibrate(targetMillis);
+    }
+
+    // Each extra round doubles the work, so one timing at the minimum cost predicts the rest
+    private static int calibrate(long targetMillis) {
+        BCrypt.hashpw("calibration", BCrypt.gensalt(MIN_COST));
+        long start = System.nanoTime();
+        BCrypt.hashpw("calibration", BCrypt.gensalt(MIN_COST));
+        double millis = (System.nanoTime() - start) / 1_000_000.0;
+
+        int chosen = MIN_COST;
+        while (chosen < MAX_COST && millis * 2 <= targetMillis) {
+            millis *= 2;
+            chosen++;
+        }
+        return chosen;
+    }
+
+    public int getCost() {
+        return cost;
+    }
+
+    public int getQueuedTasks() {
+        return executor.getQueue().size();
+    }
+
+    public String hash(String password) {
+        return await(() -> BCrypt.hashpw(password, BCrypt.gensalt(cost)));
+    }
+
+    public boolean verify(String password, String hashed) {
+        if (hashed == null) {
+            return false;
+        }
+        return await(() -> BCrypt.checkpw(password, hashed));
+    }
+
+    public boolean needsRehash(String hashed) {
+        return costOf(hashed) < cost;
+    }
+
+    // Stored hashes look like $2a$10$...; the two digits after the second '$' are the cost
+    private static int costOf(String hashed) {
+        try {
+            return Integer.parseInt(hashed.substring(4, 6));
+        } catch (RuntimeException e) {
+            return 0;
+        }
+    }
+
+    // Upgrades the stored hash in the background. The update only applies if the stored hash is still the
+    // one that was verified, so a password changed in the meantime is never overwritten.
+    public void rehashLater(ConnectionPool pool, int userId, String password, String oldHash) {
+        try {
+            executor.execute(() -> {
+                try {
+                    String newHash = BCrypt.hashpw(password, BCrypt.gensalt(cost));
+                    try (ConnectionPool.Lease lease = pool.writer()) {
+                        PreparedStatement stmt = lease.prepare("UPDATE Saltpw SET saltpw = ? WHERE id = ? AND saltpw = ?");
+                        stmt.setString(1, newHash);
+                        stmt.setInt(2, userId);
+                        stmt.setString(3, oldHash);
+                        stmt.executeUpdate();
+                    }
+                } catch (Exception e) {
+                    System.out.println("An error occurred while upgrading a password hash: " + e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Busy: the upgrade will be retried on a later login
+        }
+    }
+
+    // Rejections surface as RejectedExecutionException so callers can tell "busy" apart from a wrong password
+    private <T> T await(Callable<T> task) {
+        long start = System.nanoTime();
+        try {
+            return submitAndWait(task);
+        } finally {
+            Metrics.record(Metrics.Operation.BCRYPT, start);
+        }
+    }
+
+    private <T> T submitAndWait(Callable<T> task) {
+        Future<T> future;
+        try {
+            future = executor.submit(task);
+        } catch (RejectedExecutionException e) {
+            throw new RejectedExecutionException("The system is busy, please try again shortly.", e);
+        }
+        try {
+            return future.get(WAIT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            throw new IllegalStateException("Interrupted while hashing the password", e);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw new IllegalStateException("Timed out while hashing the password", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause.getMessage(), cause);
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,727 @@
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import javax.imageio.IIOException;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+// Vehicle photos, kept out of SQLite so images never bloat the WAL or the pages behind SELECT * FROM Vehicles.
+// Photos are appended to segment files in a directory of their own; each segment is memory-mapped in full
+// and every record is a header, the photo as uploaded and a JPEG thumbnail made once at upload time.
+// An in-memory index from photo id and vehicle id to record offsets is rebuilt by scanning the segments on
+// open, so listing and reading photos never touch the database.
+//
+// Records are only ever appended; deleting a photo sets a flag in its header. Once at least half of a sealed
+// segment is deleted, the compactor copies its live photos to the end of the active segment and deletes the
+// file. Readers pin the segment they read from, so a segment being compacted stays open until they finish.
+// The last one out unmaps it straight away rather than waiting for the garbage collector, which is what
+// frees the disk space on Linux and lets Windows delete the file at all. A file that still cannot be
+// deleted is renamed to a tombstone and removed the next time the store is opened.
+//
+// Record layout: magic, flags, vehicle id, photo id, format, photo length, thumbnail length, CRC-32 of
+// the two payloads, then the payloads. A record whose magic or checksum does not match ends the segment,
+// which is how a write cut short by a crash is ignored.
+public class PhotoStore {
+    static final int MAX_PHOTO_BYTES = 16 << 20;
+    private static final long MAX_PIXELS = 50_000_000L;
+    private static final int SEGMENT_BYTES = 64 << 20;
+    private static final int HEADER_BYTES = 26;
+    private static final int MAGIC = 0x50484f54;
+    private static final byte DELETED = 1;
+    private static final int THUMBNAIL_WIDTH = 320;
+    private static final int THUMBNAIL_HEIGHT = 240;
+    private static final long COMPACT_INTERVAL_SECONDS = 60;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+    private static final String RETIRED_SUFFIX = ".retired";
+    private static final Unmapper UNMAPPER = Unmapper.find();
+
+    public enum Format {
+        JPEG("image/jpeg"),
+        PNG("image/png");
+
+        private final String contentType;
+
+        Format(String contentType) {
+            this.contentType = contentType;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+    }
+
+    private static class Segment {
+        private final int number;
+        private final Path path;
+        private final FileChannel channel;
+        private final MappedByteBuffer map;
+        // The store holds one reference until the segment is retired and every open read holds another
+        private final AtomicInteger references = new AtomicInteger(1);
+        private volatile boolean retired;
+        // Guarded by the store
+        private int used;
+        private long deadBytes;
+        private int maxPhotoId;
+
+        private Segment(int number, Path path, FileChannel channel, MappedByteBuffer map) {
+            this.number = number;
+            this.path = path;
+            this.channel = channel;
+            this.map = map;
+        }
+
+        // Mapping the full segment size up front extends a new file to that size; the unused tail stays sparse
+        private static Segment open(Path directory, int number) throws IOException {
+            Path path = directory.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            try {
+                return new Segment(number, path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_BYTES));
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        private boolean acquire() {
+            while (true) {
+                int count = references.get();
+                if (count == 0) {
+                    return false;
+                }
+                if (references.compareAndSet(count, count + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        private void release() {
+            if (references.decrementAndGet() > 0) {
+                return;
+            }
+            // Nothing can reach the mapping any more: the store has let go and no reader holds it
+            UNMAPPER.unmap(map);
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.out.println("An error occurred while closing photo segment " + path + ": " + e.getMessage());
+            }
+            if (retired) {
+                remove();
+            }
+        }
+
+        private void remove() {
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                try {
+                    Files.move(path, path.resolveSibling(path.getFileName() + RETIRED_SUFFIX));
+                } catch (IOException renameFailed) {
+                    // A compacted file left behind only holds copies; the next open marks them deleted
+                    System.out.println("An error occurred while removing photo segment " + path + ": " + e.getMessage());
+                }
+            }
+        }
+
+        private ByteBuffer slice(int offset, int length) {
+            ByteBuffer slice = map.duplicate();
+            slice.limit(offset + length);
+            slice.position(offset);
+            return slice;
+        }
+    }
+
+    // Unmaps a MappedByteBuffer through the JDK's internal cleaner: Unsafe.invokeCleaner on Java 9 and
+    // later, the buffer's own cleaner on Java 8. Looked up reflectively so the program still builds for
+    // Java 8; where neither is reachable the mapping is left to the garbage collector.
+    private static class Unmapper {
+        private final Object unsafe;
+        private final Method invokeCleaner;
+
+        private Unmapper(Object unsafe, Method invokeCleaner) {
+            this.unsafe = unsafe;
+            this.invokeCleaner = invokeCleaner;
+        }
+
+        private static Unmapper find() {
+            try {
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                Field field = unsafeClass.getDeclaredField("theUnsafe");
+                field.setAccessible(true);
+                return new Unmapper(field.get(null), invokeCleaner);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                return new Unmapper(null, null);
+            }
+        }
+
+        private void unmap(MappedByteBuffer map) {
+            try {
+                if (invokeCleaner != null) {
+                    invokeCleaner.invoke(unsafe, map);
+                    return;
+                }
+                Method cleanerMethod = map.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(map);
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                // Left for the garbage collector
+            }
+        }
+    }
+
+    public static class Photo {
+        private final int id;
+        private final int vehicleId;
+        private final Format format;
+        private final int length;
+        private final int thumbnailLength;
+        private final Segment segment;
+        private final int offset;
+
+        private Photo(int id, int vehicleId, Format format, int length, int thumbnailLength, Segment segment, int offset) {
+            this.id = id;
+            this.vehicleId = vehicleId;
+            this.format = format;
+            this.length = length;
+            this.thumbnailLength = thumbnailLength;
+            this.segment = segment;
+            this.offset = offset;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public int getVehicleId() {
+            return vehicleId;
+        }
+
+        public Format getFormat() {
+            return format;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        public int getThumbnailLength() {
+            return thumbnailLength;
+        }
+
+        private int recordLength() {
+            return HEADER_BYTES + length + thumbnailLength;
+        }
+
+        private ByteBuffer photo() {
+            return segment.slice(offset + HEADER_BYTES, length);
+        }
+
+        private ByteBuffer thumbnail() {
+            return segment.slice(offset + HEADER_BYTES + length, thumbnailLength);
+        }
+    }
+
+    // A photo or thumbnail pinned for reading; close it once sent
+    public static class Content implements AutoCloseable {
+        private final Photo photo;
+        private final boolean thumbnail;
+        private boolean closed;
+
+        private Content(Photo photo, boolean thumbnail) {
+            this.photo = photo;
+            this.thumbnail = thumbnail;
+        }
+
+        public String getContentType() {
+            return thumbnail ? Format.JPEG.getContentType() : photo.format.getContentType();
+        }
+
+        public int getLength() {
+            return thumbnail ? photo.thumbnailLength : photo.length;
+        }
+
+        // Photos go through FileChannel.transferTo, which the kernel completes without copying through the
+        // Java heap when the target is a file or socket channel; thumbnails are small and written straight
+        // from the mapped segment
+        public void transferTo(WritableByteChannel target) throws IOException {
+            long start = System.nanoTime();
+            try {
+                if (thumbnail) {
+                    ByteBuffer bytes = photo.thumbnail();
+                    while (bytes.hasRemaining()) {
+                        target.write(bytes);
+                    }
+                    return;
+                }
+                long position = photo.offset + HEADER_BYTES;
+                long remaining = photo.length;
+                while (remaining > 0) {
+                    long sent = photo.segment.channel.transferTo(position, remaining, target);
+                    position += sent;
+                    remaining -= sent;
+                }
+            } finally {
+                Metrics.record(Metrics.Operation.PHOTO_READ, start, 1, 0);
+            }
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                photo.segment.release();
+            }
+        }
+    }
+
+    private final Path directory;
+    private final Map<Integer, Photo> photos = new ConcurrentHashMap<>();
+    // Each list is replaced, never changed, and is in photo id order
+    private final Map<Integer, List<Photo>> byVehicle = new ConcurrentHashMap<>();
+    private ScheduledExecutorService compactor;
+
+    // Guarded by this
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    private Segment active;
+    private int nextPhotoId = 1;
+    private int compactions;
+    private long reclaimedBytes;
+    private boolean closed;
+
+    private PhotoStore(Path directory) {
+        this.directory = directory;
+    }
+
+    // Opens the store in the directory, creating it if need be, and indexes the photos already there
+    public static PhotoStore open(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        PhotoStore store = new PhotoStore(directory);
+        store.load();
+        return store;
+    }
+
+    private synchronized void load() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + RETIRED_SUFFIX)) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+        }
+        List<Integer> numbers = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    numbers.add(Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    System.out.println("Skipping unrecognised file in the photo store: " + file);
+                }
+            }
+        }
+        Collections.sort(numbers);
+        for (int number : numbers) {
+            Segment segment = Segment.open(directory, number);
+            segments.put(number, segment);
+            scan(segment);
+        }
+        active = segments.isEmpty() ? newSegment(1) : segments.lastEntry().getValue();
+    }
+
+    private void scan(Segment segment) {
+        MappedByteBuffer map = segment.map;
+        int position = 0;
+        while (position + HEADER_BYTES <= SEGMENT_BYTES && map.getInt(position) == MAGIC) {
+            int format = map.get(position + 13);
+            int length = map.getInt(position + 14);
+            int thumbnailLength = map.getInt(position + 18);
+            if (format < 0 || format >= Format.values().length || length < 0 || thumbnailLength < 0
+                || (long) position + HEADER_BYTES + length + thumbnailLength > SEGMENT_BYTES) {
+                break;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(segment.slice(position + HEADER_BYTES, length + thumbnailLength));
+            if ((int) crc.getValue() != map.getInt(position + 22)) {
+                break;
+            }
+            Photo photo = new Photo(map.getInt(position + 9), map.getInt(position + 5), Format.values()[format],
+                    length, thumbnailLength, segment, position);
+            if ((map.get(position + 4) & DELETED) != 0) {
+                segment.deadBytes += photo.recordLength();
+            } else {
+                // A second copy means a compaction was cut short before it deleted the old segment; keep the later one
+                Photo earlier = photos.get(photo.id);
+                if (earlier != null) {
+                    markDeleted(earlier);
+                }
+                replace(earlier, photo);
+            }
+            segment.maxPhotoId = Math.max(segment.maxPhotoId, photo.id);
+            nextPhotoId = Math.max(nextPhotoId, photo.id + 1);
+            position += photo.recordLength();
+        }
+        segment.used = position;
+    }
+
+    private Segment newSegment(int number) throws IOException {
+        Segment segment = Segment.open(directory, number);
+        segments.put(number, segment);
+        return segment;
+    }
+
+    // Starts compacting segments in the background
+    public synchronized void start() {
+        if (compactor != null) {
+            return;
+        }
+        compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "photo-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        compactor.scheduleWithFixedDelay(() -> {
+            try {
+                compact();
+            } catch (IOException e) {
+                System.out.println("An error occurred while compacting the photo store: " + e.getMessage());
+            }
+        }, COMPACT_INTERVAL_SECONDS, COMPACT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    // Stores a JPEG or PNG for the vehicle along with its thumbnail; the caller checks the vehicle exists
+    public Photo add(int vehicleId, byte[] image) throws IOException {
+        long start = System.nanoTime();
+        int written = 0;
+        try {
+            if (image.length > MAX_PHOTO_BYTES) {
+                throw new IllegalArgumentException("Photos can be at most " + (MAX_PHOTO_BYTES >> 20) + " MB.");
+            }
+            Format format = formatOf(image);
+            byte[] thumbnail = thumbnail(decode(image));
+            Photo photo;
+            synchronized (this) {
+                if (closed) {
+                    throw new IOException("The photo store is closed");
+                }
+                photo = append(nextPhotoId, vehicleId, format, ByteBuffer.wrap(image), ByteBuffer.wrap(thumbnail));
+                nextPhotoId++;
+                photo.segment.map.force();
+                replace(null, photo);
+            }
+            written = 1;
+            return photo;
+        } finally {
+            Metrics.record(Metrics.Operation.PHOTO_UPLOAD, start, 0, written);
+        }
+    }
+
+    // By the file signature
+    private static Format formatOf(byte[] image) {
+        if (image.length > 3 && (image[0] & 0xff) == 0xff && (image[1] & 0xff) == 0xd8 && (image[2] & 0xff) == 0xff) {
+            return Format.JPEG;
+        }
+        if (image.length > 8 && (image[0] & 0xff) == 0x89 && image[1] == 'P' && image[2] == 'N' && image[3] == 'G') {
+            return Format.PNG;
+        }
+        throw new IllegalArgumentException("Photos must be JPEG or PNG images.");
+    }
+
+    // The size is checked before decoding so a small file cannot claim an enormous image
+    private static BufferedImage decode(byte[] image) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(image))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                throw new IllegalArgumentException("Photos must be JPEG or PNG images.");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in);
+                if ((long) reader.getWidth(0) * reader.getHeight(0) > MAX_PIXELS) {
+                    throw new IllegalArgumentException("Photos can be at most " + MAX_PIXELS / 1_000_000 + " megapixels.");
+                }
+                return reader.read(0);
+            } catch (IIOException e) {
+                throw new IllegalArgumentException("The photo could not be read: " + e.getMessage());
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    // Fits the image within THUMBNAIL_WIDTH x THUMBNAIL_HEIGHT. Halving in steps before the last resize keeps
+    // bilinear scaling from skipping pixels on large photos; transparency is flattened onto white for JPEG.
+    static byte[] thumbnail(BufferedImage image) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        double scale = Math.min(1.0, Math.min((double) THUMBNAIL_WIDTH / width, (double) THUMBNAIL_HEIGHT / height));
+        int targetWidth = Math.max(1, (int) Math.round(width * scale));
+        int targetHeight = Math.max(1, (int) Math.round(height * scale));
+        BufferedImage current = image;
+        do {
+            width = Math.max(targetWidth, width / 2);
+            height = Math.max(targetHeight, height / 2);
+            BufferedImage smaller = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            Graphics2D graphics = smaller.createGraphics();
+            try {
+                graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                graphics.setColor(Color.WHITE);
+                graphics.fillRect(0, 0, width, height);
+                graphics.drawImage(current, 0, 0, width, height, null);
+            } finally {
+                graphics.dispose();
+            }
+            current = smaller;
+        } while (width != targetWidth || height != targetHeight);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (!ImageIO.write(current, "jpeg", out)) {
+            throw new IOException("No JPEG writer is available for thumbnails");
+        }
+        return out.toByteArray();
+    }
+
+    // Writes the payloads before the header, so a record is only recognised once all of it is in place
+    private Photo append(int id, int vehicleId, Format format, ByteBuffer photo, ByteBuffer thumbnail) throws IOException {
+        int length = photo.remaining();
+        int thumbnailLength = thumbnail.remaining();
+        if (active.used + HEADER_BYTES + length + thumbnailLength > SEGMENT_BYTES) {
+            active.map.force();
+            active = newSegment(active.number + 1);
+        }
+        Segment segment = active;
+        int offset = segment.used;
+        CRC32 crc = new CRC32();
+        crc.update(photo.duplicate());
+        crc.update(thumbnail.duplicate());
+        ByteBuffer record = segment.map.duplicate();
+        record.position(offset + HEADER_BYTES);
+        record.put(photo.duplicate()).put(thumbnail.duplicate());
+        record.position(offset);
+        record.putInt(MAGIC).put((byte) 0).putInt(vehicleId).putInt(id).put((byte) format.ordinal())
+                .putInt(length).putInt(thumbnailLength).putInt((int) crc.getValue());
+        segment.used = offset + HEADER_BYTES + length + thumbnailLength;
+        segment.maxPhotoId = Math.max(segment.maxPhotoId, id);
+        return new Photo(id, vehicleId, format, length, thumbnailLength, segment, offset);
+    }
+
+    // Swaps old for updated (either may be null) in both indexes
+    private void replace(Photo old, Photo updated) {
+        Photo any = updated != null ? updated : old;
+        if (updated != null) {
+            photos.put(updated.id, updated);
+        } else {
+            photos.remove(old.id);
+        }
+        List<Photo> list = new ArrayList<>(byVehicle.getOrDefault(any.vehicleId, Collections.emptyList()));
+        if (old != null) {
+            list.remove(old);
+        }
+        if (updated != null) {
+            list.add(updated);
+            list.sort(Comparator.comparingInt(Photo::getId));
+        }
+        if (list.isEmpty()) {
+            byVehicle.remove(any.vehicleId);
+        } else {
+            byVehicle.put(any.vehicleId, Collections.unmodifiableList(list));
+        }
+    }
+
+    private void markDeleted(Photo photo) {
+        photo.segment.map.put(photo.offset + 4, DELETED);
+        photo.segment.deadBytes += photo.recordLength();
+    }
+
+    public List<Photo> list(int vehicleId) {
+        return byVehicle.getOrDefault(vehicleId, Collections.emptyList());
+    }
+
+    // Null when there is no such photo
+    public Photo get(int photoId) {
+        return photos.get(photoId);
+    }
+
+    // Pins the photo (or its thumbnail) for reading; null when there is no such photo
+    public Content open(int photoId, boolean thumbnail) {
+        while (true) {
+            Photo photo = photos.get(photoId);
+            if (photo == null) {
+                return null;
+            }
+            if (photo.segment.acquire()) {
+                return new Content(photo, thumbnail);
+            }
+            // Its segment was compacted away just now; the index already holds the new copy
+        }
+    }
+
+    public synchronized boolean delete(int photoId) {
+        Photo photo = photos.get(photoId);
+        if (photo == null) {
+            return false;
+        }
+        markDeleted(photo);
+        photo.segment.map.force();
+        replace(photo, null);
+        return true;
+    }
+
+    // Marks all of the vehicle's photos deleted and returns how many there were
+    public synchronized int deleteVehicle(int vehicleId) {
+        List<Photo> list = byVehicle.getOrDefault(vehicleId, Collections.emptyList());
+        List<Segment> touched = new ArrayList<>();
+        for (Photo photo : list) {
+            markDeleted(photo);
+            if (!touched.contains(photo.segment)) {
+                touched.add(photo.segment);
+            }
+            replace(photo, null);
+        }
+        for (Segment segment : touched) {
+            segment.map.force();
+        }
+        return list.size();
+    }
+
+    // Moves the live photos out of every sealed segment that is at least half deleted and removes the segment.
+    // A segment holding the highest photo id so far is kept until a newer upload lands in the active segment,
+    // because ids are recovered from the records on open and must never be handed out twice. Returns the bytes
+    // reclaimed.
+    public synchronized long compact() throws IOException {
+        long reclaimed = 0;
+        if (closed) {
+            return reclaimed;
+        }
+        for (Segment segment : new ArrayList<>(segments.values())) {
+            if (segment == active || segment.deadBytes == 0 || segment.deadBytes * 2 < segment.used
+                || segment.maxPhotoId >= active.maxPhotoId) {
+                continue;
+            }
+            List<Photo> live = new ArrayList<>();
+            for (Photo photo : photos.values()) {
+                if (photo.segment == segment) {
+                    live.add(photo);
+                }
+            }
+            live.sort(Comparator.comparingInt(photo -> photo.offset));
+            for (Photo photo : live) {
+                replace(photo, append(photo.id, photo.vehicleId, photo.format, photo.photo(), photo.thumbnail()));
+            }
+            // The copies must be durable before the originals go
+            active.map.force();
+            segments.remove(segment.number);
+            segment.retired = true;
+            segment.release();
+            reclaimed += segment.deadBytes;
+            compactions++;
+        }
+        reclaimedBytes += reclaimed;
+        return reclaimed;
+    }
+
+    public synchronized Stats getStats() {
+        long used = 0;
+        long dead = 0;
+        for (Segment segment : segments.values()) {
+            used += segment.used;
+            dead += segment.deadBytes;
+        }
+        return new Stats(photos.size(), segments.size(), used - dead, dead, compactions, reclaimedBytes);
+    }
+
+    // Segments a reader still holds are unmapped when it finishes
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (compactor != null) {
+            compactor.shutdownNow();
+        }
+        photos.clear();
+        byVehicle.clear();
+        for (Segment segment : segments.values()) {
+            segment.map.force();
+            segment.release();
+        }
+        segments.clear();
+        active = null;
+    }
+
+    public static class Stats {
+        private final int photos;
+        private final int segments;
+        private final long liveBytes;
+        private final long deadBytes;
+        private final int compactions;
+        private final long reclaimedBytes;
+
+        private Stats(int photos, int segments, long liveBytes, long deadBytes, int compactions, long reclaimedBytes) {
+            this.photos = photos;
+            this.segments = segments;
+            this.liveBytes = liveBytes;
+            this.deadBytes = deadBytes;
+            this.compactions = compactions;
+            this.reclaimedBytes = reclaimedBytes;
+        }
+
+        public int getPhotos() {
+            return photos;
+        }
+
+        public int getSegments() {
+            return segments;
+        }
+
+        // Bytes held by live records, headers and thumbnails included
+        public long getLiveBytes() {
+            return liveBytes;
+        }
+
+        // Bytes held by deleted records that compaction has not reclaimed yet
+        public long getDeadBytes() {
+            return deadBytes;
+        }
+
+        // Segments compacted and bytes reclaimed since the store was opened
+        public int getCompactions() {
+            return compactions;
+        }
+
+        public long getReclaimedBytes() {
+            return reclaimedBytes;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+// Brings car_inventory.db up to the schema this build expects. The applied version is kept in
+// PRAGMA user_version; each migration runs in its own transaction together with the version bump,
+// so a failed migration leaves the database at the previous version and is retried on the next start.
+public class SchemaMigrator {
+    // Vehicles columns indexed for full-text search, in VehicleText column order
+    static final String VEHICLE_TEXT_COLUMNS = "make, model, variant, category, colour, interiorcolour, fueltype, " +
+                                               "transmission, drivetrain, enginetype, notes";
+    private static final List<Migration> MIGRATIONS = new ArrayList<>();
+
+    static {
+        add("Inventory browsing and search indexes",
+                "CREATE INDEX IF NOT EXISTS idx_vehicles_price ON Vehicles (price)",
+                "CREATE INDEX IF NOT EXISTS idx_vehicles_mileage ON Vehicles (mileage)",
+                "CREATE INDEX IF NOT EXISTS idx_vehicles_registration ON Vehicles (registration)",
+                "CREATE INDEX IF NOT EXISTS idx_vehicles_make_model ON Vehicles (make COLLATE NOCASE, model COLLATE NOCASE, price)",
+                "CREATE INDEX IF NOT EXISTS idx_vehicles_category_price ON Vehicles (category COLLATE NOCASE, price)",
+                "CREATE INDEX IF NOT EXISTS idx_vehicles_fueltype_price ON Vehicles (fueltype COLLATE NOCASE, price)",
+                "CREATE INDEX IF NOT EXISTS idx_vehicles_transmission_drivetrain ON Vehicles (transmission COLLATE NOCASE, drivetrain COLLATE NOCASE)",
+                "CREATE INDEX IF NOT EXISTS idx_vehicles_drivetrain ON Vehicles (drivetrain COLLATE NOCASE)");
+        add("Login and appointment lookup indexes",
+                "CREATE UNIQUE INDEX IF NOT EXISTS idx_users_email ON Users (email)",
+                "CREATE INDEX IF NOT EXISTS idx_saltpw_id ON Saltpw (id)",
+                "CREATE INDEX IF NOT EXISTS idx_admin_id ON Admin (id)",
+                "CREATE INDEX IF NOT EXISTS idx_appointments_car_date ON Appointments (car_id, date)",
+                "CREATE INDEX IF NOT EXISTS idx_appointments_user ON Appointments (user_id)");
+        // last_seq is the change log sequence (see ChangeFeed) each dataset was last exported up to
+        add("Export markers for incremental exports",
+                "CREATE TABLE IF NOT EXISTS ExportMarkers (dataset VARCHAR(50) PRIMARY KEY, last_seq INTEGER NOT NULL, exported_at DATE)");
+        add("Appointment time slots",
+                "ALTER TABLE Appointments ADD COLUMN slot_time VARCHAR(5)",
+                "CREATE UNIQUE INDEX IF NOT EXISTS idx_appointments_car_slot ON Appointments (car_id, date, slot_time) WHERE slot_time IS NOT NULL",
+                "CREATE INDEX IF NOT EXISTS idx_appointments_date_slot ON Appointments (date, slot_time)");
+        // External-content FTS5 index over the descriptive columns; the triggers keep it in step with Vehicles
+        // and 'rebuild' backfills the rows that already exist
+        add("Full-text vehicle search",
+                "CREATE VIRTUAL TABLE IF NOT EXISTS VehicleText USING fts5(" + VEHICLE_TEXT_COLUMNS + ", " +
+                        "content='Vehicles', content_rowid='id', tokenize='unicode61 remove_diacritics 2')",
+                "CREATE TRIGGER IF NOT EXISTS vehicles_text_insert AFTER INSERT ON Vehicles BEGIN " +
+                        "INSERT INTO VehicleText (rowid, " + VEHICLE_TEXT_COLUMNS + ") VALUES (new.id, " + columns("new") + "); END",
+                "CREATE TRIGGER IF NOT EXISTS vehicles_text_delete AFTER DELETE ON Vehicles BEGIN " +
+                        "INSERT INTO VehicleText (VehicleText, rowid, " + VEHICLE_TEXT_COLUMNS + ") VALUES ('delete', old.id, " + columns("old") + "); END",
+                "CREATE TRIGGER IF NOT EXISTS vehicles_text_update AFTER UPDATE ON Vehicles BEGIN " +
+                        "INSERT INTO VehicleText (VehicleText, rowid, " + VEHICLE_TEXT_COLUMNS + ") VALUES ('delete', old.id, " + columns("old") + "); " +
+                        "INSERT INTO VehicleText (rowid, " + VEHICLE_TEXT_COLUMNS + ") VALUES (new.id, " + columns("new") + "); END",
+                "INSERT INTO VehicleText (VehicleText) VALUES ('rebuild')");
+        // Summary tables for the admin reports; the triggers keep them in step and the rebuild fills them
+        add("Reporting summaries", concat(InventoryReports.SCHEMA, InventoryReports.REBUILD));
+        // Change log for downstream sync; the triggers record every change and the backfill records the rows
+        // that already exist as inserts
+        add("Change log", concat(ChangeFeed.SCHEMA, ChangeFeed.BACKFILL));
+    }
+
+    private static String[] concat(String[] first, String[] second) {
+        String[] all = new String[first.length + second.length];
+        System.arraycopy(first, 0, all, 0, first.length);
+        System.arraycopy(second, 0, all, first.length, second.length);
+        return all;
+    }
+
+    private static String columns(String row) {
+        StringBuilder sb = new StringBuilder();
+        for (String column : VEHICLE_TEXT_COLUMNS.split(", ")) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(row).append('.').append(column);
+        }
+        return sb.toString();
+    }
+
+    private static void add(String description, String... statements) {
+        MIGRATIONS.add(new Migration(MIGRATIONS.size() + 1, description, statements));
+    }
+
+    public static int latestVersion() {
+        return MIGRATIONS.size();
+    }
+
+    public static void migrate(ConnectionPool pool) throws SQLException {
+        try (ConnectionPool.Lease lease = pool.writer();
+             Statement stmt = lease.connection().createStatement()) {
+            Connection conn = lease.connection();
+            int version = currentVersion(stmt);
+            if (version > latestVersion()) {
+                throw new SQLException("Database schema version " + version + " is newer than this program supports (" + latestVersion() + ")");
+            }
+
+            boolean migrated = false;
+            for (Migration migration : MIGRATIONS) {
+                if (migration.version <= version) {
+                    continue;
+                }
+                conn.setAutoCommit(false);
+                try {
+                    for (String sql : migration.statements) {
+                        stmt.execute(sql);
+                    }
+                    stmt.execute("PRAGMA user_version = " + migration.version);
+                    conn.commit();
+                } catch (SQLException e) {
+                    conn.rollback();
+                    throw new SQLException("Migration " + migration.version + " (" + migration.description + ") failed: " + e.getMessage(), e);
+                } finally {
+                    conn.setAutoCommit(true);
+                }
+                System.out.println("Applied schema migration " + migration.version + ": " + migration.description);
+                migrated = true;
+            }
+
+            // New indexes need fresh statistics before the planner will trust them; otherwise a cheap refresh is enough
+            if (migrated) {
+                stmt.execute("ANALYZE");
+            }
+            stmt.execute("PRAGMA optimize");
+        }
+    }
+
+    private static int currentVersion(Statement stmt) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery("PRAGMA user_version")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    private static class Migration {
+        private final int version;
+        private final String description;
+        private final String[] statements;
+
+        private Migration(int version, String description, String[] statements) {
+            this.version = version;
+            this.description = description;
+            this.statements = statements;
+        }
+    }
+}
@@ -0,0 +1,432 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Runs a script of commands against the service without prompts, one command per line, so sessions can be
+// automated and replayed. Words are separated by spaces; a word containing spaces can be double-quoted.
+// Blank lines and lines starting with # are skipped. A failing command is reported with its line number
+// and the script carries on.
+//
+//   login <email> <password>                 register <email> <first name> <last name> <password>
+//   logout
+//   list [id|price|mileage|registration] [page size]
+//   next, prev                               turn the page of the last list
+//   search [name=value ...]                  filters as for GET /api/vehicles (q= for keywords), plus
+//                                            after= (or offset= with q) and limit=
+//   view <vehicle id>
+//   similar <vehicle id> [cheaper] [count]  vehicles most like it, optionally only cheaper ones (default 5)
+//   photos <vehicle id>
+//   save-photo <photo id> <file> [thumbnail] writes the photo (or its thumbnail) to a file
+//   slots <vehicle id> [YYYY-MM-DD]          free times that day, or the next free slot
+//   book <vehicle id> <YYYY-MM-DD> <HH:MM>
+//
+// Admin only:
+//   add name=value ...                       columns as in the CSV import, e.g. make=Ford model=Focus price=9000
+//   upload-photo <vehicle id> <file>         a JPEG or PNG
+//   delete vehicle|user|appointment|photo <id>
+//   promote <user id>
+//   users
+//   appointments [YYYY-MM-DD]
+//   stats
+//   reports [YYYY-MM-DD]                     demand is shown for the week containing the date (default today)
+//   rebuild-reports
+//   changes [sequence] [limit]               changes after the sequence number (default 0), oldest first
+public class ScriptRunner {
+    private static final int DEFAULT_PAGE_SIZE = 20;
+    private static final int DEFAULT_SIMILAR = 5;
+    private static final int DEFAULT_CHANGES = 100;
+
+    private final InventoryService service;
+    private int userId = -1;
+    private boolean admin;
+    private InventoryPager pager;
+
+    public ScriptRunner(InventoryService service) {
+        this.service = service;
+    }
+
+    // Returns the number of commands that failed
+    public int run(BufferedReader in) throws IOException {
+        int failures = 0;
+        int lineNumber = 0;
+        String line;
+        while ((line = in.readLine()) != null) {
+            lineNumber++;
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                continue;
+            }
+            System.out.println("> " + trimmed);
+            try {
+                execute(split(trimmed));
+            } catch (Exception e) {
+                System.out.println("Line " + lineNumber + " failed: " + e.getMessage());
+                failures++;
+            }
+        }
+        return failures;
+    }
+
+    private void execute(List<String> words) throws Exception {
+        String command = words.get(0).toLowerCase();
+        List<String> args = words.subList(1, words.size());
+        switch (command) {
+            case "login":
+                login(args);
+                break;
+            case "register":
+                expect(args, 4, "register <email> <first name> <last name> <password>");
+                int id = service.register(args.get(0), args.get(1), args.get(2), args.get(3));
+                if (id < 0) {
+                    throw new IllegalStateException("Registration failed");
+                }
+                System.out.println("Registered user " + id);
+                break;
+            case "logout":
+                userId = -1;
+                admin = false;
+                pager = null;
+                System.out.println("Logged out");
+                break;
+            case "list":
+                list(args);
+                break;
+            case "next":
+            case "prev":
+                turnPage(command.equals("next"));
+                break;
+            case "search":
+                search(args);
+                break;
+            case "view":
+                view(args);
+                break;
+            case "similar":
+                similar(args);
+                break;
+            case "photos":
+                photos(args);
+                break;
+            case "save-photo":
+                savePhoto(args);
+                break;
+            case "upload-photo":
+                requireAdmin();
+                expect(args, 2, "upload-photo <vehicle id> <file>");
+                PhotoStore.Photo photo = service.addPhoto(number(args.get(0)), Files.readAllBytes(Paths.get(args.get(1))));
+                if (photo == null) {
+                    throw new IllegalArgumentException("Vehicle not found");
+                }
+                System.out.println("Added photo " + photo.getId());
+                break;
+            case "slots":
+                slots(args);
+                break;
+            case "book":
+                book(args);
+                break;
+            case "add":
+                requireAdmin();
+                Vehicle vehicle = Vehicle.fromMap(new LinkedHashMap<String, Object>(params(args)));
+                System.out.println("Added vehicle " + service.addVehicle(vehicle));
+                break;
+            case "delete":
+                delete(args);
+                break;
+            case "promote":
+                requireAdmin();
+                expect(args, 1, "promote <user id>");
+                report(service.promoteUser(number(args.get(0))), "Promoted user " + args.get(0), "User not found");
+                break;
+            case "users":
+                requireAdmin();
+                Main.printUsers(service.listUsers());
+                break;
+            case "appointments":
+                requireAdmin();
+                Main.printAppointments(service.listAppointments(args.isEmpty() ? null : date(args.get(0))));
+                break;
+            case "stats":
+                requireAdmin();
+                System.out.print(Metrics.report());
+                break;
+            case "reports":
+                requireAdmin();
+                Main.printReports(service.getReports(args.isEmpty() ? LocalDate.now() : date(args.get(0))));
+                break;
+            case "rebuild-reports":
+                requireAdmin();
+                service.rebuildReports();
+                System.out.println("Reports rebuilt");
+                break;
+            case "changes":
+                requireAdmin();
+                if (args.size() > 2) {
+                    throw new IllegalArgumentException("Usage: changes [sequence] [limit]");
+                }
+                long sequence = args.isEmpty() ? 0 : number(args.get(0));
+                Main.printChanges(service.changesSince(sequence, args.size() > 1 ? number(args.get(1)) : DEFAULT_CHANGES));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown command '" + words.get(0) + "'");
+        }
+    }
+
+    private void login(List<String> args) throws Exception {
+        expect(args, 2, "login <email> <password>");
+        InventoryService.LoginResult result = service.login(args.get(0), args.get(1));
+        switch (result.getStatus()) {
+            case SUCCESS:
+                userId = result.getUserId();
+                admin = result.isAdmin();
+                System.out.println("Logged in as user " + userId + (admin ? " (admin)" : ""));
+                break;
+            case UNKNOWN_USER:
+                throw new IllegalArgumentException("User not found");
+            default:
+                throw new IllegalArgumentException("Incorrect password");
+        }
+    }
+
+    private void list(List<String> args) throws Exception {
+        requireLogin();
+        InventoryPager.SortKey sortKey = InventoryPager.SortKey.ID;
+        if (!args.isEmpty()) {
+            try {
+                sortKey = InventoryPager.SortKey.valueOf(args.get(0).toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown sort key '" + args.get(0) + "'");
+            }
+        }
+        int pageSize = args.size() > 1 ? number(args.get(1)) : DEFAULT_PAGE_SIZE;
+        pager = service.newPager(sortKey, pageSize);
+        Main.printInventoryPage(service.firstPage(pager));
+    }
+
+    private void turnPage(boolean forward) throws Exception {
+        if (pager == null) {
+            throw new IllegalStateException("Run 'list' first");
+        }
+        if (!service.turnPage(pager, forward)) {
+            throw new IllegalStateException("There are no more vehicles in that direction");
+        }
+        Main.printInventoryPage(pager.getPage());
+    }
+
+    private void search(List<String> args) throws Exception {
+        requireLogin();
+        Map<String, String> params = params(args);
+        VehicleSearch.Criteria criteria = VehicleSearch.Criteria.fromParams(params);
+        int limit = params.containsKey("limit") ? number(params.get("limit")) : DEFAULT_PAGE_SIZE;
+        if (criteria.hasText()) {
+            int offset = params.containsKey("offset") ? number(params.get("offset")) : 0;
+            Main.printInventoryPage(service.rankedSearch(criteria, offset, limit));
+        } else {
+            int after = params.containsKey("after") ? number(params.get("after")) : 0;
+            Main.printInventoryPage(service.search(criteria, after, limit));
+        }
+    }
+
+    private void view(List<String> args) throws Exception {
+        requireLogin();
+        expect(args, 1, "view <vehicle id>");
+        Vehicle vehicle = service.getVehicle(number(args.get(0)));
+        if (vehicle == null) {
+            throw new IllegalArgumentException("Vehicle not found");
+        }
+        for (Map.Entry<String, Object> field : vehicle.toMap().entrySet()) {
+            System.out.println(field.getKey() + ": " + (field.getValue() == null ? "" : field.getValue()));
+        }
+    }
+
+    private void similar(List<String> args) throws Exception {
+        requireLogin();
+        if (args.isEmpty() || args.size() > 3) {
+            throw new IllegalArgumentException("Usage: similar <vehicle id> [cheaper] [count]");
+        }
+        boolean cheaper = args.size() > 1 && args.get(1).equalsIgnoreCase("cheaper");
+        int count = DEFAULT_SIMILAR;
+        if (args.size() > (cheaper ? 2 : 1)) {
+            count = number(args.get(args.size() - 1));
+        }
+        List<InventoryPager.Row> rows = service.similarVehicles(number(args.get(0)), count, cheaper);
+        if (rows == null) {
+            throw new IllegalArgumentException("Vehicle not found");
+        }
+        Main.printInventoryPage(rows);
+    }
+
+    private void photos(List<String> args) {
+        requireLogin();
+        expect(args, 1, "photos <vehicle id>");
+        List<PhotoStore.Photo> photos = service.listPhotos(number(args.get(0)));
+        if (photos.isEmpty()) {
+            System.out.println("No photos");
+        }
+        for (PhotoStore.Photo photo : photos) {
+            System.out.println(photo.getId() + ": " + photo.getFormat().getContentType() + ", " + photo.getLength() +
+                               " bytes (thumbnail " + photo.getThumbnailLength() + " bytes)");
+        }
+    }
+
+    private void savePhoto(List<String> args) throws IOException {
+        requireLogin();
+        boolean thumbnail = args.size() == 3 && args.get(2).equalsIgnoreCase("thumbnail");
+        if (args.size() != 2 && !thumbnail) {
+            throw new IllegalArgumentException("Usage: save-photo <photo id> <file> [thumbnail]");
+        }
+        try (PhotoStore.Content content = service.openPhoto(number(args.get(0)), thumbnail)) {
+            if (content == null) {
+                throw new IllegalArgumentException("Photo not found");
+            }
+            try (FileChannel out = FileChannel.open(Paths.get(args.get(1)), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                content.transferTo(out);
+            }
+            System.out.println("Saved " + content.getLength() + " bytes to " + args.get(1));
+        }
+    }
+
+    private void slots(List<String> args) throws Exception {
+        requireLogin();
+        if (args.isEmpty()) {
+            throw new IllegalArgumentException("Usage: slots <vehicle id> [YYYY-MM-DD]");
+        }
+        int vehicleId = number(args.get(0));
+        if (args.size() == 1) {
+            AppointmentScheduler.Slot slot = service.nextFreeSlot(vehicleId);
+            System.out.println(slot == null ? "No free slots" : "Next free slot: " + slot);
+            return;
+        }
+        List<String> times = new ArrayList<>();
+        for (AppointmentScheduler.Slot slot : service.freeSlots(vehicleId, date(args.get(1)))) {
+            times.add(slot.getStart().toString());
+        }
+        System.out.println(times.isEmpty() ? "No free slots" : String.join(" ", times));
+    }
+
+    private void book(List<String> args) throws Exception {
+        requireLogin();
+        expect(args, 3, "book <vehicle id> <YYYY-MM-DD> <HH:MM>");
+        AppointmentScheduler.Slot slot = AppointmentScheduler.Slot.parse(args.get(1), args.get(2));
+        int appointmentId = service.makeAppointment(userId, number(args.get(0)), slot);
+        System.out.println("Booked appointment " + appointmentId + " at " + slot);
+    }
+
+    private void delete(List<String> args) throws Exception {
+        requireAdmin();
+        expect(args, 2, "delete vehicle|user|appointment|photo <id>");
+        int id = number(args.get(1));
+        switch (args.get(0).toLowerCase()) {
+            case "vehicle":
+                report(service.deleteVehicle(id), "Deleted vehicle " + id, "Vehicle not found");
+                break;
+            case "user":
+                report(service.deleteUser(id), "Deleted user " + id, "User not found");
+                break;
+            case "appointment":
+                report(service.deleteAppointment(id), "Deleted appointment " + id, "Appointment not found");
+                break;
+            case "photo":
+                report(service.deletePhoto(id), "Deleted photo " + id, "Photo not found");
+                break;
+            default:
+                throw new IllegalArgumentException("Usage: delete vehicle|user|appointment|photo <id>");
+        }
+    }
+
+    private static void report(boolean done, String success, String failure) {
+        if (!done) {
+            throw new IllegalStateException(failure);
+        }
+        System.out.println(success);
+    }
+
+    private void requireLogin() {
+        if (userId < 0) {
+            throw new IllegalStateException("Log in first");
+        }
+    }
+
+    private void requireAdmin() {
+        requireLogin();
+        if (!admin) {
+            throw new IllegalStateException("Admin access required");
+        }
+    }
+
+    private static void expect(List<String> args, int count, String usage) {
+        if (args.size() != count) {
+            throw new IllegalArgumentException("Usage: " + usage);
+        }
+    }
+
+    private static int number(String text) {
+        try {
+            return Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("'" + text + "' is not a whole number");
+        }
+    }
+
+    private static LocalDate date(String text) {
+        try {
+            return LocalDate.parse(text);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Dates must be YYYY-MM-DD");
+        }
+    }
+
+    private static Map<String, String> params(List<String> args) {
+        Map<String, String> params = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException("Expected name=value but got '" + arg + "'");
+            }
+            params.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        return params;
+    }
+
+    // Splits on spaces, keeping double-quoted text (which may contain spaces) together
+    private static List<String> split(String line) {
+        List<String> words = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+        boolean quoted = false;
+        boolean inWord = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+                inWord = true;
+            } else if (Character.isWhitespace(c) && !quoted) {
+                if (inWord) {
+                    words.add(word.toString());
+                    word.setLength(0);
+                    inWord = false;
+                }
+            } else {
+                word.append(c);
+                inWord = true;
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("Unclosed quote");
+        }
+        if (inWord) {
+            words.add(word.toString());
+        }
+        return words;
+    }
+}
@@ -0,0 +1,962 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+// One inventory across several dealerships, each with its own database file and so its own writer. This
+// process runs at one of them (its "own" site, served by the InventoryService this class extends) and holds
+// a lock file beside that database for as long as it runs, so no other process serves or writes the same
+// site. The other sites are read through read-only InventoryServices, which cache nothing, because the
+// process serving a site changes its file without telling anyone. A change to another site is made here only
+// while no process serves it, under that site's lock; otherwise it is refused with ForeignSiteException and
+// has to be made through the site's own process.
+//
+// Ids are group-wide: the site's position in the dealership list sits in the top bits and the site's own
+// row id below it, so the first site's ids are unchanged and an id alone says which file holds the row.
+// Vehicles added and users registered here go into this site's file; a booking goes to the vehicle's site,
+// which gets a password-less account under the customer's email to hang it on. Listings, searches, the user
+// list and the appointment view ask every site at once and merge their sorted answers.
+//
+// Imports, exports, maintenance, reports, the change feed and the in-memory snapshot stay with this site's own
+// database; each site keeps its own change sequence, so the feed read here covers this site only. Photos
+// uploaded through this process go into its photo store under group-wide ids, whichever site has the vehicle,
+// and only this process can list or serve them; other processes have photo stores of their own.
+public class ShardedInventoryService extends InventoryService {
+    private static final int LOCAL_ID_BITS = 24;
+    private static final int MAX_LOCAL_ID = (1 << LOCAL_ID_BITS) - 1;
+    private static final int MAX_SITES = 127;
+    // Another process may be holding a site's lock for a moment to change it
+    private static final long OWNERSHIP_WAIT_MILLIS = 5_000;
+    private static final long OWNERSHIP_RETRY_MILLIS = 100;
+    // Everything needed to recreate this site's schema, in the order it was created. SQLite's own tables and
+    // the tables behind a full-text index are left out; creating the index makes those.
+    private static final String SCHEMA_QUERY = "SELECT sql FROM sqlite_master m WHERE sql IS NOT NULL " +
+            "AND name NOT LIKE 'sqlite\\_%' ESCAPE '\\' AND NOT EXISTS (SELECT 1 FROM sqlite_master v " +
+            "WHERE v.sql LIKE 'CREATE VIRTUAL TABLE%' AND m.name LIKE v.name || '\\_%' ESCAPE '\\') ORDER BY rowid";
+
+    private static final Comparator<InventoryPager.Row> ID_ORDER = Comparator.comparingInt(InventoryPager.Row::getId);
+    private static final Comparator<InventoryService.Appointment> APPOINTMENT_ORDER = (a, b) -> {
+        int byDate = a.getDate().compareTo(b.getDate());
+        if (byDate != 0) {
+            return byDate;
+        }
+        if (a.getTime() == null || b.getTime() == null) {
+            if (a.getTime() != b.getTime()) {
+                return a.getTime() == null ? -1 : 1;
+            }
+        } else if (!a.getTime().equals(b.getTime())) {
+            return a.getTime().compareTo(b.getTime());
+        }
+        return Integer.compare(a.getId(), b.getId());
+    };
+
+    private static class Site {
+        private final int index;
+        private final String name;
+        // Read-only; null for this process's own site, whose calls go to super
+        private final InventoryService service;
+        private final FileChannel lockChannel;
+        // Held by the thread changing another site: the file lock keeps other processes out, and this keeps
+        // this process's threads apart, as one JVM cannot lock the same file twice
+        private final ReentrantLock claimLock = new ReentrantLock();
+        // Made by the first change to another site; guarded by claimLock
+        private InventoryService writer;
+
+        private Site(int index, String name, InventoryService service, FileChannel lockChannel) {
+            this.index = index;
+            this.name = name;
+            this.service = service;
+            this.lockChannel = lockChannel;
+        }
+    }
+
+    // A change to a dealership that another process serves
+    public static class ForeignSiteException extends IllegalStateException {
+        private static final long serialVersionUID = 1L;
+
+        private ForeignSiteException(String site) {
+            super("This belongs to dealership '" + site + "', which another process serves; make the change there");
+        }
+    }
+
+    // The sites locked for one change
+    private static class Claim {
+        private final List<Site> sites = new ArrayList<>();
+        private final List<FileLock> locks = new ArrayList<>();
+
+        private void release() {
+            for (int i = sites.size() - 1; i >= 0; i--) {
+                try {
+                    locks.get(i).release();
+                } catch (IOException e) {
+                    System.out.println("An error occurred while unlocking dealership '" + sites.get(i).name + "': " + e.getMessage());
+                }
+                sites.get(i).claimLock.unlock();
+            }
+        }
+    }
+
+    private interface SiteCall<T> {
+        T call(Site site) throws Exception;
+    }
+
+    private final List<Site> sites = new ArrayList<>();
+    private final List<ConnectionPool> otherPools = new ArrayList<>();
+    // One per site, open for as long as this service is; closing this site's gives up serving it
+    private final List<FileChannel> lockChannels = new ArrayList<>();
+    // Beside the first dealership's database, and shared by every process in the group; also in lockChannels
+    private final FileChannel registrationChannel;
+    private final PasswordHasher hasher;
+    private final ExecutorService executor;
+
+    // pool is this site's database, already migrated; databases maps every dealership (this one included)
+    // to its file, in the order that fixes their ids. Fails if another process already serves this site.
+    public ShardedInventoryService(ConnectionPool pool, String site, Map<String, String> databases,
+                                   PasswordHasher hasher, int readerConnections) throws SQLException, IOException {
+        super(pool, hasher);
+        this.hasher = hasher;
+        if (!databases.containsKey(site)) {
+            throw new IllegalArgumentException("Unknown dealership '" + site + "'");
+        }
+        if (databases.size() > MAX_SITES) {
+            throw new IllegalArgumentException("At most " + MAX_SITES + " dealerships are supported");
+        }
+        try {
+            registrationChannel = FileChannel.open(Paths.get(databases.values().iterator().next() + ".registration-lock"),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            lockChannels.add(registrationChannel);
+            for (Map.Entry<String, String> database : databases.entrySet()) {
+                FileChannel lockChannel = FileChannel.open(Paths.get(database.getValue() + ".site-lock"),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                lockChannels.add(lockChannel);
+                InventoryService service = null;
+                if (database.getKey().equals(site)) {
+                    own(lockChannel, site);
+                } else {
+                    ConnectionPool sitePool = new ConnectionPool("jdbc:sqlite:" + database.getValue(), readerConnections);
+                    otherPools.add(sitePool);
+                    // A served site's process has already set up its file
+                    try (FileLock setup = lockChannel.tryLock()) {
+                        if (setup != null) {
+                            copySchema(pool, sitePool);
+                            SchemaMigrator.migrate(sitePool);
+                        }
+                    }
+                    service = new InventoryService(sitePool, hasher, true);
+                }
+                sites.add(new Site(sites.size(), database.getKey(), service, lockChannel));
+            }
+        } catch (SQLException | IOException | RuntimeException e) {
+            closeSites();
+            throw e;
+        }
+        // Enough threads for every site to use all its readers at once
+        AtomicInteger threads = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(databases.size() * readerConnections, task -> {
+            Thread thread = new Thread(task, "dealership-fan-out-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // "name=file,name=file", e.g. "north=north.db,south=south.db"; the order is kept
+    public static Map<String, String> parseDatabases(String spec) {
+        Map<String, String> databases = new LinkedHashMap<>();
+        for (String entry : spec.split(",")) {
+            int eq = entry.indexOf('=');
+            if (eq <= 0 || eq == entry.trim().length() - 1) {
+                throw new IllegalArgumentException("Expected name=file but got '" + entry.trim() + "'");
+            }
+            String name = entry.substring(0, eq).trim();
+            if (databases.put(name, entry.substring(eq + 1).trim()) != null) {
+                throw new IllegalArgumentException("Dealership '" + name + "' is listed twice");
+            }
+        }
+        return databases;
+    }
+
+    // The database this process serves may be new too. It needs tables before its migrations can run, so it
+    // takes them from the first other dealership that has any. Call before opening the site's own pool; when
+    // no dealership has tables yet, this fails without creating the site's file.
+    public static void copySchemaIfEmpty(String site, Map<String, String> databases) throws SQLException {
+        if (hasSchema(databases.get(site))) {
+            return;
+        }
+        for (Map.Entry<String, String> database : databases.entrySet()) {
+            if (database.getKey().equals(site) || !hasSchema(database.getValue())) {
+                continue;
+            }
+            ConnectionPool from = new ConnectionPool("jdbc:sqlite:" + database.getValue(), 1);
+            try {
+                ConnectionPool to = new ConnectionPool("jdbc:sqlite:" + databases.get(site), 1);
+                try {
+                    copySchema(from, to);
+                } finally {
+                    to.close();
+                }
+            } finally {
+                from.close();
+            }
+            return;
+        }
+        throw new IllegalStateException("The database for dealership '" + site + "' is empty, and no other " +
+                "dealership has one to copy its tables from");
+    }
+
+    // Only opens a file that exists, so that looking does not create it
+    private static boolean hasSchema(String file) throws SQLException {
+        if (!Files.exists(Paths.get(file))) {
+            return false;
+        }
+        ConnectionPool pool = new ConnectionPool("jdbc:sqlite:" + file, 1);
+        try {
+            return !isEmpty(pool);
+        } finally {
+            pool.close();
+        }
+    }
+
+    private static boolean isEmpty(ConnectionPool pool) throws SQLException {
+        try (ConnectionPool.Lease lease = pool.reader();
+             ResultSet rs = lease.prepare("SELECT COUNT(*) FROM sqlite_master").executeQuery()) {
+            return rs.next() && rs.getInt(1) == 0;
+        }
+    }
+
+    // A file with nothing in it yet is a new dealership: it starts empty, with this site's tables, indexes
+    // and triggers and its schema version, so there are no migrations left to apply
+    private static void copySchema(ConnectionPool from, ConnectionPool to) throws SQLException {
+        try (ConnectionPool.Lease target = to.writer();
+             Statement stmt = target.connection().createStatement()) {
+            try (ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM sqlite_master")) {
+                if (rs.next() && rs.getInt(1) > 0) {
+                    return;
+                }
+            }
+            List<String> schema = new ArrayList<>();
+            int version;
+            try (ConnectionPool.Lease source = from.reader()) {
+                try (ResultSet rs = source.prepare(SCHEMA_QUERY).executeQuery()) {
+                    while (rs.next()) {
+                        schema.add(rs.getString(1));
+                    }
+                }
+                try (ResultSet rs = source.prepare("PRAGMA user_version").executeQuery()) {
+                    version = rs.next() ? rs.getInt(1) : 0;
+                }
+            }
+            target.connection().setAutoCommit(false);
+            try {
+                for (String sql : schema) {
+                    stmt.execute(sql);
+                }
+                stmt.execute("PRAGMA user_version = " + version);
+                target.connection().commit();
+            } catch (SQLException | RuntimeException e) {
+                target.connection().rollback();
+                throw e;
+            } finally {
+                target.connection().setAutoCommit(true);
+            }
+        }
+    }
+
+    public List<String> getSiteNames() {
+        List<String> names = new ArrayList<>();
+        for (Site site : sites) {
+            names.add(site.service == null ? site.name + " (this site)" : site.name);
+        }
+        return names;
+    }
+
+    // Waits briefly for the site's lock, then holds it until close()
+    private static void own(FileChannel lockChannel, String site) throws IOException {
+        long deadline = System.currentTimeMillis() + OWNERSHIP_WAIT_MILLIS;
+        while (lockChannel.tryLock() == null) {
+            if (System.currentTimeMillis() >= deadline) {
+                throw new IllegalStateException("Dealership '" + site + "' is already served by another process");
+            }
+            try {
+                Thread.sleep(OWNERSHIP_RETRY_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for dealership '" + site + "'");
+            }
+        }
+    }
+
+    // Closes the other dealerships' databases and gives up this one; this site's pool belongs to the caller
+    public void close() {
+        executor.shutdownNow();
+        closeSites();
+    }
+
+    private void closeSites() {
+        for (ConnectionPool sitePool : otherPools) {
+            sitePool.close();
+        }
+        for (FileChannel lockChannel : lockChannels) {
+            try {
+                lockChannel.close();
+            } catch (IOException e) {
+                System.out.println("An error occurred while closing a dealership lock: " + e.getMessage());
+            }
+        }
+    }
+
+    // Locks the given sites for a change, in site order so that two changes cannot deadlock, and brings each
+    // one's booking index up to date. This process's own site is always locked and is skipped. Fails if
+    // another process serves any of them.
+    private Claim claim(Site... targets) throws SQLException {
+        List<Site> ordered = new ArrayList<>(Arrays.asList(targets));
+        ordered.sort(Comparator.comparingInt(site -> site.index));
+        Claim claim = new Claim();
+        try {
+            for (Site site : ordered) {
+                if (site.service == null || claim.sites.contains(site)) {
+                    continue;
+                }
+                site.claimLock.lock();
+                FileLock lock;
+                try {
+                    lock = site.lockChannel.tryLock();
+                } catch (IOException | RuntimeException e) {
+                    site.claimLock.unlock();
+                    throw e;
+                }
+                if (lock == null) {
+                    site.claimLock.unlock();
+                    throw new ForeignSiteException(site.name);
+                }
+                claim.sites.add(site);
+                claim.locks.add(lock);
+                // Whoever changed the site last may have been another process
+                if (site.writer == null) {
+                    site.writer = new InventoryService(site.service.getPool(), hasher);
+                } else {
+                    site.writer.reloadBookings();
+                }
+            }
+            return claim;
+        } catch (IOException e) {
+            claim.release();
+            throw new SQLException("Could not lock a dealership: " + e.getMessage(), e);
+        } catch (SQLException | RuntimeException e) {
+            claim.release();
+            throw e;
+        }
+    }
+
+    private static int globalId(Site site, int localId) {
+        if (localId < 0) {
+            return localId;
+        }
+        if (localId > MAX_LOCAL_ID) {
+            throw new IllegalStateException("Dealership '" + site.name + "' has run out of ids");
+        }
+        return site.index << LOCAL_ID_BITS | localId;
+    }
+
+    private static int localId(int globalId) {
+        return globalId & MAX_LOCAL_ID;
+    }
+
+    // Null when the id cannot belong to any site
+    private Site siteOf(int globalId) {
+        int index = globalId >>> LOCAL_ID_BITS;
+        return globalId > 0 && index < sites.size() ? sites.get(index) : null;
+    }
+
+    // The site's own id to seek from so that its rows come out exactly where they belong around a group-wide
+    // cursor: sites before the cursor's see it as past all their ids, sites after it as before all of them
+    private int localCursor(Site site, int globalId) {
+        int cursorSite = globalId >>> LOCAL_ID_BITS;
+        if (site.index == cursorSite) {
+            return localId(globalId);
+        }
+        return site.index < cursorSite ? Integer.MAX_VALUE : 0;
+    }
+
+    private ConnectionPool poolOf(Site site) {
+        return site.service == null ? getPool() : site.service.getPool();
+    }
+
+    // Runs the call for every site in parallel and returns the answers in site order
+    private <T> List<T> fanOut(SiteCall<T> call) throws SQLException {
+        List<Future<T>> futures = new ArrayList<>(sites.size());
+        for (Site site : sites) {
+            futures.add(executor.submit(() -> call.call(site)));
+        }
+        List<T> results = new ArrayList<>(sites.size());
+        for (Future<T> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for the dealerships", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof SQLException) {
+                    throw (SQLException) cause;
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new SQLException(cause.getMessage(), cause);
+            }
+        }
+        return results;
+    }
+
+    // k-way merge of lists that are each sorted by order, stopping after limit elements
+    static <T> List<T> merge(List<List<T>> sorted, Comparator<? super T> order, int limit) {
+        PriorityQueue<int[]> heads = new PriorityQueue<>(Math.max(1, sorted.size()),
+                (a, b) -> order.compare(sorted.get(a[0]).get(a[1]), sorted.get(b[0]).get(b[1])));
+        for (int i = 0; i < sorted.size(); i++) {
+            if (!sorted.get(i).isEmpty()) {
+                heads.add(new int[]{i, 0});
+            }
+        }
+        List<T> merged = new ArrayList<>();
+        while (!heads.isEmpty() && merged.size() < limit) {
+            int[] head = heads.poll();
+            List<T> list = sorted.get(head[0]);
+            merged.add(list.get(head[1]));
+            if (++head[1] < list.size()) {
+                heads.add(head);
+            }
+        }
+        return merged;
+    }
+
+    private static List<InventoryPager.Row> toGlobal(Site site, List<InventoryPager.Row> rows) {
+        List<InventoryPager.Row> global = new ArrayList<>(rows.size());
+        for (InventoryPager.Row row : rows) {
+            global.add(row.withId(globalId(site, row.getId())));
+        }
+        return global;
+    }
+
+    // Tries every site; a customer has one real account, and the stand-ins made for bookings at other
+    // sites have no password, so at most one site can succeed
+    @Override
+    public LoginResult login(String email, String password) throws SQLException {
+        List<LoginResult> results = fanOut(site ->
+                site.service == null ? super.login(email, password) : site.service.login(email, password));
+        LoginResult best = null;
+        for (int i = 0; i < results.size(); i++) {
+            LoginResult result = results.get(i);
+            if (result.getStatus() == LoginResult.Status.SUCCESS) {
+                return result.withUserId(globalId(sites.get(i), result.getUserId()));
+            }
+            if (best == null || result.getStatus() == LoginResult.Status.WRONG_PASSWORD) {
+                best = result;
+            }
+        }
+        return best;
+    }
+
+    // Registers the user at this site. An email already known at any site is refused, as one site alone would.
+    @Override
+    public int register(String email, String firstName, String lastName, String password) throws SQLException {
+        return globalId(ownSite(), super.register(email, firstName, lastName, password));
+    }
+
+    // Each file's unique index covers only that file, so every process in the group takes the registration
+    // lock from checking the other sites until the new user is committed here
+    @Override
+    int insertUser(String email, String firstName, String lastName, String hashedPassword) throws SQLException {
+        synchronized (registrationChannel) {
+            FileLock lock;
+            try {
+                lock = registrationChannel.lock();
+            } catch (IOException e) {
+                throw new SQLException("Could not lock the dealerships' registrations: " + e.getMessage(), e);
+            }
+            try {
+                for (boolean known : fanOut(site -> userIdAt(site, email) > 0)) {
+                    if (known) {
+                        return -1;
+                    }
+                }
+                return super.insertUser(email, firstName, lastName, hashedPassword);
+            } finally {
+                try {
+                    lock.release();
+                } catch (IOException e) {
+                    System.out.println("An error occurred while unlocking the dealerships' registrations: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private Site ownSite() {
+        for (Site site : sites) {
+            if (site.service == null) {
+                return site;
+            }
+        }
+        throw new IllegalStateException("No dealership is served by this process");
+    }
+
+    // The user's own id at the site, or -1
+    private int userIdAt(Site site, String email) throws SQLException {
+        try (ConnectionPool.Lease lease = poolOf(site).reader()) {
+            PreparedStatement stmt = lease.prepare("SELECT id FROM Users WHERE email = ?");
+            stmt.setString(1, email);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : -1;
+            }
+        }
+    }
+
+    // Finds the user's id at the site from inside the booking's transaction. When the user lives elsewhere it
+    // creates a password-less stand-in account there, which a failed booking undoes.
+    private WriteQueue.Write<Integer, SQLException> userAt(Site site, int globalUserId) throws SQLException {
+        Site home = siteOf(globalUserId);
+        if (home == null) {
+            throw new IllegalArgumentException("User not found.");
+        }
+        if (home == site) {
+            int id = localId(globalUserId);
+            return lease -> id;
+        }
+        String email;
+        String firstName;
+        String lastName;
+        try (ConnectionPool.Lease lease = poolOf(home).reader()) {
+            PreparedStatement stmt = lease.prepare("SELECT email, firstname, lastname FROM Users WHERE id = ?");
+            stmt.setInt(1, localId(globalUserId));
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next()) {
+                    throw new IllegalArgumentException("User not found.");
+                }
+                email = rs.getString("email");
+                firstName = rs.getString("firstname");
+                lastName = rs.getString("lastname");
+            }
+        }
+        return lease -> {
+            PreparedStatement insert = lease.prepare("INSERT OR IGNORE INTO Users (email, firstname, lastname) VALUES (?, ?, ?)");
+            insert.setString(1, email);
+            insert.setString(2, firstName);
+            insert.setString(3, lastName);
+            insert.executeUpdate();
+            PreparedStatement select = lease.prepare("SELECT id FROM Users WHERE email = ?");
+            select.setString(1, email);
+            try (ResultSet rs = select.executeQuery()) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        };
+    }
+
+    // A password-less account whose email has an account with a password at another site. Only bookings
+    // are made with it; nobody can log in as it.
+    private boolean isStandIn(Site site, int localUserId) throws SQLException {
+        String email;
+        try (ConnectionPool.Lease lease = poolOf(site).reader()) {
+            PreparedStatement stmt = lease.prepare("SELECT email FROM Users u WHERE id = ? " +
+                    "AND NOT EXISTS (SELECT 1 FROM Saltpw p WHERE p.id = u.id)");
+            stmt.setInt(1, localUserId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next()) {
+                    return false;
+                }
+                email = rs.getString(1);
+            }
+        }
+        for (Site other : sites) {
+            if (other != site && emailsWithPassword(other, email).contains(email)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // The emails of the site's accounts that have a password; all of them when email is null
+    private Set<String> emailsWithPassword(Site site, String email) throws SQLException {
+        Set<String> emails = new HashSet<>();
+        try (ConnectionPool.Lease lease = poolOf(site).reader()) {
+            PreparedStatement stmt = lease.prepare("SELECT email FROM Users u WHERE (? IS NULL OR email = ?) " +
+                    "AND EXISTS (SELECT 1 FROM Saltpw p WHERE p.id = u.id)");
+            stmt.setString(1, email);
+            stmt.setString(2, email);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    emails.add(rs.getString(1));
+                }
+            }
+        }
+        return emails;
+    }
+
+    @Override
+    public InventoryPager newPager(InventoryPager.SortKey sortKey, int pageSize) {
+        // Merged pages are not cached; each site caches the pages it contributes
+        return new InventoryPager(sortKey, pageSize);
+    }
+
+    @Override
+    public List<InventoryPager.Row> firstPage(InventoryPager pager) throws SQLException {
+        long start = System.nanoTime();
+        List<InventoryPager.Row> rows = null;
+        try {
+            rows = mergedPage(pager, null, true);
+            pager.setPage(rows);
+            return rows;
+        } finally {
+            Metrics.record(Metrics.Operation.INVENTORY_PAGE, start, rows == null ? 0 : rows.size(), 0);
+        }
+    }
+
+    @Override
+    public boolean turnPage(InventoryPager pager, boolean forward) throws SQLException {
+        long start = System.nanoTime();
+        List<InventoryPager.Row> rows = null;
+        try {
+            List<InventoryPager.Row> page = pager.getPage();
+            if (page.isEmpty()) {
+                return false;
+            }
+            rows = mergedPage(pager, forward ? page.get(page.size() - 1) : page.get(0), forward);
+            if (rows.isEmpty()) {
+                return false;
+            }
+            pager.setPage(rows);
+            return true;
+        } finally {
+            Metrics.record(Metrics.Operation.INVENTORY_PAGE, start, rows == null ? 0 : rows.size(), 0);
+        }
+    }
+
+    // Every site returns its own page either side of the cursor; the group's page is the nearest pageSize
+    // rows of their merge
+    private List<InventoryPager.Row> mergedPage(InventoryPager pager, InventoryPager.Row cursor, boolean forward)
+            throws SQLException {
+        InventoryPager.SortKey sortKey = pager.getSortKey();
+        int pageSize = pager.getPageSize();
+        List<List<InventoryPager.Row>> pages = fanOut(site -> {
+            InventoryPager sitePager = site.service == null
+                    ? super.newPager(sortKey, pageSize) : site.service.newPager(sortKey, pageSize);
+            InventoryPager.Row siteCursor = cursor == null ? null : cursor.withId(localCursor(site, cursor.getId()));
+            try (ConnectionPool.Lease lease = poolOf(site).reader()) {
+                return toGlobal(site, sitePager.fetch(lease, siteCursor, forward));
+            }
+        });
+        List<InventoryPager.Row> merged = merge(pages, InventoryPager.ORDER, forward ? pageSize : Integer.MAX_VALUE);
+        if (!forward && merged.size() > pageSize) {
+            merged = merged.subList(merged.size() - pageSize, merged.size());
+        }
+        return Collections.unmodifiableList(new ArrayList<>(merged));
+    }
+
+    @Override
+    public List<InventoryPager.Row> search(VehicleSearch.Criteria criteria, int afterId, int limit) throws SQLException {
+        List<List<InventoryPager.Row>> matches = fanOut(site -> {
+            int after = localCursor(site, afterId);
+            if (after == Integer.MAX_VALUE) {
+                return Collections.<InventoryPager.Row>emptyList();
+            }
+            return toGlobal(site, site.service == null
+                    ? super.search(criteria, after, limit) : site.service.search(criteria, after, limit));
+        });
+        return merge(matches, ID_ORDER, limit);
+    }
+
+    // BM25 scores from different files are close enough to compare for ordering; every site returns its top
+    // offset + limit matches so the merged window is exact
+    @Override
+    public List<InventoryPager.Row> rankedSearch(VehicleSearch.Criteria criteria, int offset, int limit) throws SQLException {
+        int top = (int) Math.min(Integer.MAX_VALUE, (long) offset + limit);
+        List<List<InventoryPager.Row>> matches = fanOut(site -> toGlobal(site, site.service == null
+                ? super.rankedSearch(criteria, 0, top) : site.service.rankedSearch(criteria, 0, top)));
+        List<InventoryPager.Row> merged = merge(matches, InventoryPager.ORDER, top);
+        return merged.size() <= offset ? Collections.<InventoryPager.Row>emptyList() : merged.subList(offset, merged.size());
+    }
+
+    @Override
+    public int countMatches(VehicleSearch.Criteria criteria) throws SQLException {
+        int total = 0;
+        for (int count : fanOut(site -> site.service == null
+                ? super.countMatches(criteria) : site.service.countMatches(criteria))) {
+            total += count;
+        }
+        return total;
+    }
+
+    // Sums each site's leading values. A value outside a site's top ten is missed there, so counts near the
+    // bottom of the list can come out low.
+    @Override
+    public Map<VehicleSearch.Facet, Map<String, Integer>> facets(VehicleSearch.Criteria criteria) throws SQLException {
+        List<Map<VehicleSearch.Facet, Map<String, Integer>>> perSite = fanOut(site -> site.service == null
+                ? super.facets(criteria) : site.service.facets(criteria));
+        Map<VehicleSearch.Facet, Map<String, Integer>> facets = new LinkedHashMap<>();
+        for (VehicleSearch.Facet facet : VehicleSearch.Facet.values()) {
+            // Grouped without regard to case, as each site's counts are
+            Map<String, Integer> totals = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            for (Map<VehicleSearch.Facet, Map<String, Integer>> siteFacets : perSite) {
+                for (Map.Entry<String, Integer> count : siteFacets.get(facet).entrySet()) {
+                    totals.merge(count.getKey(), count.getValue(), Integer::sum);
+                }
+            }
+            List<Map.Entry<String, Integer>> ranked = new ArrayList<>(totals.entrySet());
+            ranked.sort((a, b) -> a.getValue().equals(b.getValue())
+                    ? a.getKey().compareTo(b.getKey()) : Integer.compare(b.getValue(), a.getValue()));
+            Map<String, Integer> counts = new LinkedHashMap<>();
+            for (Map.Entry<String, Integer> count : ranked.subList(0, Math.min(VehicleSearch.FACET_LIMIT, ranked.size()))) {
+                counts.put(count.getKey(), count.getValue());
+            }
+            facets.put(facet, counts);
+        }
+        return facets;
+    }
+
+    @Override
+    public Vehicle getVehicle(int vehicleId) throws SQLException {
+        Site site = siteOf(vehicleId);
+        if (site == null) {
+            return null;
+        }
+        int id = localId(vehicleId);
+        Vehicle vehicle = site.service == null ? super.getVehicle(id) : site.service.getVehicle(id);
+        return vehicle == null ? null : vehicle.withId(vehicleId);
+    }
+
+    // Looked up among the vehicle's own dealership's stock
+    @Override
+    public List<InventoryPager.Row> similarVehicles(int vehicleId, int count, boolean cheaper) throws SQLException {
+        Site site = siteOf(vehicleId);
+        if (site == null) {
+            return null;
+        }
+        int id = localId(vehicleId);
+        List<InventoryPager.Row> rows = site.service == null
+                ? super.similarVehicles(id, count, cheaper) : site.service.similarVehicles(id, count, cheaper);
+        return rows == null ? null : toGlobal(site, rows);
+    }
+
+    // This site's changes, with group-wide ids
+    @Override
+    public ChangeFeed.Page changesSince(long sequence, int limit) throws SQLException {
+        ChangeFeed.Page page = super.changesSince(sequence, limit);
+        Site site = ownSite();
+        List<ChangeFeed.Change> changes = new ArrayList<>(page.getChanges().size());
+        for (ChangeFeed.Change change : page.getChanges()) {
+            changes.add(change.withIds(id -> globalId(site, id)));
+        }
+        return new ChangeFeed.Page(changes, page.getNext(), page.getLatest(), page.isResyncRequired());
+    }
+
+    @Override
+    public int makeAppointment(int userId, int vehicleId, AppointmentScheduler.Slot slot)
+            throws SQLException, AppointmentScheduler.BookingException {
+        Site site = siteOf(vehicleId);
+        if (site == null) {
+            throw new IllegalArgumentException("Vehicle not found.");
+        }
+        Claim claim = claim(site);
+        try {
+            WriteQueue.Write<Integer, SQLException> user = userAt(site, userId);
+            int vehicle = localId(vehicleId);
+            return globalId(site, site.service == null
+                    ? super.makeAppointment(user, vehicle, slot) : site.writer.makeAppointment(user, vehicle, slot));
+        } finally {
+            claim.release();
+        }
+    }
+
+    @Override
+    public List<AppointmentScheduler.Slot> freeSlots(int vehicleId, LocalDate date) throws SQLException {
+        Site site = siteOf(vehicleId);
+        if (site == null) {
+            return Collections.emptyList();
+        }
+        return site.service == null
+                ? super.freeSlots(localId(vehicleId), date) : site.service.freeSlots(localId(vehicleId), date);
+    }
+
+    @Override
+    public AppointmentScheduler.Slot nextFreeSlot(int vehicleId) throws SQLException {
+        Site site = siteOf(vehicleId);
+        if (site == null) {
+            return null;
+        }
+        return site.service == null ? super.nextFreeSlot(localId(vehicleId)) : site.service.nextFreeSlot(localId(vehicleId));
+    }
+
+    // Adds the vehicle to this site's stock
+    @Override
+    public int addVehicle(Vehicle vehicle) throws SQLException {
+        int id = globalId(ownSite(), super.addVehicle(vehicle));
+        if (id > 0) {
+            vehicle.setId(id);
+        }
+        return id;
+    }
+
+    @Override
+    public boolean deleteVehicle(int vehicleId) throws SQLException {
+        Site site = siteOf(vehicleId);
+        if (site == null) {
+            return false;
+        }
+        // Photos are kept under group-wide ids in this site's store
+        boolean deleted;
+        Claim claim = claim(site);
+        try {
+            deleted = site.service == null
+                    ? deleteVehicleRows(localId(vehicleId)) : site.writer.deleteVehicleRows(localId(vehicleId));
+        } finally {
+            claim.release();
+        }
+        deletePhotos(vehicleId);
+        return deleted;
+    }
+
+    // Each user once: the stand-ins other sites hold for a user's bookings are left out
+    @Override
+    public List<User> listUsers() throws SQLException {
+        List<List<User>> users = fanOut(site -> site.service == null ? super.listUsers() : site.service.listUsers());
+        List<Set<String>> withPassword = fanOut(site -> emailsWithPassword(site, null));
+        List<List<User>> listed = new ArrayList<>(sites.size());
+        for (Site site : sites) {
+            Set<String> own = withPassword.get(site.index);
+            List<User> global = new ArrayList<>();
+            for (User user : users.get(site.index)) {
+                if (own.contains(user.getEmail()) || !hasPasswordElsewhere(withPassword, site, user.getEmail())) {
+                    global.add(user.withId(globalId(site, user.getId())));
+                }
+            }
+            global.sort(Comparator.comparingInt(User::getId));
+            listed.add(global);
+        }
+        return merge(listed, Comparator.comparingInt(User::getId), Integer.MAX_VALUE);
+    }
+
+    private boolean hasPasswordElsewhere(List<Set<String>> withPassword, Site site, String email) {
+        for (Site other : sites) {
+            if (other != site && withPassword.get(other.index).contains(email)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean promoteUser(int userId) throws SQLException {
+        Site site = siteOf(userId);
+        if (site == null) {
+            return false;
+        }
+        if (isStandIn(site, localId(userId))) {
+            throw new IllegalArgumentException("User " + userId + " only holds bookings at dealership '" + site.name +
+                    "' for a user registered elsewhere; promote that user instead");
+        }
+        Claim claim = claim(site);
+        try {
+            return site.service == null ? super.promoteUser(localId(userId)) : site.writer.promoteUser(localId(userId));
+        } finally {
+            claim.release();
+        }
+    }
+
+    // Also deletes the accounts other sites hold for the user's bookings there
+    @Override
+    public boolean deleteUser(int userId) throws SQLException {
+        Site home = siteOf(userId);
+        if (home == null) {
+            return false;
+        }
+        String email = null;
+        try (ConnectionPool.Lease lease = poolOf(home).reader()) {
+            PreparedStatement stmt = lease.prepare("SELECT email FROM Users WHERE id = ?");
+            stmt.setInt(1, localId(userId));
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    email = rs.getString(1);
+                }
+            }
+        }
+        List<Site> involved = new ArrayList<>();
+        involved.add(home);
+        for (Site site : sites) {
+            if (site != home && email != null && userIdAt(site, email) > 0) {
+                involved.add(site);
+            }
+        }
+        // Every site involved is claimed first, so the user is not left half deleted
+        Claim claim = claim(involved.toArray(new Site[0]));
+        try {
+            boolean deleted = home.service == null ? super.deleteUser(localId(userId)) : home.writer.deleteUser(localId(userId));
+            if (deleted) {
+                for (Site site : involved) {
+                    int id = site == home ? -1 : userIdAt(site, email);
+                    if (id > 0) {
+                        if (site.service == null) {
+                            super.deleteUser(id);
+                        } else {
+                            site.writer.deleteUser(id);
+                        }
+                    }
+                }
+            }
+            return deleted;
+        } finally {
+            claim.release();
+        }
+    }
+
+    @Override
+    public List<Appointment> listAppointments(LocalDate day) throws SQLException {
+        List<List<Appointment>> appointments = fanOut(site -> {
+            List<Appointment> global = new ArrayList<>();
+            for (Appointment appointment : site.service == null
+                    ? super.listAppointments(day) : site.service.listAppointments(day)) {
+                global.add(appointment.withId(globalId(site, appointment.getId())));
+            }
+            return global;
+        });
+        return merge(appointments, APPOINTMENT_ORDER, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public boolean deleteAppointment(int appointmentId) throws SQLException {
+        Site site = siteOf(appointmentId);
+        if (site == null) {
+            return false;
+        }
+        int id = localId(appointmentId);
+        Claim claim = claim(site);
+        try {
+            return site.service == null ? super.deleteAppointment(id) : site.writer.deleteAppointment(id);
+        } finally {
+            claim.release();
+        }
+    }
+}
@@ -0,0 +1,569 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+// A nearest-neighbour index for "similar vehicles". Each vehicle is a point with five numeric features (price,
+// mileage, power, engine size and registration year) and four categorical ones (category, fuel type,
+// transmission and drivetrain). Two vehicles are as far apart as the root of the summed squares of:
+//   - each numeric difference in standard deviations of that feature, capped at MAX_DIFFERENCE;
+//   - 1 for each categorical feature that differs (case does not count);
+//   - 1 wherever one vehicle has a value and the other has none.
+// Every term is itself a distance, so the sum obeys the triangle inequality and a vantage-point tree can
+// prune with it.
+//
+// Categorical differences come in whole steps and swamp the numeric ones, so points are first grouped by
+// their four categories and each group gets its own tree over what is left. A lookup searches the groups
+// in order of how many categories they differ in and stops once that alone puts them out of reach.
+//
+// The trees are laid out in two flat arrays: a node is a position in order, its vantage point is the point
+// stored there, and the points closer than its radius follow it, then the rest. Vehicles added since the
+// tree was built are checked one by one and deleted ones are skipped; once either group grows large the
+// tree is rebuilt. Like InventorySnapshot an index is never changed: with() and without() return a new one
+// that shares the unchanged arrays, so lookups need no locks.
+public class SimilarVehicles {
+    static final String COLUMNS = "SELECT id, price, mileage, power, size, registration, category, fueltype, " +
+                                  "transmission, drivetrain FROM Vehicles ";
+
+    private static final String[] NUMBER_COLUMNS = {"price", "mileage", "power", "size"};
+    private static final String[] CATEGORY_COLUMNS = {"category", "fueltype", "transmission", "drivetrain"};
+    private static final int NUMBERS = NUMBER_COLUMNS.length + 1;
+    private static final int YEAR = NUMBER_COLUMNS.length;
+    private static final int PRICE = 0;
+    private static final int CATEGORIES = CATEGORY_COLUMNS.length;
+    private static final int NONE = -1;
+    private static final float MAX_DIFFERENCE = 2f;
+    private static final int MIN_REBUILD = 1024;
+    private static final long SEED = 42;
+
+    // Feature columns for a set of points, in id order. Numbers are raw values with NaN for NULL;
+    // categories are dictionary codes with NONE for NULL.
+    private static class Points {
+        private int count;
+        private int[] ids;
+        private float[] numbers;
+        private int[] categories;
+
+        private Points(int capacity) {
+            ids = new int[capacity];
+            numbers = new float[capacity * NUMBERS];
+            categories = new int[capacity * CATEGORIES];
+        }
+
+        private Points copy(int capacity) {
+            Points copy = new Points(0);
+            copy.count = count;
+            copy.ids = Arrays.copyOf(ids, capacity);
+            copy.numbers = Arrays.copyOf(numbers, capacity * NUMBERS);
+            copy.categories = Arrays.copyOf(categories, capacity * CATEGORIES);
+            return copy;
+        }
+
+        private void add(Points from, int point) {
+            if (count == ids.length) {
+                Points grown = copy(Math.max(16, count * 2));
+                ids = grown.ids;
+                numbers = grown.numbers;
+                categories = grown.categories;
+            }
+            ids[count] = from.ids[point];
+            System.arraycopy(from.numbers, point * NUMBERS, numbers, count * NUMBERS, NUMBERS);
+            System.arraycopy(from.categories, point * CATEGORIES, categories, count * CATEGORIES, CATEGORIES);
+            count++;
+        }
+
+        private int indexOf(int id) {
+            int found = Arrays.binarySearch(ids, 0, count, id);
+            return found >= 0 ? found : -1;
+        }
+    }
+
+    // Collects the k closest candidates offered to it in a max-heap on distance
+    private static class Nearest {
+        private final int k;
+        private final int[] ids;
+        private final float[] distances;
+        private int size;
+
+        private Nearest(int k) {
+            this.k = k;
+            this.ids = new int[k];
+            this.distances = new float[k];
+        }
+
+        // The distance a candidate must beat; infinite until k have been found
+        private float bound() {
+            return size < k ? Float.POSITIVE_INFINITY : distances[0];
+        }
+
+        private void offer(int id, float distance) {
+            if (size < k) {
+                int i = size++;
+                while (i > 0 && distances[(i - 1) / 2] < distance) {
+                    ids[i] = ids[(i - 1) / 2];
+                    distances[i] = distances[(i - 1) / 2];
+                    i = (i - 1) / 2;
+                }
+                ids[i] = id;
+                distances[i] = distance;
+            } else if (distance < distances[0]) {
+                int i = 0;
+                while (true) {
+                    int child = 2 * i + 1;
+                    if (child >= size) {
+                        break;
+                    }
+                    if (child + 1 < size && distances[child + 1] > distances[child]) {
+                        child++;
+                    }
+                    if (distances[child] <= distance) {
+                        break;
+                    }
+                    ids[i] = ids[child];
+                    distances[i] = distances[child];
+                    i = child;
+                }
+                ids[i] = id;
+                distances[i] = distance;
+            }
+        }
+
+        // Closest first, ties by id
+        private int[] sorted() {
+            Integer[] byDistance = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                byDistance[i] = i;
+            }
+            Arrays.sort(byDistance, (a, b) -> distances[a] != distances[b]
+                    ? Float.compare(distances[a], distances[b]) : Integer.compare(ids[a], ids[b]));
+            int[] result = new int[size];
+            for (int i = 0; i < size; i++) {
+                result[i] = ids[byDistance[i]];
+            }
+            return result;
+        }
+    }
+
+    private final List<Map<String, Integer>> dictionaries;
+    // 1 / standard deviation per numeric feature, fixed when the tree is built
+    private final float[] inverseScales;
+    private final Points tree;
+    private final int[] order;
+    private final float[] radius;
+    // Group g's tree covers order[groupStarts[g], groupStarts[g + 1]); its codes are at g * CATEGORIES
+    private final int[] groupStarts;
+    private final int[] groupCategories;
+    private final long[] deleted;
+    private final int deletedCount;
+    private final Points added;
+
+    private SimilarVehicles(List<Map<String, Integer>> dictionaries, float[] inverseScales, Points tree, int[] order,
+                            float[] radius, int[] groupStarts, int[] groupCategories, long[] deleted,
+                            int deletedCount, Points added) {
+        this.dictionaries = dictionaries;
+        this.inverseScales = inverseScales;
+        this.tree = tree;
+        this.order = order;
+        this.radius = radius;
+        this.groupStarts = groupStarts;
+        this.groupCategories = groupCategories;
+        this.deleted = deleted;
+        this.deletedCount = deletedCount;
+        this.added = added;
+    }
+
+    public static SimilarVehicles load(ConnectionPool.Lease lease) throws SQLException {
+        List<Map<String, Integer>> dictionaries = new ArrayList<>();
+        for (int c = 0; c < CATEGORIES; c++) {
+            dictionaries.add(new HashMap<String, Integer>());
+        }
+        Points points = new Points(1024);
+        Points row = new Points(1);
+        try (ResultSet rs = lease.prepare(COLUMNS + "ORDER BY id").executeQuery()) {
+            while (rs.next()) {
+                read(rs, row, dictionaries);
+                points.add(row, 0);
+            }
+        }
+        return build(dictionaries, points);
+    }
+
+    private static void read(ResultSet rs, Points into, List<Map<String, Integer>> dictionaries) throws SQLException {
+        into.count = 1;
+        into.ids[0] = rs.getInt("id");
+        for (int c = 0; c < NUMBER_COLUMNS.length; c++) {
+            int value = rs.getInt(NUMBER_COLUMNS[c]);
+            into.numbers[c] = rs.wasNull() ? Float.NaN : value;
+        }
+        into.numbers[YEAR] = year(rs.getString("registration"));
+        for (int c = 0; c < CATEGORIES; c++) {
+            String value = rs.getString(CATEGORY_COLUMNS[c]);
+            if (value == null) {
+                into.categories[c] = NONE;
+            } else {
+                Map<String, Integer> dictionary = dictionaries.get(c);
+                String key = value.trim().toLowerCase();
+                Integer code = dictionary.get(key);
+                if (code == null) {
+                    code = dictionary.size();
+                    dictionary.put(key, code);
+                }
+                into.categories[c] = code;
+            }
+        }
+    }
+
+    // Registrations are dates (YYYY-MM-DD); the year is taken with the month as a fraction of it
+    private static float year(String registration) {
+        if (registration == null || registration.length() < 4) {
+            return Float.NaN;
+        }
+        try {
+            float year = Integer.parseInt(registration.substring(0, 4));
+            if (registration.length() >= 7 && registration.charAt(4) == '-') {
+                year += (Integer.parseInt(registration.substring(5, 7)) - 1) / 12f;
+            }
+            return year;
+        } catch (NumberFormatException e) {
+            return Float.NaN;
+        }
+    }
+
+    private static SimilarVehicles build(List<Map<String, Integer>> dictionaries, Points points) {
+        float[] inverseScales = new float[NUMBERS];
+        for (int f = 0; f < NUMBERS; f++) {
+            double sum = 0;
+            double squares = 0;
+            int present = 0;
+            for (int p = 0; p < points.count; p++) {
+                float value = points.numbers[p * NUMBERS + f];
+                if (!Float.isNaN(value)) {
+                    sum += value;
+                    squares += (double) value * value;
+                    present++;
+                }
+            }
+            double mean = present == 0 ? 0 : sum / present;
+            double deviation = present == 0 ? 0 : Math.sqrt(Math.max(0, squares / present - mean * mean));
+            inverseScales[f] = deviation > 0 ? (float) (1 / deviation) : 1f;
+        }
+
+        // Number the groups, then lay the points out group by group
+        Map<List<Integer>, Integer> groups = new HashMap<>();
+        int[] pointGroups = new int[points.count];
+        List<Integer> firstPoints = new ArrayList<>();
+        for (int p = 0; p < points.count; p++) {
+            List<Integer> key = new ArrayList<>(CATEGORIES);
+            for (int c = 0; c < CATEGORIES; c++) {
+                key.add(points.categories[p * CATEGORIES + c]);
+            }
+            Integer group = groups.get(key);
+            if (group == null) {
+                group = groups.size();
+                groups.put(key, group);
+                firstPoints.add(p);
+            }
+            pointGroups[p] = group;
+        }
+        int[] groupStarts = new int[groups.size() + 1];
+        for (int group : pointGroups) {
+            groupStarts[group + 1]++;
+        }
+        for (int g = 0; g < groups.size(); g++) {
+            groupStarts[g + 1] += groupStarts[g];
+        }
+        int[] order = new int[points.count];
+        int[] next = Arrays.copyOf(groupStarts, groups.size());
+        for (int p = 0; p < points.count; p++) {
+            order[next[pointGroups[p]]++] = p;
+        }
+        int[] groupCategories = new int[groups.size() * CATEGORIES];
+        for (int g = 0; g < groups.size(); g++) {
+            System.arraycopy(points.categories, firstPoints.get(g) * CATEGORIES, groupCategories, g * CATEGORIES, CATEGORIES);
+        }
+
+        float[] radius = new float[points.count];
+        SimilarVehicles index = new SimilarVehicles(dictionaries, inverseScales, points, order, radius, groupStarts,
+                groupCategories, new long[(points.count + 63) / 64], 0, new Points(0));
+        float[] distances = new float[points.count];
+        Random random = new Random(SEED);
+        for (int g = 0; g < groups.size(); g++) {
+            index.buildNode(groupStarts[g], groupStarts[g + 1], distances, random);
+        }
+        return index;
+    }
+
+    // The node at lo covers positions [lo, hi): a random vantage point goes first, then the closer half
+    // of the rest, then the farther half. Its radius is the distance that splits the halves.
+    private void buildNode(int lo, int hi, float[] distances, Random random) {
+        while (hi - lo > 1) {
+            swap(order, lo, lo + random.nextInt(hi - lo));
+            int vantage = order[lo];
+            for (int i = lo + 1; i < hi; i++) {
+                distances[i] = distance(tree, vantage, tree, order[i]);
+            }
+            int mid = (lo + 1 + hi) >>> 1;
+            select(distances, lo + 1, hi, mid);
+            radius[lo] = distances[mid];
+            buildNode(lo + 1, mid, distances, random);
+            lo = mid;
+        }
+        if (hi - lo == 1) {
+            radius[lo] = 0;
+        }
+    }
+
+    // Quickselect on distances[from, to), moving order along with it, so position k holds the value that
+    // would be there if sorted, with nothing larger before it and nothing smaller after it
+    private void select(float[] distances, int from, int to, int k) {
+        int lo = from;
+        int hi = to - 1;
+        while (lo < hi) {
+            float pivot = distances[(lo + hi) >>> 1];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (distances[i] < pivot) {
+                    i++;
+                }
+                while (distances[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(distances, i, j);
+                    swap(order, i, j);
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private static void swap(int[] values, int i, int j) {
+        int value = values[i];
+        values[i] = values[j];
+        values[j] = value;
+    }
+
+    private static void swap(float[] values, int i, int j) {
+        float value = values[i];
+        values[i] = values[j];
+        values[j] = value;
+    }
+
+    private float distance(Points a, int p, Points b, int q) {
+        int mismatches = 0;
+        int pc = p * CATEGORIES;
+        int qc = q * CATEGORIES;
+        for (int f = 0; f < CATEGORIES; f++) {
+            if (a.categories[pc + f] != b.categories[qc + f]) {
+                mismatches++;
+            }
+        }
+        return (float) Math.sqrt(numericSquares(a, p, b, q) + mismatches);
+    }
+
+    // The numeric part of the distance, squared
+    private float numericSquares(Points a, int p, Points b, int q) {
+        float sum = 0;
+        int pn = p * NUMBERS;
+        int qn = q * NUMBERS;
+        for (int f = 0; f < NUMBERS; f++) {
+            float x = a.numbers[pn + f];
+            float y = b.numbers[qn + f];
+            boolean xMissing = Float.isNaN(x);
+            if (xMissing || Float.isNaN(y)) {
+                sum += xMissing == Float.isNaN(y) ? 0 : 1;
+            } else {
+                float difference = Math.min(Math.abs(x - y) * inverseScales[f], MAX_DIFFERENCE);
+                sum += difference * difference;
+            }
+        }
+        return sum;
+    }
+
+    public int getVehicleCount() {
+        return tree.count - deletedCount + added.count;
+    }
+
+    public long estimateBytes() {
+        long perPoint = 4 + 4 * NUMBERS + 4 * CATEGORIES;
+        return (long) tree.count * (perPoint + 4 + 4) + 4L * (groupStarts.length + groupCategories.length)
+                + deleted.length * 8L + (long) added.ids.length * perPoint;
+    }
+
+    private boolean isDeleted(int point) {
+        return (deleted[point >>> 6] & (1L << point)) != 0;
+    }
+
+    // The ids of up to k vehicles closest to the given one, closest first; with cheaper, only vehicles with a
+    // lower price. Null when the vehicle is not in the index.
+    public int[] nearest(int vehicleId, int k, boolean cheaper) {
+        Points points = tree;
+        int query = tree.indexOf(vehicleId);
+        if (query < 0 || isDeleted(query)) {
+            points = added;
+            query = added.indexOf(vehicleId);
+            if (query < 0) {
+                return null;
+            }
+        }
+        float maxPrice = points.numbers[query * NUMBERS + PRICE];
+        if (cheaper && Float.isNaN(maxPrice)) {
+            return new int[0];
+        }
+        if (!cheaper) {
+            maxPrice = Float.NaN;
+        }
+        Nearest nearest = new Nearest(Math.max(1, k));
+        for (int p = 0; p < added.count; p++) {
+            if (added.ids[p] != vehicleId && accepts(added, p, maxPrice)) {
+                nearest.offer(added.ids[p], distance(points, query, added, p));
+            }
+        }
+
+        int groups = groupStarts.length - 1;
+        int[] mismatches = new int[groups];
+        for (int g = 0; g < groups; g++) {
+            for (int c = 0; c < CATEGORIES; c++) {
+                if (groupCategories[g * CATEGORIES + c] != points.categories[query * CATEGORIES + c]) {
+                    mismatches[g]++;
+                }
+            }
+        }
+        // A group that differs in m categories is at least sqrt(m) away
+        for (int m = 0; m <= CATEGORIES && Math.sqrt(m) < nearest.bound(); m++) {
+            for (int g = 0; g < groups; g++) {
+                if (mismatches[g] == m) {
+                    search(points, query, vehicleId, maxPrice, m, nearest, groupStarts[g], groupStarts[g + 1]);
+                }
+            }
+        }
+        return k < 1 ? new int[0] : nearest.sorted();
+    }
+
+    private static boolean accepts(Points points, int point, float maxPrice) {
+        return Float.isNaN(maxPrice) || points.numbers[point * NUMBERS + PRICE] < maxPrice;
+    }
+
+    // Walks one group's tree. Every point in it differs from the query in the same number of categories, so
+    // the walk measures only the numeric part and the bound shrinks by the categorical part to match.
+    private void search(Points points, int query, int vehicleId, float maxPrice, int mismatches, Nearest nearest,
+                        int lo, int hi) {
+        while (lo < hi) {
+            int vantage = order[lo];
+            float squares = numericSquares(points, query, tree, vantage);
+            float d = (float) Math.sqrt(squares);
+            if (tree.ids[vantage] != vehicleId && !isDeleted(vantage) && accepts(tree, vantage, maxPrice)) {
+                nearest.offer(tree.ids[vantage], (float) Math.sqrt(squares + mismatches));
+            }
+            int mid = (lo + 1 + hi) >>> 1;
+            float mu = radius[lo];
+            // Closer points lie within mu of the vantage point and farther ones at least mu from it; only
+            // a side that could hold something within the current bound is visited
+            if (d < mu) {
+                search(points, query, vehicleId, maxPrice, mismatches, nearest, lo + 1, mid);
+                if (d + numericBound(nearest, mismatches) < mu) {
+                    return;
+                }
+                lo = mid;
+            } else {
+                search(points, query, vehicleId, maxPrice, mismatches, nearest, mid, hi);
+                if (d - numericBound(nearest, mismatches) > mu) {
+                    return;
+                }
+                lo = lo + 1;
+                hi = mid;
+            }
+        }
+    }
+
+    private static float numericBound(Nearest nearest, int mismatches) {
+        float bound = nearest.bound();
+        return bound == Float.POSITIVE_INFINITY ? bound : (float) Math.sqrt(Math.max(0, bound * bound - mismatches));
+    }
+
+    // A copy with the row the result set is positioned on, replacing any vehicle with the same id.
+    // The result set must have the columns of COLUMNS.
+    public SimilarVehicles with(ResultSet rs) throws SQLException {
+        int id = rs.getInt("id");
+        SimilarVehicles base = without(id);
+        List<Map<String, Integer>> dictionaries = new ArrayList<>();
+        for (Map<String, Integer> dictionary : base.dictionaries) {
+            dictionaries.add(new HashMap<>(dictionary));
+        }
+        Points row = new Points(1);
+        read(rs, row, dictionaries);
+        // Added vehicles normally arrive in id order; anything else goes in its place
+        Points added = new Points(base.added.count + 1);
+        boolean placed = false;
+        for (int p = 0; p < base.added.count; p++) {
+            if (!placed && base.added.ids[p] > id) {
+                added.add(row, 0);
+                placed = true;
+            }
+            added.add(base.added, p);
+        }
+        if (!placed) {
+            added.add(row, 0);
+        }
+        return new SimilarVehicles(dictionaries, base.inverseScales, base.tree, base.order, base.radius,
+                base.groupStarts, base.groupCategories, base.deleted, base.deletedCount, added).compactIfNeeded();
+    }
+
+    public SimilarVehicles without(int vehicleId) {
+        int point = tree.indexOf(vehicleId);
+        if (point >= 0 && !isDeleted(point)) {
+            long[] deleted = this.deleted.clone();
+            deleted[point >>> 6] |= 1L << point;
+            return new SimilarVehicles(dictionaries, inverseScales, tree, order, radius, groupStarts, groupCategories,
+                    deleted, deletedCount + 1, added)
+                    .compactIfNeeded();
+        }
+        int addedPoint = added.indexOf(vehicleId);
+        if (addedPoint < 0) {
+            return this;
+        }
+        Points remaining = new Points(added.count);
+        for (int p = 0; p < added.count; p++) {
+            if (p != addedPoint) {
+                remaining.add(added, p);
+            }
+        }
+        return new SimilarVehicles(dictionaries, inverseScales, tree, order, radius, groupStarts, groupCategories,
+                deleted, deletedCount, remaining);
+    }
+
+    // Rebuilds the tree from the live vehicles once the ones outside it would slow lookups down
+    private SimilarVehicles compactIfNeeded() {
+        int limit = Math.max(MIN_REBUILD, tree.count / 8);
+        if (added.count <= limit && deletedCount <= limit) {
+            return this;
+        }
+        Points live = new Points(getVehicleCount());
+        int a = 0;
+        for (int p = 0; p < tree.count; p++) {
+            while (a < added.count && added.ids[a] < tree.ids[p]) {
+                live.add(added, a++);
+            }
+            if (!isDeleted(p)) {
+                live.add(tree, p);
+            }
+        }
+        while (a < added.count) {
+            live.add(added, a++);
+        }
+        return build(dictionaries, live);
+    }
+}
@@ -0,0 +1,140 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Prepared statements for one pooled connection, keyed by their SQL text.
+// A connection is only used by the thread holding its lease, so the per-connection map needs no locking;
+// the hit/miss counters are shared by every connection and are thread-safe.
+// Some SQL is built per call (search filters, IN lists sized to their arguments), so both are bounded: each
+// connection keeps its MAX_STATEMENTS most recently used statements and closes the one it evicts, and once
+// there are more than MAX_COUNTERS counters the least used half is dropped.
+public class StatementCache {
+    private static final int MAX_STATEMENTS = 256;
+    private static final int MAX_COUNTERS = 1024;
+    private static final Map<String, Counter> COUNTERS = new ConcurrentHashMap<>();
+
+    private final Connection conn;
+    private final Map<String, PreparedStatement> statements = lru();
+    private final Map<String, PreparedStatement> keyedStatements = lru();
+
+    public StatementCache(Connection conn) {
+        this.conn = conn;
+    }
+
+    // Access order makes the eldest entry the least recently used statement
+    private static Map<String, PreparedStatement> lru() {
+        return new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() > MAX_STATEMENTS) {
+                    closeQuietly(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public PreparedStatement prepare(String sql) throws SQLException {
+        return lookup(statements, sql, false);
+    }
+
+    // For inserts whose generated id is read back with getGeneratedKeys()
+    public PreparedStatement prepareReturningKeys(String sql) throws SQLException {
+        return lookup(keyedStatements, sql, true);
+    }
+
+    private PreparedStatement lookup(Map<String, PreparedStatement> cache, String sql, boolean returnKeys) throws SQLException {
+        Counter counter = counter(sql);
+        PreparedStatement stmt = cache.get(sql);
+        if (stmt != null && !stmt.isClosed()) {
+            counter.hits.incrementAndGet();
+            stmt.clearParameters();
+            return stmt;
+        }
+        counter.misses.incrementAndGet();
+        stmt = returnKeys
+                ? conn.prepareStatement(sql, PreparedStatement.RETURN_GENERATED_KEYS)
+                : conn.prepareStatement(sql);
+        cache.put(sql, stmt);
+        return stmt;
+    }
+
+    public void close() {
+        closeAll(statements);
+        closeAll(keyedStatements);
+    }
+
+    private static void closeAll(Map<String, PreparedStatement> cache) {
+        for (PreparedStatement stmt : cache.values()) {
+            closeQuietly(stmt);
+        }
+        cache.clear();
+    }
+
+    private static void closeQuietly(PreparedStatement stmt) {
+        try {
+            stmt.close();
+        } catch (SQLException e) {
+            System.out.println("An error occurred while closing a cached statement: " + e.getMessage());
+        }
+    }
+
+    private static Counter counter(String sql) {
+        Counter counter = COUNTERS.get(sql);
+        if (counter != null) {
+            return counter;
+        }
+        if (COUNTERS.size() >= MAX_COUNTERS) {
+            prune();
+        }
+        return COUNTERS.computeIfAbsent(sql, Counter::new);
+    }
+
+    // A thread still holding a dropped counter counts into it harmlessly; the next lookup starts a fresh one
+    private static synchronized void prune() {
+        if (COUNTERS.size() < MAX_COUNTERS) {
+            return;
+        }
+        List<Counter> counters = new ArrayList<>(COUNTERS.values());
+        counters.sort(Comparator.comparingLong((Counter c) -> c.getHits() + c.getMisses()));
+        for (Counter counter : counters.subList(0, counters.size() / 2)) {
+            COUNTERS.remove(counter.sql);
+        }
+    }
+
+    public static List<Counter> counters() {
+        return new ArrayList<>(COUNTERS.values());
+    }
+
+    public static class Counter {
+        private final String sql;
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+
+        private Counter(String sql) {
+            this.sql = sql;
+        }
+
+        public String getSql() {
+            return sql;
+        }
+
+        public long getHits() {
+            return hits.get();
+        }
+
+        public long getMisses() {
+            return misses.get();
+        }
+    }
+}
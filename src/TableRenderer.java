@@ -0,0 +1,178 @@
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+// Lays out console listings as aligned tables and writes each one to the terminal in a single flush.
+// Cell text is appended straight into one reusable buffer and remembered as offsets, so filling a
+// table allocates nothing per cell; widths are measured once all rows are in, then the whole table is
+// built in a second reusable buffer and copied out in fixed-size chunks.
+// A renderer keeps its buffers between listings and is meant for the console thread only.
+public class TableRenderer {
+    private static final String GAP = "  ";
+    private static final int CHUNK = 8192;
+    private static final Writer TERMINAL = new OutputStreamWriter(
+            new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16), Charset.defaultCharset());
+
+    private final String[] headers;
+    private final boolean[] rightAligned;
+    private final int[] widths;
+    private final StringBuilder cells = new StringBuilder();
+    private final StringBuilder output = new StringBuilder();
+    private final char[] chunk = new char[CHUNK];
+    private int[] cellEnds = new int[256];
+    private int cellCount;
+
+    public static class Column {
+        private final String header;
+        private final boolean rightAligned;
+
+        private Column(String header, boolean rightAligned) {
+            this.header = header;
+            this.rightAligned = rightAligned;
+        }
+    }
+
+    public static Column left(String header) {
+        return new Column(header, false);
+    }
+
+    // For numbers, so the digits line up
+    public static Column right(String header) {
+        return new Column(header, true);
+    }
+
+    public TableRenderer(Column... columns) {
+        this.headers = new String[columns.length];
+        this.rightAligned = new boolean[columns.length];
+        this.widths = new int[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            headers[i] = columns[i].header;
+            rightAligned[i] = columns[i].rightAligned;
+        }
+    }
+
+    // Starts a new table; the buffers keep their capacity
+    public TableRenderer clear() {
+        cells.setLength(0);
+        cellCount = 0;
+        return this;
+    }
+
+    public int getRowCount() {
+        return cellCount / headers.length;
+    }
+
+    // Cells are added left to right, row after row; null is shown as an empty cell
+    public TableRenderer cell(String value) {
+        if (value != null) {
+            cells.append(value);
+        }
+        return endCell();
+    }
+
+    public TableRenderer cell(int value) {
+        cells.append(value);
+        return endCell();
+    }
+
+    public TableRenderer cell(Integer value) {
+        if (value != null) {
+            cells.append(value.intValue());
+        }
+        return endCell();
+    }
+
+    private TableRenderer endCell() {
+        if (cellCount == cellEnds.length) {
+            int[] grown = new int[cellEnds.length * 2];
+            System.arraycopy(cellEnds, 0, grown, 0, cellCount);
+            cellEnds = grown;
+        }
+        cellEnds[cellCount++] = cells.length();
+        return this;
+    }
+
+    // Writes the header, a rule and every complete row, then flushes once
+    public void print() {
+        int columns = headers.length;
+        int rows = cellCount / columns;
+        for (int c = 0; c < columns; c++) {
+            widths[c] = headers[c].length();
+        }
+        for (int i = 0; i < rows * columns; i++) {
+            int c = i % columns;
+            widths[c] = Math.max(widths[c], cellEnds[i] - cellStart(i));
+        }
+
+        output.setLength(0);
+        for (int c = 0; c < columns; c++) {
+            appendAligned(c, headers[c], 0, headers[c].length());
+        }
+        endLine();
+        for (int c = 0; c < columns; c++) {
+            if (c > 0) {
+                output.append(GAP);
+            }
+            pad('-', widths[c]);
+        }
+        endLine();
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < columns; c++) {
+                int i = r * columns + c;
+                appendAligned(c, cells, cellStart(i), cellEnds[i]);
+            }
+            endLine();
+        }
+        write();
+    }
+
+    private int cellStart(int i) {
+        return i == 0 ? 0 : cellEnds[i - 1];
+    }
+
+    private void appendAligned(int column, CharSequence text, int start, int end) {
+        if (column > 0) {
+            output.append(GAP);
+        }
+        int padding = widths[column] - (end - start);
+        if (rightAligned[column]) {
+            pad(' ', padding);
+            output.append(text, start, end);
+        } else {
+            output.append(text, start, end);
+            // The last column is not padded, so lines carry no trailing spaces
+            if (column < headers.length - 1) {
+                pad(' ', padding);
+            }
+        }
+    }
+
+    private void pad(char c, int count) {
+        for (int i = 0; i < count; i++) {
+            output.append(c);
+        }
+    }
+
+    private void endLine() {
+        output.append(System.lineSeparator());
+    }
+
+    private void write() {
+        // Anything already printed through System.out must reach the terminal first
+        System.out.flush();
+        try {
+            for (int start = 0; start < output.length(); start += CHUNK) {
+                int end = Math.min(output.length(), start + CHUNK);
+                output.getChars(start, end, chunk, 0);
+                TERMINAL.write(chunk, 0, end - start);
+            }
+            TERMINAL.flush();
+        } catch (IOException e) {
+            System.out.println("An error occurred while writing to the terminal: " + e.getMessage());
+        }
+    }
+}
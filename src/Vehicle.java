@@ -0,0 +1,324 @@
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// One row of the Vehicles table. Numeric columns are nullable, as they are in the schema.
+public class Vehicle {
+    private int id;
+    private String make;
+    private String model;
+    private String variant;
+    private String registration;
+    private String category;
+    private Integer price;
+    private Integer mileage;
+    private String fuelType;
+    private Integer size;
+    private String enginePosition;
+    private Integer power;
+    private String drivetrain;
+    private String transmission;
+    private String colour;
+    private String interiorColour;
+    private String engineType;
+    private String notes;
+
+    // Reads the current row of a "SELECT * FROM Vehicles" result
+    public static Vehicle read(ResultSet rs) throws SQLException {
+        Vehicle vehicle = new Vehicle();
+        vehicle.id = rs.getInt("id");
+        vehicle.make = rs.getString("make");
+        vehicle.model = rs.getString("model");
+        vehicle.variant = rs.getString("variant");
+        vehicle.registration = rs.getString("registration");
+        vehicle.category = rs.getString("category");
+        vehicle.price = getInteger(rs, "price");
+        vehicle.mileage = getInteger(rs, "mileage");
+        vehicle.fuelType = rs.getString("fueltype");
+        vehicle.size = getInteger(rs, "size");
+        vehicle.enginePosition = rs.getString("engineposition");
+        vehicle.power = getInteger(rs, "power");
+        vehicle.drivetrain = rs.getString("drivetrain");
+        vehicle.transmission = rs.getString("transmission");
+        vehicle.colour = rs.getString("colour");
+        vehicle.interiorColour = rs.getString("interiorcolour");
+        vehicle.engineType = rs.getString("enginetype");
+        vehicle.notes = rs.getString("notes");
+        return vehicle;
+    }
+
+    // A copy under another id, leaving this one (which may be shared through a cache) untouched
+    Vehicle withId(int id) {
+        Vehicle copy = new Vehicle();
+        copy.id = id;
+        copy.make = make;
+        copy.model = model;
+        copy.variant = variant;
+        copy.registration = registration;
+        copy.category = category;
+        copy.price = price;
+        copy.mileage = mileage;
+        copy.fuelType = fuelType;
+        copy.size = size;
+        copy.enginePosition = enginePosition;
+        copy.power = power;
+        copy.drivetrain = drivetrain;
+        copy.transmission = transmission;
+        copy.colour = colour;
+        copy.interiorColour = interiorColour;
+        copy.engineType = engineType;
+        copy.notes = notes;
+        return copy;
+    }
+
+    private static Integer getInteger(ResultSet rs, String column) throws SQLException {
+        int value = rs.getInt(column);
+        return rs.wasNull() ? null : value;
+    }
+
+    // Binds the 17 insertable columns in the order used by VehicleImporter.INSERT_QUERY
+    public void bindInsert(PreparedStatement stmt) throws SQLException {
+        stmt.setString(1, make);
+        stmt.setString(2, model);
+        stmt.setString(3, variant);
+        stmt.setString(4, registration);
+        stmt.setString(5, category);
+        setInteger(stmt, 6, price);
+        setInteger(stmt, 7, mileage);
+        stmt.setString(8, fuelType);
+        setInteger(stmt, 9, size);
+        stmt.setString(10, enginePosition);
+        setInteger(stmt, 11, power);
+        stmt.setString(12, drivetrain);
+        stmt.setString(13, transmission);
+        stmt.setString(14, colour);
+        stmt.setString(15, interiorColour);
+        stmt.setString(16, engineType);
+        stmt.setString(17, notes);
+    }
+
+    private static void setInteger(PreparedStatement stmt, int index, Integer value) throws SQLException {
+        if (value == null) {
+            stmt.setNull(index, Types.INTEGER);
+        } else {
+            stmt.setInt(index, value);
+        }
+    }
+
+    // Column name to value, in table order
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("id", id);
+        map.put("make", make);
+        map.put("model", model);
+        map.put("variant", variant);
+        map.put("registration", registration);
+        map.put("category", category);
+        map.put("price", price);
+        map.put("mileage", mileage);
+        map.put("fueltype", fuelType);
+        map.put("size", size);
+        map.put("engineposition", enginePosition);
+        map.put("power", power);
+        map.put("drivetrain", drivetrain);
+        map.put("transmission", transmission);
+        map.put("colour", colour);
+        map.put("interiorcolour", interiorColour);
+        map.put("enginetype", engineType);
+        map.put("notes", notes);
+        return map;
+    }
+
+    // The inverse of toMap; numeric fields accept JSON numbers or numeric strings
+    public static Vehicle fromMap(Map<String, Object> map) {
+        Vehicle vehicle = new Vehicle();
+        vehicle.make = text(map, "make");
+        vehicle.model = text(map, "model");
+        vehicle.variant = text(map, "variant");
+        vehicle.registration = text(map, "registration");
+        vehicle.category = text(map, "category");
+        vehicle.price = number(map, "price");
+        vehicle.mileage = number(map, "mileage");
+        vehicle.fuelType = text(map, "fueltype");
+        vehicle.size = number(map, "size");
+        vehicle.enginePosition = text(map, "engineposition");
+        vehicle.power = number(map, "power");
+        vehicle.drivetrain = text(map, "drivetrain");
+        vehicle.transmission = text(map, "transmission");
+        vehicle.colour = text(map, "colour");
+        vehicle.interiorColour = text(map, "interiorcolour");
+        vehicle.engineType = text(map, "enginetype");
+        vehicle.notes = text(map, "notes");
+        if (vehicle.make == null || vehicle.model == null) {
+            throw new IllegalArgumentException("make and model are required");
+        }
+        return vehicle;
+    }
+
+    private static String text(Map<String, Object> map, String key) {
+        Object value = map.get(key);
+        return value == null ? null : value.toString();
+    }
+
+    private static Integer number(Map<String, Object> map, String key) {
+        Object value = map.get(key);
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof Number) {
+            return ((Number) value).intValue();
+        }
+        try {
+            return Integer.valueOf(value.toString().trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(key + " must be a whole number");
+        }
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public void setId(int id) {
+        this.id = id;
+    }
+
+    public String getMake() {
+        return make;
+    }
+
+    public void setMake(String make) {
+        this.make = make;
+    }
+
+    public String getModel() {
+        return model;
+    }
+
+    public void setModel(String model) {
+        this.model = model;
+    }
+
+    public String getVariant() {
+        return variant;
+    }
+
+    public void setVariant(String variant) {
+        this.variant = variant;
+    }
+
+    public String getRegistration() {
+        return registration;
+    }
+
+    public void setRegistration(String registration) {
+        this.registration = registration;
+    }
+
+    public String getCategory() {
+        return category;
+    }
+
+    public void setCategory(String category) {
+        this.category = category;
+    }
+
+    public Integer getPrice() {
+        return price;
+    }
+
+    public void setPrice(Integer price) {
+        this.price = price;
+    }
+
+    public Integer getMileage() {
+        return mileage;
+    }
+
+    public void setMileage(Integer mileage) {
+        this.mileage = mileage;
+    }
+
+    public String getFuelType() {
+        return fuelType;
+    }
+
+    public void setFuelType(String fuelType) {
+        this.fuelType = fuelType;
+    }
+
+    public Integer getSize() {
+        return size;
+    }
+
+    public void setSize(Integer size) {
+        this.size = size;
+    }
+
+    public String getEnginePosition() {
+        return enginePosition;
+    }
+
+    public void setEnginePosition(String enginePosition) {
+        this.enginePosition = enginePosition;
+    }
+
+    public Integer getPower() {
+        return power;
+    }
+
+    public void setPower(Integer power) {
+        this.power = power;
+    }
+
+    public String getDrivetrain() {
+        return drivetrain;
+    }
+
+    public void setDrivetrain(String drivetrain) {
+        this.drivetrain = drivetrain;
+    }
+
+    public String getTransmission() {
+        return transmission;
+    }
+
+    public void setTransmission(String transmission) {
+        this.transmission = transmission;
+    }
+
+    public String getColour() {
+        return colour;
+    }
+
+    public void setColour(String colour) {
+        this.colour = colour;
+    }
+
+    public String getInteriorColour() {
+        return interiorColour;
+    }
+
+    public void setInteriorColour(String interiorColour) {
+        this.interiorColour = interiorColour;
+    }
+
+    public String getEngineType() {
+        return engineType;
+    }
+
+    public void setEngineType(String engineType) {
+        this.engineType = engineType;
+    }
+
+    public String getNotes() {
+        return notes;
+    }
+
+    public void setNotes(String notes) {
+        this.notes = notes;
+    }
+}
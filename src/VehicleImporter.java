@@ -0,0 +1,355 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+// Streams vehicles from a CSV file (with a header row) or a JSON-lines file into Vehicles.
+// Rows are validated one at a time and inserted with executeBatch, one transaction per batch,
+// so an import never holds more than a batch in memory and other writers can get in between batches.
+public class VehicleImporter {
+    public static final String INSERT_QUERY = "INSERT INTO Vehicles (make, model, variant, registration, category, price, mileage, fueltype, size, engineposition, power, drivetrain, transmission, colour, interiorcolour, enginetype, notes) " +
+                                              "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    // Same order as the placeholders in INSERT_QUERY
+    private static final String[] COLUMNS = {
+            "make", "model", "variant", "registration", "category", "price", "mileage", "fueltype", "size",
+            "engineposition", "power", "drivetrain", "transmission", "colour", "interiorcolour", "enginetype", "notes"
+    };
+    private static final Set<String> INTEGER_COLUMNS = new HashSet<>(Arrays.asList("price", "mileage", "size", "power"));
+    private static final Set<String> REQUIRED_COLUMNS = new HashSet<>(Arrays.asList("make", "model"));
+    private static final Map<String, Integer> COLUMN_INDEX = new HashMap<>();
+
+    private static final int BATCH_SIZE = 1000;
+    private static final int MAX_REPORTED_ERRORS = 100;
+
+    static {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            COLUMN_INDEX.put(COLUMNS[i], i);
+        }
+    }
+
+    public static class Report {
+        private long rowsRead;
+        private long rowsImported;
+        private long rowsRejected;
+        private long elapsedNanos;
+        private final List<String> errors = new ArrayList<>();
+
+        private void reject(long line, String message) {
+            rowsRejected++;
+            if (errors.size() < MAX_REPORTED_ERRORS) {
+                errors.add("Line " + line + ": " + message);
+            }
+        }
+
+        public long getRowsRead() {
+            return rowsRead;
+        }
+
+        public long getRowsImported() {
+            return rowsImported;
+        }
+
+        public long getRowsRejected() {
+            return rowsRejected;
+        }
+
+        public List<String> getErrors() {
+            return errors;
+        }
+
+        public double getSeconds() {
+            return elapsedNanos / 1_000_000_000.0;
+        }
+
+        public double getRowsPerSecond() {
+            return elapsedNanos == 0 ? 0 : rowsImported / getSeconds();
+        }
+    }
+
+    public static Report importFile(ConnectionPool pool, Path path) throws IOException, SQLException {
+        Report report = new Report();
+        long start = System.nanoTime();
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            RecordReader records = isJsonLines(path) ? new JsonLinesReader(reader) : new CsvReader(reader);
+            List<Object[]> batch = new ArrayList<>(BATCH_SIZE);
+            List<Long> batchLines = new ArrayList<>(BATCH_SIZE);
+
+            while (true) {
+                Map<String, String> record;
+                try {
+                    record = records.next();
+                } catch (InvalidRecordException e) {
+                    report.rowsRead++;
+                    report.reject(records.line(), e.getMessage());
+                    continue;
+                }
+                if (record == null) {
+                    break;
+                }
+                report.rowsRead++;
+                try {
+                    batch.add(validate(record));
+                    batchLines.add(records.line());
+                } catch (IllegalArgumentException e) {
+                    report.reject(records.line(), e.getMessage());
+                }
+                if (batch.size() == BATCH_SIZE) {
+                    flush(pool, batch, batchLines, report);
+                }
+            }
+            flush(pool, batch, batchLines, report);
+        } finally {
+            report.elapsedNanos = System.nanoTime() - start;
+        }
+        return report;
+    }
+
+    private static boolean isJsonLines(Path path) {
+        String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+        return name.endsWith(".jsonl") || name.endsWith(".ndjson") || name.endsWith(".json");
+    }
+
+    private static Object[] validate(Map<String, String> record) {
+        Object[] values = new Object[COLUMNS.length];
+        for (Map.Entry<String, String> entry : record.entrySet()) {
+            String column = entry.getKey().trim().toLowerCase(Locale.ROOT);
+            Integer index = COLUMN_INDEX.get(column);
+            if (index == null) {
+                throw new IllegalArgumentException("Unknown column '" + entry.getKey() + "'");
+            }
+            String value = entry.getValue() == null ? null : entry.getValue().trim();
+            if (value == null || value.isEmpty()) {
+                continue;
+            }
+            if (INTEGER_COLUMNS.contains(column)) {
+                try {
+                    int number = Integer.parseInt(value);
+                    if (number < 0) {
+                        throw new IllegalArgumentException(column + " must not be negative");
+                    }
+                    values[index] = number;
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException(column + " must be a whole number, got '" + value + "'");
+                }
+            } else if (column.equals("registration")) {
+                try {
+                    values[index] = LocalDate.parse(value).toString();
+                } catch (DateTimeParseException e) {
+                    throw new IllegalArgumentException("registration must be a YYYY-MM-DD date, got '" + value + "'");
+                }
+            } else {
+                values[index] = value;
+            }
+        }
+        for (String column : REQUIRED_COLUMNS) {
+            if (values[COLUMN_INDEX.get(column)] == null) {
+                throw new IllegalArgumentException(column + " is required");
+            }
+        }
+        return values;
+    }
+
+    private static void flush(ConnectionPool pool, List<Object[]> batch, List<Long> batchLines, Report report) throws SQLException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try (ConnectionPool.Lease lease = pool.writer()) {
+            lease.connection().setAutoCommit(false);
+            try {
+                PreparedStatement stmt = lease.prepare(INSERT_QUERY);
+                for (Object[] values : batch) {
+                    for (int i = 0; i < values.length; i++) {
+                        if (values[i] == null) {
+                            stmt.setNull(i + 1, INTEGER_COLUMNS.contains(COLUMNS[i]) ? Types.INTEGER : Types.VARCHAR);
+                        } else {
+                            stmt.setObject(i + 1, values[i]);
+                        }
+                    }
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+                lease.connection().commit();
+                report.rowsImported += batch.size();
+            } catch (SQLException e) {
+                lease.connection().rollback();
+                for (Long line : batchLines) {
+                    report.reject(line, "batch insert failed: " + e.getMessage());
+                }
+            } finally {
+                lease.connection().setAutoCommit(true);
+            }
+        }
+        batch.clear();
+        batchLines.clear();
+    }
+
+    // A single unusable record; the import reports it and carries on with the next one
+    private static class InvalidRecordException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private InvalidRecordException(String message) {
+            super(message);
+        }
+    }
+
+    private interface RecordReader {
+        // Returns null at end of input
+        Map<String, String> next() throws IOException, InvalidRecordException;
+
+        // Line on which the last returned record started
+        long line();
+    }
+
+    private static class JsonLinesReader implements RecordReader {
+        private final BufferedReader reader;
+        private long lineNumber;
+        private long recordLine;
+
+        private JsonLinesReader(BufferedReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public Map<String, String> next() throws IOException, InvalidRecordException {
+            String text;
+            while ((text = reader.readLine()) != null) {
+                lineNumber++;
+                if (text.trim().isEmpty()) {
+                    continue;
+                }
+                recordLine = lineNumber;
+                Map<String, String> record = new HashMap<>();
+                try {
+                    for (Map.Entry<String, Object> entry : Json.parseObject(text).entrySet()) {
+                        Object value = entry.getValue();
+                        record.put(entry.getKey(), value == null ? null : value.toString());
+                    }
+                } catch (IllegalArgumentException e) {
+                    throw new InvalidRecordException("invalid JSON: " + e.getMessage());
+                }
+                return record;
+            }
+            return null;
+        }
+
+        @Override
+        public long line() {
+            return recordLine;
+        }
+    }
+
+    // RFC 4180 style: comma separated, double-quoted fields may contain commas, doubled quotes and newlines
+    private static class CsvReader implements RecordReader {
+        private final BufferedReader reader;
+        private final String[] header;
+        private long lineNumber;
+        private long recordLine;
+
+        private CsvReader(BufferedReader reader) throws IOException {
+            this.reader = reader;
+            List<String> fields = readFields();
+            if (fields == null) {
+                throw new IOException("The CSV file is empty; a header row is required");
+            }
+            this.header = fields.toArray(new String[0]);
+            for (String column : header) {
+                if (!COLUMN_INDEX.containsKey(column.trim().toLowerCase(Locale.ROOT))) {
+                    throw new IOException("Unknown column '" + column + "' in CSV header");
+                }
+            }
+        }
+
+        @Override
+        public Map<String, String> next() throws IOException, InvalidRecordException {
+            List<String> fields;
+            do {
+                fields = readFields();
+                if (fields == null) {
+                    return null;
+                }
+            } while (fields.size() == 1 && fields.get(0).isEmpty());
+
+            if (fields.size() != header.length) {
+                throw new InvalidRecordException("expected " + header.length + " fields but found " + fields.size());
+            }
+            Map<String, String> record = new HashMap<>();
+            for (int i = 0; i < header.length; i++) {
+                record.put(header[i], fields.get(i));
+            }
+            return record;
+        }
+
+        @Override
+        public long line() {
+            return recordLine;
+        }
+
+        private List<String> readFields() throws IOException {
+            String text = reader.readLine();
+            if (text == null) {
+                return null;
+            }
+            lineNumber++;
+            recordLine = lineNumber;
+
+            List<String> fields = new ArrayList<>();
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            int i = 0;
+            while (true) {
+                if (i == text.length()) {
+                    if (!quoted) {
+                        break;
+                    }
+                    // A quoted field continues on the next physical line
+                    String continuation = reader.readLine();
+                    if (continuation == null) {
+                        throw new IOException("Unterminated quoted field starting on line " + recordLine);
+                    }
+                    lineNumber++;
+                    field.append('\n');
+                    text = continuation;
+                    i = 0;
+                    continue;
+                }
+                char c = text.charAt(i++);
+                if (quoted) {
+                    if (c == '"') {
+                        if (i < text.length() && text.charAt(i) == '"') {
+                            field.append('"');
+                            i++;
+                        } else {
+                            quoted = false;
+                        }
+                    } else {
+                        field.append(c);
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',') {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                } else {
+                    field.append(c);
+                }
+            }
+            fields.add(field.toString());
+            return fields;
+        }
+    }
+}
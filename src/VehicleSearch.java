@@ -0,0 +1,316 @@
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Filtered search over Vehicles with facet counts.
+// Conditions are always appended in the same column order, so each combination of filters maps to one
+// SQL string and is prepared once per connection by the statement cache.
+// Free-text keywords are matched against the VehicleText FTS5 index: a vehicle matches if every keyword
+// (or a word starting with it) appears somewhere in its descriptive columns, and rankedSearch() orders
+// matches by BM25, weighted towards make and model, so the strongest matches come first.
+public class VehicleSearch {
+    static final int FACET_LIMIT = 10;
+    // Keywords shorter than this must match a whole word rather than a prefix
+    private static final int MIN_PREFIX_LENGTH = 3;
+    // BM25 weight per VehicleText column, in SchemaMigrator.VEHICLE_TEXT_COLUMNS order
+    private static final String RANK = "bm25(VehicleText, 4.0, 4.0, 2.0, 2.0, 2.0, 1.0, 2.0, 2.0, 1.0, 1.0, 1.0)";
+
+    public enum Facet {
+        MAKE("make", "Make"),
+        CATEGORY("category", "Category"),
+        FUEL_TYPE("fueltype", "Fuel Type"),
+        TRANSMISSION("transmission", "Transmission"),
+        DRIVETRAIN("drivetrain", "Drivetrain");
+
+        private final String column;
+        private final String label;
+
+        Facet(String column, String label) {
+            this.column = column;
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    public static class Criteria {
+        private String make;
+        private String model;
+        private String category;
+        private String fuelType;
+        private String transmission;
+        private String drivetrain;
+        private Integer minPrice;
+        private Integer maxPrice;
+        private Integer minMileage;
+        private Integer maxMileage;
+        private String registeredFrom;
+        private String registeredTo;
+        private String matchQuery;
+
+        public void setMake(String make) {
+            this.make = blankToNull(make);
+        }
+
+        public void setModel(String model) {
+            this.model = blankToNull(model);
+        }
+
+        public void setCategory(String category) {
+            this.category = blankToNull(category);
+        }
+
+        public void setFuelType(String fuelType) {
+            this.fuelType = blankToNull(fuelType);
+        }
+
+        public void setTransmission(String transmission) {
+            this.transmission = blankToNull(transmission);
+        }
+
+        public void setDrivetrain(String drivetrain) {
+            this.drivetrain = blankToNull(drivetrain);
+        }
+
+        public void setPriceRange(Integer minPrice, Integer maxPrice) {
+            this.minPrice = minPrice;
+            this.maxPrice = maxPrice;
+        }
+
+        public void setMileageRange(Integer minMileage, Integer maxMileage) {
+            this.minMileage = minMileage;
+            this.maxMileage = maxMileage;
+        }
+
+        // Registration dates are stored as YYYY-MM-DD text, so string comparison orders them correctly
+        public void setRegistrationRange(String registeredFrom, String registeredTo) {
+            this.registeredFrom = blankToNull(registeredFrom);
+            this.registeredTo = blankToNull(registeredTo);
+        }
+
+        // Free text such as "red convertible manual"; words are matched case- and accent-insensitively
+        public void setText(String text) {
+            this.matchQuery = text == null ? null : matchQuery(text);
+        }
+
+        public boolean hasText() {
+            return matchQuery != null;
+        }
+
+        // Named filters as used by the API's query string and by scripts: q (free text), make, model, category,
+        // fueltype, transmission, drivetrain, minPrice, maxPrice, minMileage, maxMileage, registeredFrom, registeredTo
+        public static Criteria fromParams(Map<String, String> params) {
+            Criteria criteria = new Criteria();
+            criteria.setText(params.get("q"));
+            criteria.setMake(params.get("make"));
+            criteria.setModel(params.get("model"));
+            criteria.setCategory(params.get("category"));
+            criteria.setFuelType(params.get("fueltype"));
+            criteria.setTransmission(params.get("transmission"));
+            criteria.setDrivetrain(params.get("drivetrain"));
+            criteria.setPriceRange(optionalInt(params, "minPrice"), optionalInt(params, "maxPrice"));
+            criteria.setMileageRange(optionalInt(params, "minMileage"), optionalInt(params, "maxMileage"));
+            criteria.setRegistrationRange(params.get("registeredFrom"), params.get("registeredTo"));
+            return criteria;
+        }
+
+        private static Integer optionalInt(Map<String, String> params, String name) {
+            String value = params.get(name);
+            if (value == null || value.trim().isEmpty()) {
+                return null;
+            }
+            try {
+                return Integer.valueOf(value.trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(name + " must be a whole number");
+            }
+        }
+
+        private static String blankToNull(String value) {
+            return value == null || value.trim().isEmpty() ? null : value.trim();
+        }
+
+        // Builds the WHERE clause, leaving out the condition on the given facet column (if any)
+        private String where(Facet excluded, List<Object> params) {
+            return where(excluded, true, params);
+        }
+
+        private String where(Facet excluded, boolean includeText, List<Object> params) {
+            StringBuilder sql = new StringBuilder(" WHERE 1 = 1");
+            if (includeText && matchQuery != null) {
+                sql.append(" AND id IN (SELECT rowid FROM VehicleText WHERE VehicleText MATCH ?)");
+                params.add(matchQuery);
+            }
+            equal(sql, params, Facet.MAKE, excluded, make);
+            if (model != null) {
+                sql.append(" AND model = ? COLLATE NOCASE");
+                params.add(model);
+            }
+            equal(sql, params, Facet.CATEGORY, excluded, category);
+            equal(sql, params, Facet.FUEL_TYPE, excluded, fuelType);
+            equal(sql, params, Facet.TRANSMISSION, excluded, transmission);
+            equal(sql, params, Facet.DRIVETRAIN, excluded, drivetrain);
+            bound(sql, params, "price >= ?", minPrice);
+            bound(sql, params, "price <= ?", maxPrice);
+            bound(sql, params, "mileage >= ?", minMileage);
+            bound(sql, params, "mileage <= ?", maxMileage);
+            bound(sql, params, "registration >= ?", registeredFrom);
+            bound(sql, params, "registration <= ?", registeredTo);
+            return sql.toString();
+        }
+
+        // The same conditions as where(), for searching an in-memory snapshot; text has no in-memory index
+        private InventorySnapshot.Filter filter(InventorySnapshot snapshot, Facet excluded) {
+            if (matchQuery != null) {
+                throw new IllegalArgumentException("Keyword searches are not served from the inventory snapshot");
+            }
+            InventorySnapshot.Filter filter = snapshot.filter();
+            equal(filter, Facet.MAKE, excluded, make);
+            filter.equal("model", model);
+            equal(filter, Facet.CATEGORY, excluded, category);
+            equal(filter, Facet.FUEL_TYPE, excluded, fuelType);
+            equal(filter, Facet.TRANSMISSION, excluded, transmission);
+            equal(filter, Facet.DRIVETRAIN, excluded, drivetrain);
+            filter.range("price", minPrice, maxPrice);
+            filter.range("mileage", minMileage, maxMileage);
+            filter.range("registration", registeredFrom, registeredTo);
+            return filter;
+        }
+
+        private static void equal(InventorySnapshot.Filter filter, Facet facet, Facet excluded, String value) {
+            if (facet != excluded) {
+                filter.equal(facet.column, value);
+            }
+        }
+
+        private static void equal(StringBuilder sql, List<Object> params, Facet facet, Facet excluded, String value) {
+            if (value != null && facet != excluded) {
+                sql.append(" AND ").append(facet.column).append(" = ? COLLATE NOCASE");
+                params.add(value);
+            }
+        }
+
+        private static void bound(StringBuilder sql, List<Object> params, String condition, Object value) {
+            if (value != null) {
+                sql.append(" AND ").append(condition);
+                params.add(value);
+            }
+        }
+    }
+
+    // Turns free text into an FTS5 query: each word is quoted so punctuation and FTS5 operators in the input
+    // are taken literally, longer words also match as prefixes, and all words must match.
+    // Returns null when the text has no words.
+    static String matchQuery(String text) {
+        StringBuilder query = new StringBuilder();
+        for (String word : text.split("[^\\p{L}\\p{N}]+")) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            if (query.length() > 0) {
+                query.append(" AND ");
+            }
+            query.append('"').append(word).append('"');
+            if (word.length() >= MIN_PREFIX_LENGTH) {
+                query.append('*');
+            }
+        }
+        return query.length() == 0 ? null : query.toString();
+    }
+
+    // Matches for criteria with text, best first, skipping the first offset. Ranking has no stable key to
+    // continue from, so pages are fetched by offset; the text match is evaluated once, in the subquery.
+    public static List<InventoryPager.Row> rankedSearch(ConnectionPool.Lease lease, Criteria criteria, int offset, int limit) throws SQLException {
+        if (!criteria.hasText()) {
+            throw new IllegalArgumentException("Enter some keywords to search for");
+        }
+        List<Object> params = new ArrayList<>();
+        params.add(criteria.matchQuery);
+        String sql = "SELECT id, make, model, variant, registration, price, mileage, m.score " +
+                     "FROM (SELECT rowid AS match_id, " + RANK + " AS score FROM VehicleText WHERE VehicleText MATCH ?) m " +
+                     "JOIN Vehicles ON Vehicles.id = m.match_id" + criteria.where(null, false, params) +
+                     " ORDER BY m.score, id LIMIT ? OFFSET ?";
+        params.add(limit);
+        params.add(offset);
+
+        PreparedStatement stmt = lease.prepare(sql);
+        bind(stmt, params);
+        List<InventoryPager.Row> rows = new ArrayList<>(limit);
+        try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                rows.add(new InventoryPager.Row(rs, InventoryPager.SortKey.ID).withScore(rs.getDouble("score")));
+            }
+        }
+        return rows;
+    }
+
+    // Returns up to limit matches with an id greater than afterId, in id order
+    public static List<InventoryPager.Row> search(ConnectionPool.Lease lease, Criteria criteria, int afterId, int limit) throws SQLException {
+        List<Object> params = new ArrayList<>();
+        String sql = InventoryPager.COLUMNS + criteria.where(null, params) + " AND id > ? ORDER BY id LIMIT ?";
+        params.add(afterId);
+        params.add(limit);
+
+        PreparedStatement stmt = lease.prepare(sql);
+        bind(stmt, params);
+        List<InventoryPager.Row> rows = new ArrayList<>(limit);
+        try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                rows.add(new InventoryPager.Row(rs, InventoryPager.SortKey.ID));
+            }
+        }
+        return rows;
+    }
+
+    public static List<InventoryPager.Row> search(InventorySnapshot snapshot, Criteria criteria, int afterId, int limit) {
+        return snapshot.search(criteria.filter(snapshot, null), afterId, limit);
+    }
+
+    public static int count(ConnectionPool.Lease lease, Criteria criteria) throws SQLException {
+        List<Object> params = new ArrayList<>();
+        PreparedStatement stmt = lease.prepare("SELECT COUNT(*) FROM Vehicles" + criteria.where(null, params));
+        bind(stmt, params);
+        try (ResultSet rs = stmt.executeQuery()) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    public static int count(InventorySnapshot snapshot, Criteria criteria) {
+        return snapshot.count(criteria.filter(snapshot, null));
+    }
+
+    // Counts per value of the facet column. The facet's own filter is left out so the counts show the
+    // alternatives a user could switch to, while every other filter still applies.
+    public static Map<String, Integer> facetCounts(ConnectionPool.Lease lease, Criteria criteria, Facet facet) throws SQLException {
+        List<Object> params = new ArrayList<>();
+        String sql = "SELECT " + facet.column + " AS value, COUNT(*) AS total FROM Vehicles" + criteria.where(facet, params) +
+                     " GROUP BY " + facet.column + " COLLATE NOCASE ORDER BY total DESC, value LIMIT " + FACET_LIMIT;
+
+        PreparedStatement stmt = lease.prepare(sql);
+        bind(stmt, params);
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                String value = rs.getString("value");
+                counts.put(value == null ? "(none)" : value, rs.getInt("total"));
+            }
+        }
+        return counts;
+    }
+
+    public static Map<String, Integer> facetCounts(InventorySnapshot snapshot, Criteria criteria, Facet facet) {
+        return snapshot.facetCounts(criteria.filter(snapshot, facet), facet.column, FACET_LIMIT);
+    }
+
+    private static void bind(PreparedStatement stmt, List<Object> params) throws SQLException {
+        for (int i = 0; i < params.size(); i++) {
+            stmt.setObject(i + 1, params.get(i));
+        }
+    }
+}
@@ -0,0 +1,166 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// Group commit for small, frequent writes such as bookings and registrations. Callers hand their statements
+// to one writer thread, which gathers whatever arrives within a short window (or until the batch is full)
+// and runs the lot in a single transaction, so a burst of bookings pays for one commit instead of one each.
+//
+// Every write runs inside its own savepoint: one that fails is rolled back on its own and its caller gets
+// the exception, while the rest of the batch commits. Callers are only answered once the transaction has
+// committed, so a write reported as done is in the database.
+public class WriteQueue {
+    private static final int QUEUE_LIMIT = 10_000;
+    private static final int MAX_BATCH = 64;
+    private static final long COMMIT_WINDOW_MICROS = 1_000;
+    private static final long WAIT_SECONDS = 30;
+
+    // One write: statements run on the writer inside the shared transaction. It must not commit, roll
+    // back or change auto-commit; throwing undoes just this write.
+    public interface Write<T, E extends Exception> {
+        T apply(ConnectionPool.Lease lease) throws SQLException, E;
+    }
+
+    private static class Pending<T> {
+        private final Write<T, ?> write;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private T value;
+
+        private Pending(Write<T, ?> write) {
+            this.write = write;
+        }
+
+        // Returns false when the write failed and has already been answered
+        private boolean run(ConnectionPool.Lease lease) throws SQLException {
+            lease.prepare("SAVEPOINT queued_write").execute();
+            try {
+                value = write.apply(lease);
+            } catch (Exception e) {
+                lease.prepare("ROLLBACK TO queued_write").execute();
+                lease.prepare("RELEASE queued_write").execute();
+                result.completeExceptionally(e);
+                return false;
+            }
+            lease.prepare("RELEASE queued_write").execute();
+            return true;
+        }
+    }
+
+    private final ConnectionPool pool;
+    private final BlockingQueue<Pending<?>> queue = new ArrayBlockingQueue<>(QUEUE_LIMIT);
+
+    public WriteQueue(ConnectionPool pool) {
+        this.pool = pool;
+        Thread thread = new Thread(this::drain, "write-queue");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public int getQueuedWrites() {
+        return queue.size();
+    }
+
+    // Waits for the write to commit and returns its result. Exceptions thrown by the write reach the caller
+    // unchanged; failure names the checked exception type the write may throw besides SQLException.
+    public <T, E extends Exception> T execute(Write<T, E> write, Class<E> failure) throws SQLException, E {
+        Pending<T> pending = new Pending<>(write);
+        if (!queue.offer(pending)) {
+            throw new RejectedExecutionException("The system is busy, please try again shortly.");
+        }
+        try {
+            return pending.result.get(WAIT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a write to commit", e);
+        } catch (TimeoutException e) {
+            // The write may still commit later; the caller only learns it did not in time
+            throw new SQLException("Timed out waiting for a write to commit", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (failure.isInstance(cause)) {
+                throw failure.cast(cause);
+            }
+            throw new SQLException(cause.getMessage(), cause);
+        }
+    }
+
+    public <T> T execute(Write<T, SQLException> write) throws SQLException {
+        return execute(write, SQLException.class);
+    }
+
+    private void drain() {
+        List<Pending<?>> batch = new ArrayList<>(MAX_BATCH);
+        while (true) {
+            try {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(COMMIT_WINDOW_MICROS);
+                while (batch.size() < MAX_BATCH) {
+                    Pending<?> next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                // Only a daemon thread; nothing to hand the interruption to
+                if (batch.isEmpty()) {
+                    continue;
+                }
+            }
+            commit(batch);
+            batch.clear();
+        }
+    }
+
+    private void commit(List<Pending<?>> batch) {
+        long start = System.nanoTime();
+        List<Pending<?>> applied = new ArrayList<>(batch.size());
+        try (ConnectionPool.Lease lease = pool.writer()) {
+            Connection conn = lease.connection();
+            conn.setAutoCommit(false);
+            try {
+                for (Pending<?> pending : batch) {
+                    if (pending.run(lease)) {
+                        applied.add(pending);
+                    }
+                }
+                conn.commit();
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException | RuntimeException e) {
+            // The transaction as a whole failed, so nothing that was still waiting got written
+            applied.clear();
+            for (Pending<?> pending : batch) {
+                pending.result.completeExceptionally(e);
+            }
+            return;
+        } finally {
+            Metrics.record(Metrics.Operation.GROUP_COMMIT, start, 0, applied.size());
+        }
+        for (Pending<?> pending : applied) {
+            complete(pending);
+        }
+    }
+
+    private static <T> void complete(Pending<T> pending) {
+        pending.result.complete(pending.value);
+    }
+}